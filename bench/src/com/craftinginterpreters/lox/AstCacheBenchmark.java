@@ -0,0 +1,83 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+Time-to-first-statement with and without the .loxc cache.
+
+Both paths start from the raw file bytes on disk and stop once we hold the List<Stmt>
+the interpreter would start executing. The cold path scans and parses, the warm path
+hashes the source and maps the cache file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AstCacheBenchmark
+{
+    @Param({"ARITHMETIC", "DEEP_NESTING", "MANY_GLOBALS"})
+    public Workload workload;
+
+    @Param({"20000"})
+    public int size;
+
+    private Path dir;
+    private Path source;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        dir = Files.createTempDirectory("loxc-bench");
+        source = dir.resolve("bench.lox");
+        Files.writeString(source, workload.generate(size));
+
+        // Prime the cache file once so the warm path has something to load.
+        byte[] bytes = Files.readAllBytes(source);
+        AstCache.store(source, bytes, Lox.parse(new String(bytes, Charset.defaultCharset())));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        Files.deleteIfExists(AstCache.cachePathFor(source));
+        Files.deleteIfExists(source);
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public List<Stmt> scanAndParse() throws IOException
+    {
+        byte[] bytes = Files.readAllBytes(source);
+        return Lox.parse(new String(bytes, Charset.defaultCharset()));
+    }
+
+    @Benchmark
+    public List<Stmt> loadCache() throws IOException
+    {
+        byte[] bytes = Files.readAllBytes(source);
+        List<Stmt> statements = AstCache.load(source, bytes);
+        if (statements == null) throw new IllegalStateException("cache miss");
+        return statements;
+    }
+}
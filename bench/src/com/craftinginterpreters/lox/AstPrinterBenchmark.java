@@ -0,0 +1,73 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+Dumping the same number of statements nested deeper and deeper: 2000 print statements in
+blocks depth levels deep. The output grows with depth (every line carries its indentation),
+so a printer that streams should get slower about as fast as the output grows and allocate
+next to nothing per op. Building a String per node and re-indenting it at each level up is
+quadratic in depth instead.
+
+    tree       AstTreePrinter to a Writer
+    indented   AstPrinter to a Writer
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AstPrinterBenchmark
+{
+    private static final int STATEMENTS = 2000;
+
+    @Param({"10", "100", "1000"})
+    public int depth;
+
+    private List<Stmt> statements;
+    private PrintWriter sink;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        StringBuilder source = new StringBuilder("var a = 1;\n");
+        for (int round = 0; round < STATEMENTS / depth; round++)
+        {
+            for (int i = 0; i < depth; i++) source.append("{ print a + ").append(i).append(";\n");
+            for (int i = 0; i < depth; i++) source.append("}\n");
+        }
+        statements = Lox.parse(source.toString());
+        sink = new PrintWriter(Writer.nullWriter());
+    }
+
+    @Benchmark
+    public PrintWriter tree()
+    {
+        new AstTreePrinter().print(statements, sink);
+        return sink;
+    }
+
+    @Benchmark
+    public PrintWriter indented()
+    {
+        new AstPrinter().print(statements, sink);
+        return sink;
+    }
+}
@@ -0,0 +1,72 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+What collecting coverage costs on each Workload:
+
+    plain      the tree walker with loops kept out of LoopCompiler, as coverage runs them
+    covered    CoverageInterpreter setting a bit per statement and ORing its bits into a
+               shared Coverage at the end of each run
+
+Against the default interpreter, with LoopCompiler on, loop heavy scripts lose a good deal
+more than the recording itself; that's the price of seeing inside the loops.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoverageBenchmark
+{
+    @Param({"IDENTIFIERS", "ARITHMETIC", "DEEP_NESTING", "STRING_CONCAT", "MANY_GLOBALS", "NUMERIC_LIST", "COUNTERS"})
+    public Workload workload;
+
+    @Param({"1000"})
+    public int size;
+
+    private List<Stmt> statements;
+    private PrintWriter sink;
+    private final Coverage coverage = new Coverage();
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        statements = Lox.parse(workload.generate(size));
+        sink = new PrintWriter(Writer.nullWriter());
+    }
+
+    @Benchmark
+    public Interpreter plain()
+    {
+        Interpreter interpreter = new Interpreter(new Environment(), sink);
+        interpreter.osrThreshold = -1;
+        interpreter.interpret(statements);
+        return interpreter;
+    }
+
+    @Benchmark
+    public Interpreter covered()
+    {
+        Interpreter interpreter = new CoverageInterpreter(new Environment(), sink, coverage, workload.name());
+        interpreter.interpret(statements);
+        return interpreter;
+    }
+}
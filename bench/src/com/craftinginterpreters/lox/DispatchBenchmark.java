@@ -0,0 +1,232 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+What dispatch costs, with the same evaluator written three ways over the expressions of a
+Workload (every right hand side of its assignments, variables read as 1):
+
+    visitor      Expr.accept and an Expr.Visitor, what Interpreter does
+    tagSwitch    SealedAst's generated ExprSwitch, a switch on the record's tag()
+    instanceOf   a chain of instanceof patterns over the sealed records, most common first
+
+The arithmetic itself is Interpreter.binary/unary in all three, so the differences are the
+dispatch and the shape of the nodes (fields against record accessors).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark
+{
+    @Param({"ARITHMETIC", "DEEP_NESTING"})
+    public Workload workload;
+
+    @Param({"1000"})
+    public int size;
+
+    private final List<Expr> classes = new ArrayList<>();
+    private final List<SealedAst.Expr> records = new ArrayList<>();
+    private final VisitorEvaluator visitor = new VisitorEvaluator();
+    private final SwitchEvaluator tagSwitch = new SwitchEvaluator();
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        collect(Lox.parse(workload.generate(size)));
+        if (classes.isEmpty()) throw new IllegalStateException(workload + " has no assignments");
+        for (Expr expr : classes) records.add(SealedAst.from(expr));
+    }
+
+    private void collect(List<Stmt> statements)
+    {
+        for (Stmt stmt : statements)
+        {
+            if (stmt instanceof Stmt.Block block) collect(block.statements);
+            else if (stmt instanceof Stmt.Expression statement && statement.expression instanceof Expr.Assign assign)
+            {
+                classes.add(assign.value);
+            }
+        }
+    }
+
+    @Benchmark
+    public Object visitor()
+    {
+        Object last = null;
+        for (Expr expr : classes) last = expr.accept(visitor);
+        return last;
+    }
+
+    @Benchmark
+    public Object tagSwitch()
+    {
+        Object last = null;
+        for (SealedAst.Expr expr : records) last = tagSwitch.dispatch(expr);
+        return last;
+    }
+
+    @Benchmark
+    public Object instanceOf()
+    {
+        Object last = null;
+        for (SealedAst.Expr expr : records) last = evaluate(expr);
+        return last;
+    }
+
+    private static Object evaluate(SealedAst.Expr expr)
+    {
+        if (expr instanceof SealedAst.Expr.Binary binary)
+        {
+            return Interpreter.binary(binary.operator(), evaluate(binary.left()), evaluate(binary.right()));
+        }
+        if (expr instanceof SealedAst.Expr.Literal literal) return literal.value();
+        if (expr instanceof SealedAst.Expr.Grouping grouping) return evaluate(grouping.expression());
+        if (expr instanceof SealedAst.Expr.Variable) return 1L;
+        if (expr instanceof SealedAst.Expr.Unary unary) return Interpreter.unary(unary.operator(), evaluate(unary.right()));
+        throw new UnsupportedOperationException(expr.toString());
+    }
+
+    private static final class VisitorEvaluator implements Expr.Visitor<Object>
+    {
+        @Override
+        public Object visitBinaryExpr(Expr.Binary expr)
+        {
+            return Interpreter.binary(expr.operator, expr.left.accept(this), expr.right.accept(this));
+        }
+
+        @Override
+        public Object visitGroupingExpr(Expr.Grouping expr)
+        {
+            return expr.expression.accept(this);
+        }
+
+        @Override
+        public Object visitLiteralExpr(Expr.Literal expr)
+        {
+            return expr.value;
+        }
+
+        @Override
+        public Object visitUnaryExpr(Expr.Unary expr)
+        {
+            return Interpreter.unary(expr.operator, expr.right.accept(this));
+        }
+
+        @Override
+        public Object visitVariableExpr(Expr.Variable expr)
+        {
+            return 1L;
+        }
+
+        @Override
+        public Object visitAssignExpr(Expr.Assign expr)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object visitCallExpr(Expr.Call expr)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object visitIndexExpr(Expr.Index expr)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object visitListLiteralExpr(Expr.ListLiteral expr)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object visitSetIndexExpr(Expr.SetIndex expr)
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static final class SwitchEvaluator extends SealedAst.ExprSwitch<Object>
+    {
+        @Override
+        Object visitBinaryExpr(SealedAst.Expr.Binary expr)
+        {
+            return Interpreter.binary(expr.operator(), dispatch(expr.left()), dispatch(expr.right()));
+        }
+
+        @Override
+        Object visitGroupingExpr(SealedAst.Expr.Grouping expr)
+        {
+            return dispatch(expr.expression());
+        }
+
+        @Override
+        Object visitLiteralExpr(SealedAst.Expr.Literal expr)
+        {
+            return expr.value();
+        }
+
+        @Override
+        Object visitUnaryExpr(SealedAst.Expr.Unary expr)
+        {
+            return Interpreter.unary(expr.operator(), dispatch(expr.right()));
+        }
+
+        @Override
+        Object visitVariableExpr(SealedAst.Expr.Variable expr)
+        {
+            return 1L;
+        }
+
+        @Override
+        Object visitAssignExpr(SealedAst.Expr.Assign expr)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        Object visitCallExpr(SealedAst.Expr.Call expr)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        Object visitIndexExpr(SealedAst.Expr.Index expr)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        Object visitListLiteralExpr(SealedAst.Expr.ListLiteral expr)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        Object visitSetIndexExpr(SealedAst.Expr.SetIndex expr)
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+Counting the lines of a generated multi-gigabyte log:
+
+    lox      a Lox loop over next(lines(path)), the memory mapped LoxFileStream
+    reader   BufferedReader.readLine from Java, the floor
+
+The fork runs with a 64 MB heap, so a stream that held on to what it read would fail long
+before the end of the file. gc.alloc.rate.norm is the garbage per pass: one String per line
+and nothing that grows with the file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx64m")
+public class FileStreamBenchmark
+{
+    @Param({"2048"})
+    public int megabytes;
+
+    private Path file;
+    private List<Stmt> count;
+    private PrintWriter sink;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        file = Files.createTempFile("lox-stream", ".log");
+        long target = (long) megabytes << 20;
+        long written = 0;
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8))
+        {
+            for (long i = 0; written < target; i++)
+            {
+                String line = "2024-01-01T00:00:00Z GET /items/" + i + " status=" + (i % 7 == 0 ? 404 : 200)
+                        + " bytes=" + (i * 31 % 100000) + "\n";
+                out.write(line);
+                written += line.length();
+            }
+        }
+        count = Lox.parse("var s = lines(\"" + file.toString().replace("\\", "/") + "\");\n"
+                + "var n = 0;\n"
+                + "while (next(s) != nil) n = n + 1;\n"
+                + "close(s);\n"
+                + "print n;\n");
+        sink = new PrintWriter(Writer.nullWriter());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public Interpreter lox()
+    {
+        Interpreter interpreter = new Interpreter(new Environment(), sink);
+        interpreter.interpret(count);
+        return interpreter;
+    }
+
+    @Benchmark
+    public long reader() throws IOException
+    {
+        long lines = 0;
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8))
+        {
+            while (in.readLine() != null) lines++;
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,118 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+What one call to a host function costs, per call.
+
+The Java side passes boxed Doubles in and takes an Object out, since that is what the
+interpreter has in hand:
+
+    direct       calling the static method from Java, the floor
+    handle       HostFunction.invoke, the adapted MethodHandle with its argument checks
+    reflection   Method.invoke, what a reflective bridge would pay
+
+The Lox side runs the same 1000 iteration loop twice, once calling scale() and once doing the
+multiply inline, so the difference between the two is the cost of the call from a script.
+The loop is compiled by LoopCompiler after the first run, like any hot loop.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HostCallBenchmark
+{
+    private static final int CALLS = 1000;
+
+    public static double scale(double x, double factor)
+    {
+        return x * factor;
+    }
+
+    private Double factor;
+    private HostFunctions functions;
+    private HostFunctions.HostFunction host;
+    private Method method;
+    private List<Stmt> hostLoop;
+    private List<Stmt> inlineLoop;
+    private PrintWriter out;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ReflectiveOperationException
+    {
+        method = HostCallBenchmark.class.getMethod("scale", double.class, double.class);
+        functions = new HostFunctions();
+        functions.register("scale", method);
+        host = functions.lookup("scale");
+        factor = 1.0000001;
+
+        hostLoop = Lox.parse("var total = 1; for (var i = 0; i < " + CALLS + "; i = i + 1) total = scale(total, 1.0000001);");
+        inlineLoop = Lox.parse("var total = 1; for (var i = 0; i < " + CALLS + "; i = i + 1) total = total * 1.0000001;");
+        out = new PrintWriter(Writer.nullWriter());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS)
+    public Object direct()
+    {
+        Object total = 1.0;
+        for (int i = 0; i < CALLS; i++) total = scale((Double) total, factor);
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS)
+    public Object handle()
+    {
+        Object total = 1.0;
+        for (int i = 0; i < CALLS; i++) total = host.invoke(total, factor);
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS)
+    public Object reflection() throws ReflectiveOperationException
+    {
+        Object total = 1.0;
+        for (int i = 0; i < CALLS; i++) total = method.invoke(null, total, factor);
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS)
+    public Environment loxHostCall()
+    {
+        Interpreter interpreter = new Interpreter(new Environment(), out);
+        interpreter.host(functions);
+        interpreter.executeAll(hostLoop);
+        return interpreter.globals;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS)
+    public Environment loxInline()
+    {
+        Interpreter interpreter = new Interpreter(new Environment(), out);
+        interpreter.executeAll(inlineLoop);
+        return interpreter.globals;
+    }
+}
@@ -0,0 +1,89 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+A script that needs a large prelude, run by a fresh interpreter each time:
+
+    pasted     the prelude copied into the script, scanned, parsed and run every time
+    imported   import "prelude.lox"; the module comes out of ModuleCache already parsed,
+               only its top level runs
+
+Both still run the prelude's top level once per interpreter, which is the part an import
+can't skip. The prelude is the MANY_GLOBALS workload, so the top level is cheap and the
+difference is mostly the front end.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImportBenchmark
+{
+    @Param({"2000"})
+    public int size;
+
+    private static final String SCRIPT = "print g1 + g2;\n";
+
+    private Path directory;
+    private String pasted;
+    private List<Stmt> importer;
+    private PrintWriter sink;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        String prelude = Workload.MANY_GLOBALS.generate(size);
+        directory = Files.createTempDirectory("lox-import");
+        Files.writeString(directory.resolve("prelude.lox"), prelude);
+        pasted = prelude + SCRIPT;
+        importer = Lox.parse("import \"prelude.lox\";\n" + SCRIPT);
+        sink = new PrintWriter(Writer.nullWriter());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        Files.deleteIfExists(directory.resolve("prelude.lox"));
+        Files.deleteIfExists(directory.resolve("prelude" + AstCache.EXTENSION));
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public Interpreter pasted()
+    {
+        Interpreter interpreter = new Interpreter(new Environment(), sink);
+        interpreter.interpret(Lox.parse(pasted));
+        return interpreter;
+    }
+
+    @Benchmark
+    public Interpreter imported()
+    {
+        Interpreter interpreter = new Interpreter(new Environment(), sink);
+        interpreter.directory = directory;
+        interpreter.interpret(importer);
+        return interpreter;
+    }
+}
@@ -0,0 +1,93 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+What instrumentation costs, from nothing attached to a probe on every statement:
+
+    plain        the plain Interpreter. Every benchmark gets its own fork, so
+                 InstrumentedInterpreter is never loaded here and this is the uninstrumented
+                 baseline, the same number as PhaseBenchmark.interpret
+    idle         an InstrumentedInterpreter with nothing attached
+    breakpoint   a Debugger with a breakpoint past the end of the script
+    everywhere   a probe that does nothing on every statement, what tracing pays before it
+                 writes anything
+
+Loops are kept out of LoopCompiler in all four, the instrumented interpreter always does
+that, so the differences are the probe checks alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InstrumentBenchmark
+{
+    @Param({"ARITHMETIC", "COUNTERS"})
+    public Workload workload;
+
+    @Param({"1000"})
+    public int size;
+
+    private List<Stmt> statements;
+    private PrintWriter sink;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        statements = Lox.parse(workload.generate(size));
+        sink = new PrintWriter(Writer.nullWriter());
+    }
+
+    @Benchmark
+    public Interpreter plain()
+    {
+        Interpreter interpreter = new Interpreter(new Environment(), sink);
+        interpreter.osrThreshold = -1;
+        interpreter.interpret(statements);
+        return interpreter;
+    }
+
+    @Benchmark
+    public Interpreter idle()
+    {
+        Interpreter interpreter = new InstrumentedInterpreter(new Environment(), sink);
+        interpreter.interpret(statements);
+        return interpreter;
+    }
+
+    @Benchmark
+    public Interpreter breakpoint()
+    {
+        InstrumentedInterpreter interpreter = new InstrumentedInterpreter(new Environment(), sink);
+        new Debugger(interpreter).breakAt(size * 2);
+        interpreter.interpret(statements);
+        return interpreter;
+    }
+
+    @Benchmark
+    public Interpreter everywhere()
+    {
+        InstrumentedInterpreter interpreter = new InstrumentedInterpreter(new Environment(), sink);
+        interpreter.probes.attachStatements(new InstrumentedInterpreter.Probe() {});
+        interpreter.interpret(statements);
+        return interpreter;
+    }
+}
@@ -0,0 +1,130 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+LoxMap against java.util.HashMap on the keys scripts tend to use.
+
+Keys are handed to both maps the way the interpreter does: already boxed Doubles and
+Strings. Lookups hit about three quarters of the time, in a shuffled order so neither map
+gets to walk its table in sequence. build starts from an empty map each time, so it
+includes every resize.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoxMapBenchmark
+{
+    public enum Keys
+    {
+        // 0, 1, 2, ... like a list stored in a map
+        DENSE_INTEGERS,
+        // ids spread over a few million
+        SPARSE_INTEGERS,
+        // measurements and coordinates
+        FRACTIONS,
+        // "name0", "name1", ... record fields and identifiers
+        SHORT_STRINGS,
+        // a small vocabulary looked up over and over, word counts
+        WORDS
+    }
+
+    @Param({"DENSE_INTEGERS", "SPARSE_INTEGERS", "FRACTIONS", "SHORT_STRINGS", "WORDS"})
+    public Keys keys;
+
+    @Param({"16", "1024", "65536"})
+    public int size;
+
+    private Object[] inserts;
+    private Object[] lookups;
+    private LoxMap loxMap;
+    private HashMap<Object, Object> hashMap;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        SplittableRandom random = new SplittableRandom(42);
+        inserts = new Object[size];
+        for (int i = 0; i < size; i++) inserts[i] = key(i, random);
+
+        lookups = new Object[size];
+        for (int i = 0; i < size; i++)
+        {
+            lookups[i] = random.nextInt(4) == 0 ? key(size + i, random) : inserts[random.nextInt(size)];
+        }
+
+        loxMap = new LoxMap();
+        hashMap = new HashMap<>();
+        for (Object key : inserts)
+        {
+            loxMap.put(key, 1.0);
+            hashMap.put(key, 1.0);
+        }
+    }
+
+    private Object key(int i, SplittableRandom random)
+    {
+        switch (keys)
+        {
+            case DENSE_INTEGERS: return (double) i;
+            case SPARSE_INTEGERS: return (double) random.nextInt(5_000_000);
+            case FRACTIONS: return Math.round(random.nextDouble() * 1e6) / 100.0;
+            case SHORT_STRINGS: return "name" + i;
+            default: return WORDS[random.nextInt(WORDS.length)] + (i % 64);
+        }
+    }
+
+    private static final String[] WORDS = {
+            "the", "of", "and", "to", "in", "is", "was", "for", "on", "with",
+            "river", "stone", "cloud", "ember", "maple", "quartz", "violet", "zephyr"
+    };
+
+    @Benchmark
+    public void lookupLoxMap(Blackhole blackhole)
+    {
+        LoxMap map = loxMap;
+        for (Object key : lookups) blackhole.consume(map.get(key));
+    }
+
+    @Benchmark
+    public void lookupHashMap(Blackhole blackhole)
+    {
+        HashMap<Object, Object> map = hashMap;
+        for (Object key : lookups) blackhole.consume(map.get(key));
+    }
+
+    @Benchmark
+    public LoxMap buildLoxMap()
+    {
+        LoxMap map = new LoxMap();
+        for (Object key : inserts) map.put(key, key);
+        return map;
+    }
+
+    @Benchmark
+    public HashMap<Object, Object> buildHashMap()
+    {
+        HashMap<Object, Object> map = new HashMap<>();
+        for (Object key : inserts) map.put(key, key);
+        return map;
+    }
+}
@@ -0,0 +1,63 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+A whole script through interpret() with its top level statements run one after another
+(parallelism 1) or through ParallelRunner. INDEPENDENT is what it's for, statements that
+each loop on their own variable; IDENTIFIERS and COUNTERS are chains where every statement
+waits for the one before, so they show what the planning and handing over cost when nothing
+can run ahead. On a single core only that cost shows up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelBenchmark
+{
+    @Param({"INDEPENDENT", "MANY_GLOBALS", "IDENTIFIERS", "COUNTERS"})
+    public Workload workload;
+
+    @Param({"1000"})
+    public int size;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private List<Stmt> statements;
+    private PrintWriter sink;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        statements = Lox.parse(workload.generate(size));
+        sink = new PrintWriter(Writer.nullWriter());
+    }
+
+    @Benchmark
+    public Interpreter interpret()
+    {
+        Interpreter interpreter = new Interpreter(new Environment(), sink);
+        interpreter.parallelism = parallelism;
+        interpreter.interpret(statements);
+        return interpreter;
+    }
+}
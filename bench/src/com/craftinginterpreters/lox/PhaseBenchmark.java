@@ -0,0 +1,87 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+Every phase on its own plus the whole pipeline, for each workload shape.
+
+Throughput gives ops/ms, SampleTime gives the latency percentiles (p50, p90, p99, ...), and
+the jmh task always adds -prof gc for allocation rate (gc.alloc.rate.norm is bytes per op).
+Each phase starts from the output of the previous one, prepared once per trial, so
+scan() measures only the Scanner, parse() only the Parser, and so on.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhaseBenchmark
+{
+    @Param({"IDENTIFIERS", "ARITHMETIC", "DEEP_NESTING", "STRING_CONCAT", "MANY_GLOBALS", "NUMERIC_LIST", "COUNTERS"})
+    public Workload workload;
+
+    // Roughly the number of statements in the generated program
+    @Param({"1000"})
+    public int size;
+
+    private String source;
+    private List<Token> tokens;
+    private List<Stmt> statements;
+    private PrintWriter sink;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        source = workload.generate(size);
+        tokens = new Scanner(source).scanTokens();
+        statements = new Parser(tokens).parse();
+        if (Lox.reporter().hadError) throw new IllegalStateException(workload + " does not parse");
+        sink = new PrintWriter(Writer.nullWriter());
+    }
+
+    @Benchmark
+    public List<Token> scan()
+    {
+        return new Scanner(source).scanTokens();
+    }
+
+    @Benchmark
+    public List<Stmt> parse()
+    {
+        // Parser only reads the token list, so the same one can be parsed again and again
+        return new Parser(tokens).parse();
+    }
+
+    @Benchmark
+    public Interpreter interpret()
+    {
+        Interpreter interpreter = new Interpreter(new Environment(), sink);
+        interpreter.interpret(statements);
+        return interpreter;
+    }
+
+    @Benchmark
+    public Interpreter pipeline()
+    {
+        Interpreter interpreter = new Interpreter(new Environment(), sink);
+        interpreter.interpret(new Parser(new Scanner(source).scanTokens()).parse());
+        return interpreter;
+    }
+}
@@ -0,0 +1,76 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.craftinginterpreters.tool.GenerateLoxProgram;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+Each phase over generated programs of growing size. Every step is 8x the previous one, so
+a time per op that grows by much more than 8x between rows points at nonlinear behavior.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xss16m")
+public class ScalingBenchmark
+{
+    @Param({"65536", "524288", "4194304"})
+    public long bytes;
+
+    @Param({"4"})
+    public int depth;
+
+    private String source;
+    private List<Token> tokens;
+    private List<Stmt> statements;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        GenerateLoxProgram.Options options = new GenerateLoxProgram.Options();
+        options.size = bytes;
+        options.depth = depth;
+        options.blocks = 0.2;
+        source = GenerateLoxProgram.generate(options);
+        tokens = new Scanner(source).scanTokens();
+        statements = new Parser(tokens).parse();
+    }
+
+    @Benchmark
+    public List<Token> scan()
+    {
+        return new Scanner(source).scanTokens();
+    }
+
+    @Benchmark
+    public List<Stmt> parse()
+    {
+        return new Parser(tokens).parse();
+    }
+
+    @Benchmark
+    public Interpreter interpret()
+    {
+        Interpreter interpreter = new Interpreter(new Environment(), new PrintWriter(Writer.nullWriter()));
+        interpreter.interpret(statements);
+        return interpreter;
+    }
+}
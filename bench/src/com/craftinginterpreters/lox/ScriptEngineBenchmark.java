@@ -0,0 +1,70 @@
+package com.craftinginterpreters.lox;
+
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Per-call overhead of the javax.script engine: eval(String) scans and parses every time,
+// a CompiledScript only runs the interpreter.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScriptEngineBenchmark
+{
+    private static final String SCRIPT =
+            "var total = price * quantity;\n" +
+            "var discounted = total - total / 10;\n" +
+            "result = discounted + 1;\n";
+
+    private ScriptEngine engine;
+    private CompiledScript compiled;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ScriptException
+    {
+        engine = new ScriptEngineManager().getEngineByName("lox");
+        if (engine == null) throw new IllegalStateException("Lox engine not found through ServiceLoader");
+        engine.getContext().setWriter(Writer.nullWriter());
+
+        Bindings bindings = engine.getBindings(ScriptContext.ENGINE_SCOPE);
+        bindings.put("price", 12.5);
+        bindings.put("quantity", 4.0);
+        bindings.put("result", null);
+
+        compiled = ((Compilable) engine).compile(SCRIPT);
+    }
+
+    @Benchmark
+    public Object evalString() throws ScriptException
+    {
+        return engine.eval(SCRIPT);
+    }
+
+    @Benchmark
+    public Object evalCompiled() throws ScriptException
+    {
+        return compiled.eval();
+    }
+}
@@ -0,0 +1,73 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+The same CPU bound work split over more and more tasks. Every task reads the shared global
+scale on each iteration and writes its own global once at the end, so the globals map is
+hit from all of them at once. With as many cores as tasks the time per op should drop close
+to 1/tasks; on one core it should stay flat, anything worse is contention.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SpawnBenchmark
+{
+    private static final int WORK = 400_000;
+
+    @Param({"1", "2", "4", "8"})
+    public int tasks;
+
+    private List<Stmt> statements;
+    private PrintWriter sink;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        int share = WORK / tasks;
+        StringBuilder source = new StringBuilder("var scale = 3;\n");
+        source.append("fun worker(from, to) {\n")
+                .append("  fun run() {\n")
+                .append("    var total = 0;\n")
+                .append("    for (var i = from; i < to; i = i + 1) total = total + i * scale;\n")
+                .append("    return total;\n")
+                .append("  }\n")
+                .append("  return run;\n")
+                .append("}\n")
+                .append("var tasks = [];\n");
+        source.append("for (var t = 0; t < ").append(tasks).append("; t = t + 1) append(tasks, spawn(worker(t * ")
+                .append(share).append(", (t + 1) * ").append(share).append(")));\n");
+        source.append("var sum = 0;\n")
+                .append("for (var t = 0; t < ").append(tasks).append("; t = t + 1) sum = sum + await(tasks[t]);\n")
+                .append("print sum;\n");
+        statements = Lox.parse(source.toString());
+        sink = new PrintWriter(Writer.nullWriter());
+    }
+
+    @Benchmark
+    public Interpreter fanOut()
+    {
+        Interpreter interpreter = new Interpreter(new Environment(), sink);
+        interpreter.interpret(statements);
+        return interpreter;
+    }
+}
@@ -0,0 +1,152 @@
+package com.craftinginterpreters.lox;
+
+// Program shapes the benchmarks run through every phase. Each one leans on a different
+// part of the pipeline so a regression shows up in the workload that exercises it.
+public enum Workload
+{
+    // Long identifier names, lots of reads and writes of existing variables
+    IDENTIFIERS
+    {
+        @Override
+        String generate(int size)
+        {
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < 16; i++)
+            {
+                builder.append("var customer_account_balance_").append(i).append(" = ").append(i).append(";\n");
+            }
+            for (int i = 0; i < size; i++)
+            {
+                int a = i % 16;
+                int b = (i * 7) % 16;
+                builder.append("customer_account_balance_").append(a)
+                        .append(" = customer_account_balance_").append(b).append(";\n");
+            }
+            return builder.toString();
+        }
+    },
+
+    // Wide arithmetic expressions over number literals
+    ARITHMETIC
+    {
+        @Override
+        String generate(int size)
+        {
+            StringBuilder builder = new StringBuilder("var x = 0;\n");
+            for (int i = 0; i < size; i++)
+            {
+                builder.append("x = (x + ").append(i).append(" * 3 - 2) / 2 + ")
+                        .append(i % 10).append(".5 * (4 - 1) - -1;\n");
+            }
+            return builder.toString();
+        }
+    },
+
+    // Blocks inside blocks, each with its own scope
+    DEEP_NESTING
+    {
+        @Override
+        String generate(int size)
+        {
+            int depth = 50;
+            StringBuilder builder = new StringBuilder("var total = 0;\n");
+            for (int round = 0; round < Math.max(1, size / depth); round++)
+            {
+                for (int i = 0; i < depth; i++) builder.append("{ var d").append(i).append(" = ").append(i).append(";\n");
+                builder.append("total = total + ((((((d1 + d2) * (d3 - d4)))))) ;\n");
+                for (int i = 0; i < depth; i++) builder.append("}\n");
+            }
+            return builder.toString();
+        }
+    },
+
+    // String literals and repeated concatenation
+    STRING_CONCAT
+    {
+        @Override
+        String generate(int size)
+        {
+            StringBuilder builder = new StringBuilder("var s = \"\";\n");
+            for (int i = 0; i < size; i++)
+            {
+                // Reset now and then so the strings stay short and we measure concatenation, not copying
+                if (i % 64 == 0) builder.append("s = \"start\";\n");
+                builder.append("s = s + \"chunk").append(i % 100).append("\" + \"-\";\n");
+            }
+            return builder.toString();
+        }
+    },
+
+    // A large global environment, every statement defines a new name
+    MANY_GLOBALS
+    {
+        @Override
+        String generate(int size)
+        {
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < size; i++)
+            {
+                builder.append("var g").append(i).append(" = ").append(i);
+                if (i > 0) builder.append(" + g").append(i - 1);
+                builder.append(";\n");
+            }
+            return builder.toString();
+        }
+    },
+
+    // Numeric list traffic: appends, indexed reads and writes, and the native bulk operations
+    NUMERIC_LIST
+    {
+        @Override
+        String generate(int size)
+        {
+            StringBuilder builder = new StringBuilder("var xs = [];\nvar t = 0;\n");
+            for (int i = 0; i < size; i++)
+            {
+                builder.append("append(xs, ").append(i % 97).append(".5);\n");
+                builder.append("xs[").append(i / 2).append("] = xs[").append(i / 2).append("] * 2 + t;\n");
+                if (i % 64 == 63) builder.append("t = sum(xs) / len(xs) - min(xs) + max(xs);\n");
+            }
+            builder.append("sort(xs);\nprint xs[0];\n");
+            return builder.toString();
+        }
+    },
+
+    // Whole number counters and running totals, the integer fast path in binary()
+    COUNTERS
+    {
+        @Override
+        String generate(int size)
+        {
+            StringBuilder builder = new StringBuilder("var i = 0;\nvar hits = 0;\nvar total = 0;\n");
+            for (int i = 0; i < size; i++)
+            {
+                builder.append("i = i + 1;\n");
+                builder.append("total = total + i * ").append(i % 7 + 1).append(" - hits;\n");
+                if (i % 4 == 3) builder.append("if (total > 100000) { hits = hits + 1; total = total - 100000; }\n");
+            }
+            builder.append("print total;\n");
+            return builder.toString();
+        }
+    },
+
+    // Top level statements that don't touch each other's variables, each a small loop
+    INDEPENDENT
+    {
+        @Override
+        String generate(int size)
+        {
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < size / 10; i++)
+            {
+                builder.append("var r").append(i).append(" = 0;\n");
+                builder.append("{ var k = 0; while (k < 200) { r").append(i).append(" = r").append(i)
+                        .append(" + k * ").append(i % 7 + 1).append("; k = k + 1; } }\n");
+            }
+            builder.append("print r0;\n");
+            return builder.toString();
+        }
+    };
+
+    abstract String generate(int size);
+}
@@ -0,0 +1,573 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+Binary cache of a parsed program, written next to the source as a .loxc file.
+
+Layout (all numbers big endian, "varint" is 7 bits per byte, low bits first):
+
+    int     magic "LOXC"
+    short   format VERSION
+    short   number of TokenType constants (token types are stored by ordinal)
+    byte[32] SHA-256 of the source bytes
+    varint  number of top level statements
+    node*   the statements, pre-order
+    int     magic "LOXC" again so a truncated file never validates
+
+A node is a one byte tag, its source line as a varint, then its fields in the order
+GenerateAst declares them. Fields filled in after parsing (Resolver slots, loop counters)
+are not stored; the Reader resolves each outermost function again as it finishes it.
+Strings (lexemes and string literals) go through BinaryFormat's pool: a varint index, and
+when the index is the next free slot the UTF-8 bytes follow right after it. Identifiers repeat a
+lot so most of them end up being a single byte.
+ */
+class AstCache
+{
+    static final String EXTENSION = ".loxc";
+
+    private static final int MAGIC = 0x4C4F5843; // "LOXC"
+    private static final short VERSION = 7;
+
+    // Node tags
+    private static final byte NULL = 0;
+    private static final byte ASSIGN_EXPR = 1;
+    private static final byte BINARY_EXPR = 2;
+    private static final byte GROUPING_EXPR = 3;
+    private static final byte LITERAL_EXPR = 4;
+    private static final byte UNARY_EXPR = 5;
+    private static final byte VARIABLE_EXPR = 6;
+    private static final byte CALL_EXPR = 7;
+    private static final byte INDEX_EXPR = 8;
+    private static final byte LIST_LITERAL_EXPR = 9;
+    private static final byte SET_INDEX_EXPR = 10;
+    private static final byte BLOCK_STMT = 32;
+    private static final byte EXPRESSION_STMT = 33;
+    private static final byte PRINT_STMT = 34;
+    private static final byte VAR_STMT = 35;
+    private static final byte WHILE_STMT = 36;
+    private static final byte FUNCTION_STMT = 37;
+    private static final byte IF_STMT = 38;
+    private static final byte RETURN_STMT = 39;
+    private static final byte IMPORT_STMT = 40;
+
+    private AstCache() {}
+
+    // foo.lox -> foo.loxc, LoxProgram.txt -> LoxProgram.loxc
+    static Path cachePathFor(Path source)
+    {
+        String name = source.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) name = name.substring(0, dot);
+        return source.resolveSibling(name + EXTENSION);
+    }
+
+    static byte[] hash(byte[] source)
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256").digest(source);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            // Every JVM is required to ship SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Returns the cached statements for this source, or null if there is no usable cache file.
+    static List<Stmt> load(Path source, byte[] sourceBytes)
+    {
+        Path cache = cachePathFor(source);
+        if (!Files.isRegularFile(cache)) return null;
+
+        try (FileChannel channel = FileChannel.open(cache, StandardOpenOption.READ))
+        {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(buffer, hash(sourceBytes));
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+    }
+
+    // Best effort, a read only directory just means we parse again next time.
+    static void store(Path source, byte[] sourceBytes, List<Stmt> statements)
+    {
+        Path cache = cachePathFor(source);
+        try
+        {
+            Path temp = Files.createTempFile(cache.toAbsolutePath().getParent(), cache.getFileName().toString(), ".tmp");
+            try
+            {
+                Files.write(temp, write(statements, hash(sourceBytes)));
+                Files.move(temp, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            finally
+            {
+                Files.deleteIfExists(temp);
+            }
+        }
+        catch (IOException e)
+        {
+            // Ignore, the cache is only an optimization
+        }
+    }
+
+    static byte[] write(List<Stmt> statements, byte[] sourceHash)
+    {
+        Writer writer = new Writer();
+        try
+        {
+            writer.out.writeInt(MAGIC);
+            writer.out.writeShort(VERSION);
+            writer.out.writeShort(TokenType.values().length);
+            writer.out.write(sourceHash);
+            writer.varint(statements.size());
+            for (Stmt statement : statements) writer.stmt(statement);
+            writer.out.writeInt(MAGIC);
+        }
+        catch (IOException e)
+        {
+            // ByteArrayOutputStream never throws
+            throw new IllegalStateException(e);
+        }
+        return writer.bytes.toByteArray();
+    }
+
+    // Returns null if the buffer is not a valid cache for a source with this hash.
+    static List<Stmt> read(ByteBuffer buffer, byte[] sourceHash)
+    {
+        try
+        {
+            if (buffer.getInt() != MAGIC) return null;
+            if (buffer.getShort() != VERSION) return null;
+            if (buffer.getShort() != TokenType.values().length) return null;
+
+            byte[] storedHash = new byte[sourceHash.length];
+            buffer.get(storedHash);
+            if (!Arrays.equals(storedHash, sourceHash)) return null;
+
+            Reader reader = new Reader(buffer);
+            int count = reader.count();
+            List<Stmt> statements = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) statements.add(reader.stmt());
+
+            if (buffer.getInt() != MAGIC || buffer.hasRemaining()) return null;
+            return statements;
+        }
+        catch (BufferUnderflowException | BinaryFormat.Corrupt e)
+        {
+            return null;
+        }
+    }
+
+    private static class Writer extends BinaryFormat.Encoder implements Expr.Visitor<Void>, Stmt.Visitor<Void>
+    {
+        private final ByteArrayOutputStream bytes;
+
+        Writer()
+        {
+            this(new ByteArrayOutputStream(4096));
+        }
+
+        private Writer(ByteArrayOutputStream bytes)
+        {
+            super(new DataOutputStream(bytes));
+            this.bytes = bytes;
+        }
+
+        void stmt(Stmt stmt) throws IOException
+        {
+            if (stmt == null)
+            {
+                out.writeByte(NULL);
+                return;
+            }
+            stmt.accept(this);
+        }
+
+        void expr(Expr expr) throws IOException
+        {
+            if (expr == null)
+            {
+                out.writeByte(NULL);
+                return;
+            }
+            expr.accept(this);
+        }
+
+        void tag(byte tag, int line) throws IOException
+        {
+            out.writeByte(tag);
+            varint(line);
+        }
+
+        void value(Object value) throws IOException
+        {
+            if (!literal(value)) throw new IllegalArgumentException("Cannot cache literal " + value);
+        }
+
+        void token(Token token) throws IOException
+        {
+            out.writeByte(token.type.ordinal());
+            string(token.lexeme);
+            value(token.literal);
+            varint(token.line);
+        }
+
+        // The visitor interfaces do not let us throw checked exceptions, so tunnel them out.
+        private Void wrap(IORunnable body)
+        {
+            try
+            {
+                body.run();
+            }
+            catch (IOException e)
+            {
+                throw new IllegalStateException(e);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr)
+        {
+            return wrap(() -> { tag(ASSIGN_EXPR, expr.line); token(expr.name); expr(expr.value); });
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr)
+        {
+            return wrap(() -> { tag(BINARY_EXPR, expr.line); expr(expr.left); token(expr.operator); expr(expr.right); });
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr)
+        {
+            return wrap(() -> {
+                tag(CALL_EXPR, expr.line);
+                expr(expr.callee);
+                token(expr.paren);
+                varint(expr.arguments.size());
+                for (Expr argument : expr.arguments) expr(argument);
+            });
+        }
+
+        @Override
+        public Void visitIndexExpr(Expr.Index expr)
+        {
+            return wrap(() -> { tag(INDEX_EXPR, expr.line); expr(expr.object); token(expr.bracket); expr(expr.index); });
+        }
+
+        @Override
+        public Void visitListLiteralExpr(Expr.ListLiteral expr)
+        {
+            return wrap(() -> {
+                tag(LIST_LITERAL_EXPR, expr.line);
+                token(expr.bracket);
+                varint(expr.elements.size());
+                for (Expr element : expr.elements) expr(element);
+            });
+        }
+
+        @Override
+        public Void visitSetIndexExpr(Expr.SetIndex expr)
+        {
+            return wrap(() -> {
+                tag(SET_INDEX_EXPR, expr.line);
+                expr(expr.object);
+                token(expr.bracket);
+                expr(expr.index);
+                expr(expr.value);
+            });
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr)
+        {
+            return wrap(() -> { tag(GROUPING_EXPR, expr.line); expr(expr.expression); });
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr)
+        {
+            return wrap(() -> { tag(LITERAL_EXPR, expr.line); value(expr.value); });
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr)
+        {
+            return wrap(() -> { tag(UNARY_EXPR, expr.line); token(expr.operator); expr(expr.right); });
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr)
+        {
+            return wrap(() -> { tag(VARIABLE_EXPR, expr.line); token(expr.name); });
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt)
+        {
+            return wrap(() -> {
+                tag(BLOCK_STMT, stmt.line);
+                varint(stmt.statements.size());
+                for (Stmt statement : stmt.statements) stmt(statement);
+            });
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt)
+        {
+            return wrap(() -> { tag(EXPRESSION_STMT, stmt.line); expr(stmt.expression); });
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt)
+        {
+            return wrap(() -> { tag(PRINT_STMT, stmt.line); expr(stmt.expression); });
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt)
+        {
+            return wrap(() -> { tag(VAR_STMT, stmt.line); token(stmt.name); expr(stmt.initializer); });
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt)
+        {
+            return wrap(() -> {
+                tag(FUNCTION_STMT, stmt.line);
+                token(stmt.name);
+                varint(stmt.params.size());
+                for (Token param : stmt.params) token(param);
+                varint(stmt.body.size());
+                for (Stmt statement : stmt.body) stmt(statement);
+            });
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt)
+        {
+            return wrap(() -> {
+                tag(IF_STMT, stmt.line);
+                expr(stmt.condition);
+                stmt(stmt.thenBranch);
+                stmt(stmt.elseBranch);
+            });
+        }
+
+        @Override
+        public Void visitImportStmt(Stmt.Import stmt)
+        {
+            return wrap(() -> { tag(IMPORT_STMT, stmt.line); token(stmt.keyword); token(stmt.path); });
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt)
+        {
+            return wrap(() -> { tag(RETURN_STMT, stmt.line); token(stmt.keyword); expr(stmt.value); });
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt)
+        {
+            return wrap(() -> { tag(WHILE_STMT, stmt.line); expr(stmt.condition); stmt(stmt.body); });
+        }
+    }
+
+    private interface IORunnable
+    {
+        void run() throws IOException;
+    }
+
+    private static class Reader extends BinaryFormat.Decoder
+    {
+        private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+        // Same as Parser.functionDepth, nested functions are resolved with the outermost one
+        private int functionDepth = 0;
+
+        Reader(ByteBuffer in)
+        {
+            super(in);
+        }
+
+        Object value()
+        {
+            return literal(in.get());
+        }
+
+        Token token()
+        {
+            int ordinal = in.get() & 0xFF;
+            if (ordinal >= TOKEN_TYPES.length) throw new BinaryFormat.Corrupt();
+            TokenType type = TOKEN_TYPES[ordinal];
+            String lexeme = string();
+            Object literal = value();
+            int line = varint();
+            return new Token(type, lexeme, literal, line);
+        }
+
+        Expr expr()
+        {
+            byte tag = in.get();
+            if (tag == NULL) return null;
+            int line = varint();
+            Expr expr = exprFields(tag);
+            expr.line = line;
+            return expr;
+        }
+
+        private List<Expr> exprs()
+        {
+            int count = count();
+            List<Expr> exprs = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) exprs.add(expr());
+            return exprs;
+        }
+
+        private Expr exprFields(byte tag)
+        {
+            switch (tag)
+            {
+                case ASSIGN_EXPR:
+                {
+                    Token name = token();
+                    return new Expr.Assign(name, expr());
+                }
+                case BINARY_EXPR:
+                {
+                    Expr left = expr();
+                    Token operator = token();
+                    return new Expr.Binary(left, operator, expr());
+                }
+                case GROUPING_EXPR: return new Expr.Grouping(expr());
+                case LITERAL_EXPR: return new Expr.Literal(value());
+                case UNARY_EXPR:
+                {
+                    Token operator = token();
+                    return new Expr.Unary(operator, expr());
+                }
+                case VARIABLE_EXPR: return new Expr.Variable(token());
+                case CALL_EXPR:
+                {
+                    Expr callee = expr();
+                    Token paren = token();
+                    return new Expr.Call(callee, paren, exprs());
+                }
+                case INDEX_EXPR:
+                {
+                    Expr object = expr();
+                    Token bracket = token();
+                    return new Expr.Index(object, bracket, expr());
+                }
+                case LIST_LITERAL_EXPR:
+                {
+                    Token bracket = token();
+                    return new Expr.ListLiteral(bracket, exprs());
+                }
+                case SET_INDEX_EXPR:
+                {
+                    Expr object = expr();
+                    Token bracket = token();
+                    Expr index = expr();
+                    return new Expr.SetIndex(object, bracket, index, expr());
+                }
+                default: throw new BinaryFormat.Corrupt();
+            }
+        }
+
+        Stmt stmt()
+        {
+            byte tag = in.get();
+            if (tag == NULL) return null;
+            int line = varint();
+            Stmt stmt = stmtFields(tag);
+            stmt.line = line;
+            return stmt;
+        }
+
+        private Stmt stmtFields(byte tag)
+        {
+            switch (tag)
+            {
+                case BLOCK_STMT:
+                {
+                    int count = count();
+                    List<Stmt> statements = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) statements.add(stmt());
+                    return new Stmt.Block(statements);
+                }
+                case EXPRESSION_STMT: return new Stmt.Expression(expr());
+                case PRINT_STMT: return new Stmt.Print(expr());
+                case VAR_STMT:
+                {
+                    Token name = token();
+                    return new Stmt.Var(name, expr());
+                }
+                case WHILE_STMT:
+                {
+                    Expr condition = expr();
+                    return new Stmt.While(condition, stmt());
+                }
+                case FUNCTION_STMT:
+                {
+                    Token name = token();
+                    int count = count();
+                    List<Token> params = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) params.add(token());
+                    count = count();
+                    List<Stmt> body = new ArrayList<>(count);
+                    functionDepth++;
+                    try
+                    {
+                        for (int i = 0; i < count; i++) body.add(stmt());
+                    }
+                    finally
+                    {
+                        functionDepth--;
+                    }
+                    Stmt.Function function = new Stmt.Function(name, params, body);
+                    if (functionDepth == 0) Resolver.resolve(function);
+                    return function;
+                }
+                case IF_STMT:
+                {
+                    Expr condition = expr();
+                    Stmt thenBranch = stmt();
+                    return new Stmt.If(condition, thenBranch, stmt());
+                }
+                case RETURN_STMT:
+                {
+                    Token keyword = token();
+                    return new Stmt.Return(keyword, expr());
+                }
+                case IMPORT_STMT:
+                {
+                    Token keyword = token();
+                    return new Stmt.Import(keyword, token());
+                }
+                default: throw new BinaryFormat.Corrupt();
+            }
+        }
+    }
+}
@@ -1,112 +1,210 @@
 package com.craftinginterpreters.lox;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String>
+
+// Writes straight into an Appendable as it walks the tree, nothing is built per node and
+// nothing is copied again at the next level up, so a dump takes time proportional to its
+// own length whatever the nesting. Only the current indentation is kept, one tab per level,
+// and a Writer gets it straight from the array.
+class AstPrinter implements Expr.Visitor<Void>, Stmt.Visitor<Void>
 {
+    private Appendable out;
     private int level = 0;
+    private char[] tabs = new char[0];
+
     public void print(List<Stmt> statements)
     {
+        PrintWriter writer = new PrintWriter(System.out);
+        print(statements, writer);
+        writer.flush();
+    }
+
+    public void print(List<Stmt> statements, Appendable out)
+    {
+        this.out = out;
         int counter = 0;
         for(Stmt stmt: statements)
         {
             level = 0; // Reset for each top-level statement
-            System.out.println("Statement: " + counter);
-            System.out.println(stmt.accept(this));
+            append("Statement: ");
+            append(String.valueOf(counter));
+            append("\n");
+            stmt.accept(this);
+            append("\n");
             counter++;
         }
     }
 
     public String formatStmt(Stmt stmt)
     {
-         return stmt.accept(this);
+        StringBuilder builder = new StringBuilder();
+        out = builder;
+        level = 0;
+        stmt.accept(this);
+        return builder.toString();
     }
 
     public String formatExpr(Expr expr)
     {
-        return expr.accept(this);
+        StringBuilder builder = new StringBuilder();
+        out = builder;
+        level = 0;
+        expr.accept(this);
+        return builder.toString();
     }
 
     // Hey it really is like a mini program
     @Override
-    public String visitBlockStmt(Stmt.Block stmt)
+    public Void visitBlockStmt(Stmt.Block stmt)
     {
-        StringBuilder builder = new StringBuilder();
-        builder.append("BlockStmt\n{\n");
+        indent();
+        append("BlockStmt\n");
+        indent();
+        append("{\n");
+        level++;
         for(Stmt statement: stmt.statements)
         {
-            builder.append(statement.accept(this));
-            builder.append("\n");
+            statement.accept(this);
+            append("\n");
         }
-        builder.append("\n");
-        return builder.toString();
+        level--;
+        indent();
+        append("}");
+        return null;
     }
 
     @Override
-    public String visitExpressionStmt(Stmt.Expression stmt)
+    public Void visitExpressionStmt(Stmt.Expression stmt)
     {
-         return builder("ExpressionStmt", stmt.expression);
+         return node("ExpressionStmt", stmt.expression);
     }
 
     @Override
-    public String visitPrintStmt(Stmt.Print stmt)
+    public Void visitPrintStmt(Stmt.Print stmt)
     {
-        return builder("PrintStmt", stmt.expression);
+        return node("PrintStmt", stmt.expression);
     }
 
     @Override
-    public String visitVarStmt(Stmt.Var stmt)
+    public Void visitVarStmt(Stmt.Var stmt)
     {
-        return builder("VarStmt", stmt.initializer);
+        return node("VarStmt", stmt.initializer);
     }
 
     @Override
-    public String visitAssignExpr(Expr.Assign expr)
+    public Void visitFunctionStmt(Stmt.Function stmt)
     {
-        return builder("AssignExpr", expr.name, expr.value);
+        List<Object> children = new ArrayList<>(stmt.params);
+        children.addAll(stmt.body);
+        return node("FunctionStmt " + stmt.name.lexeme, children.toArray());
     }
 
     @Override
-    public String visitBinaryExpr(Expr.Binary expr)
+    public Void visitIfStmt(Stmt.If stmt)
     {
-        return builder("BinaryExpr", expr.left, expr.operator, expr.right);
+        if (stmt.elseBranch == null) return node("IfStmt", stmt.condition, stmt.thenBranch);
+        return node("IfStmt", stmt.condition, stmt.thenBranch, stmt.elseBranch);
     }
 
     @Override
-    public String visitGroupingExpr(Expr.Grouping expr)
+    public Void visitImportStmt(Stmt.Import stmt)
     {
-        return builder("GroupingExpr", expr.expression);
+        return node("ImportStmt", stmt.path.literal);
     }
 
     @Override
-    public String visitLiteralExpr(Expr.Literal expr)
+    public Void visitReturnStmt(Stmt.Return stmt)
     {
-        return builder("LiteralExpr", expr.value);
+        if (stmt.value == null) return node("ReturnStmt");
+        return node("ReturnStmt", stmt.value);
     }
 
     @Override
-    public String visitUnaryExpr(Expr.Unary expr)
+    public Void visitWhileStmt(Stmt.While stmt)
     {
-        return builder("UnaryExpr ", expr.operator, expr.right);
+        return node("WhileStmt", stmt.condition, stmt.body);
     }
 
     @Override
-    public String visitVariableExpr(Expr.Variable expr)
+    public Void visitAssignExpr(Expr.Assign expr)
     {
-        return builder("VariableExpr", expr.name);
+        return node("AssignExpr", expr.name, expr.value);
     }
 
-// Helper funcitons
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr)
+    {
+        return node("BinaryExpr", expr.left, expr.operator, expr.right);
+    }
 
-    public String builder(String name, Object... objects)
+    @Override
+    public Void visitCallExpr(Expr.Call expr)
     {
-        // Create a new StringBuilder object to efficiently build the resulting string
-        StringBuilder builder = new StringBuilder();
+        List<Object> children = new ArrayList<>();
+        children.add(expr.callee);
+        children.addAll(expr.arguments);
+        return node("CallExpr", children.toArray());
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr)
+    {
+        return node("IndexExpr", expr.object, expr.index);
+    }
+
+    @Override
+    public Void visitListLiteralExpr(Expr.ListLiteral expr)
+    {
+        return node("ListLiteralExpr", expr.elements.toArray());
+    }
+
+    @Override
+    public Void visitSetIndexExpr(Expr.SetIndex expr)
+    {
+        return node("SetIndexExpr", expr.object, expr.index, expr.value);
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr)
+    {
+        return node("GroupingExpr", expr.expression);
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr)
+    {
+        return node("LiteralExpr", expr.value);
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr)
+    {
+        return node("UnaryExpr ", expr.operator, expr.right);
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr)
+    {
+        return node("VariableExpr", expr.name);
+    }
 
-        builder.append(indent(level)).append(name).append("\n");
-        builder.append(indent(level)).append("(\n");
+// Helper funcitons
+
+    private Void node(String name, Object... objects)
+    {
+        indent();
+        append(name);
+        append("\n");
+        indent();
+        append("(\n");
 
         level++; // Go one level deeper for the children inside our node
         for(Object object : objects)
@@ -114,34 +212,62 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String>
             // Use the same indent level for all children inside our node
             if(object instanceof Stmt)
             {
-                builder.append(formatStmt( (Stmt) object)).append("\n"); // Already handles the indentation no need to call indent again
+                ((Stmt) object).accept(this); // Already handles the indentation no need to call indent again
             }
             else if(object instanceof Expr)
             {
-                builder.append(formatExpr( (Expr) object)).append("\n"); // Already handles the indentation no need to call indent again
+                ((Expr) object).accept(this);
             }
             else if(object instanceof Token)
             {
-                builder.append(indent(level)).append("Token: ").append(((Token) object).lexeme).append("\n");
+                indent();
+                append("Token: ");
+                append(((Token) object).lexeme);
             }
             else
             {
-                builder.append(indent(level)).append(object.toString()).append("\n");
+                indent();
+                append(String.valueOf(object));
             }
+            append("\n");
         }
         level--; // Decrease indent to close node
 
-        builder.append(indent(level)).append(")");
-        return builder.toString();
+        indent();
+        append(")");
+        return null;
     }
 
-    // This is our helper function for recursive printing
-    private String indent(int level)
+    // Each level deeper is one more tab in front of the line
+    private void indent()
     {
-        // Each level deeper will cause the tab button to showcase our structure
-        return "\t".repeat(level);
+        if (level > tabs.length)
+        {
+            tabs = new char[Math.max(level, tabs.length * 2)];
+            Arrays.fill(tabs, '\t');
+        }
+        try
+        {
+            if (out instanceof Writer) ((Writer) out).write(tabs, 0, level);
+            else out.append(CharBuffer.wrap(tabs, 0, level));
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
     }
 
+    private void append(String text)
+    {
+        try
+        {
+            out.append(text);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
 
     private String stringify(Object object)
     {
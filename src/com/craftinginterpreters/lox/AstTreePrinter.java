@@ -1,191 +1,259 @@
 package com.craftinginterpreters.lox;
 
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
-public class AstTreePrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
+// Draws the tree with box characters. Output goes straight to an Appendable while walking,
+// the only thing kept is prefix: the "│   " and "    " columns of the nodes above the one
+// being printed, pushed on the way down and cut off again on the way up. Nothing gets built
+// for a subtree and re-indented by its parent, so huge or deeply nested trees print in time
+// proportional to the output, and a Writer gets the prefix straight from the array.
+public class AstTreePrinter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private Appendable out;
+    private char[] prefix = new char[64];
+    private int prefixLength;
+
     public void print(List<Stmt> statements)
     {
+        PrintWriter writer = new PrintWriter(System.out);
+        print(statements, writer);
+        writer.flush();
+    }
+
+    public void print(List<Stmt> statements, Appendable out)
+    {
+        this.out = out;
         int counter = 0;
         for(Stmt stmt: statements)
         {
-            System.out.println("Statement: " + counter);
-            System.out.println(stmt.accept(this));
+            prefixLength = 0;
+            append("Statement: " + counter + "\n");
+            stmt.accept(this);
             counter++;
         }
     }
 
     public String formatStmt(Stmt stmt)
     {
-        return stmt.accept(this);
+        StringBuilder builder = new StringBuilder();
+        out = builder;
+        prefixLength = 0;
+        stmt.accept(this);
+        return builder.toString();
     }
 
     public String formatExpr(Expr expr)
     {
-        return expr.accept(this);
+        StringBuilder builder = new StringBuilder();
+        out = builder;
+        prefixLength = 0;
+        expr.accept(this);
+        return builder.toString();
     }
 
-    public String visitBlockStmt(Stmt.Block stmt) {
-        StringBuilder builder = new StringBuilder();
-        builder.append("BlockStmt\n");
-        int size = stmt.statements.size();
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt)
+    {
+        return node("BlockStmt", stmt.statements.toArray());
+    }
 
-        for (int i = 0; i < size; i++) {
-            Stmt statement = stmt.statements.get(i);
-            boolean last = (i == size - 1);
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt)
+    {
+        return node("ExpressionStmt", stmt.expression);
+    }
 
-            // Choose branch prefix for current statement
-            String branch = last ? "└── " : "├── ";
-            // Prefix for nested lines of the child
-            String childPrefix = last ? "    " : "│   ";
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt)
+    {
+        return node("PrintStmt", stmt.expression);
+    }
 
-            // Get child's string representation
-            String childString = statement.accept(this);
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt)
+    {
+        return node("VarStmt", stmt.initializer);
+    }
 
-            // Indent all lines of childString except the first
-            childString = indentChildLines(childString, childPrefix);
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt)
+    {
+        List<Object> children = new ArrayList<>(stmt.params);
+        children.addAll(stmt.body);
+        return node("FunctionStmt " + stmt.name.lexeme, children.toArray());
+    }
 
-            // Append branch + first line + indented rest
-            builder.append(branch).append(childString).append("\n");
-        }
+    @Override
+    public Void visitIfStmt(Stmt.If stmt)
+    {
+        if (stmt.elseBranch == null) return node("IfStmt", stmt.condition, stmt.thenBranch);
+        return node("IfStmt", stmt.condition, stmt.thenBranch, stmt.elseBranch);
+    }
 
-        return builder.toString();
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt)
+    {
+        return node("ImportStmt", stmt.path);
     }
 
-    // Helper function to indent all but first line with prefix
-    private String indentChildLines(String str, String prefix)
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt)
     {
-        String[] lines = str.split("\n", -1);
-        if (lines.length <= 1) return str; // nothing to indent
+        if (stmt.value == null) return node("ReturnStmt");
+        return node("ReturnStmt", stmt.value);
+    }
 
-        StringBuilder sb = new StringBuilder(lines[0]).append("\n");
-        for (int i = 1; i < lines.length; i++) {
-            sb.append(prefix).append(lines[i]);
-            if (i < lines.length - 1) sb.append("\n");
-        }
-        return sb.toString();
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt)
+    {
+        return node("WhileStmt", stmt.condition, stmt.body);
     }
 
     @Override
-    public String visitExpressionStmt(Stmt.Expression stmt)
+    public Void visitAssignExpr(Expr.Assign expr)
     {
-        return treeBuilder("ExpressionStmt", stmt.expression);
+        return node("AssignExpr", expr.name, expr.value);
     }
 
     @Override
-    public String visitPrintStmt(Stmt.Print stmt)
+    public Void visitBinaryExpr(Expr.Binary expr)
     {
-        return treeBuilder("PrintStmt", stmt.expression);
+        return node("BinaryExpr", expr.left, expr.operator, expr.right);
     }
 
     @Override
-    public String visitVarStmt(Stmt.Var stmt)
+    public Void visitCallExpr(Expr.Call expr)
     {
-        return treeBuilder("VarStmt", stmt.initializer);
+        List<Object> children = new ArrayList<>();
+        children.add(expr.callee);
+        children.addAll(expr.arguments);
+        return node("CallExpr", children.toArray());
     }
 
     @Override
-    public String visitAssignExpr(Expr.Assign expr)
+    public Void visitIndexExpr(Expr.Index expr)
     {
-        return treeBuilder("AssignExpr", expr.name, expr.value);
+        return node("IndexExpr", expr.object, expr.index);
     }
 
     @Override
-    public String visitBinaryExpr(Expr.Binary expr)
+    public Void visitListLiteralExpr(Expr.ListLiteral expr)
     {
-        return treeBuilder("BinaryExpr", expr.left, expr.operator, expr.right);
+        return node("ListLiteralExpr", expr.elements.toArray());
     }
 
     @Override
-    public String visitGroupingExpr(Expr.Grouping expr)
+    public Void visitSetIndexExpr(Expr.SetIndex expr)
     {
-        return treeBuilder("GroupingExpr", expr.expression);
+        return node("SetIndexExpr", expr.object, expr.index, expr.value);
     }
 
     @Override
-    public String visitLiteralExpr(Expr.Literal expr)
+    public Void visitGroupingExpr(Expr.Grouping expr)
     {
-        return treeBuilder("LiteralExpr", expr.value);
+        return node("GroupingExpr", expr.expression);
     }
 
     @Override
-    public String visitUnaryExpr(Expr.Unary expr)
+    public Void visitLiteralExpr(Expr.Literal expr)
     {
-        return treeBuilder("UnaryExpr ", expr.operator, expr.right);
+        return node("LiteralExpr", expr.value);
     }
 
     @Override
-    public String visitVariableExpr(Expr.Variable expr)
+    public Void visitUnaryExpr(Expr.Unary expr)
     {
-        return treeBuilder("VariableExpr", expr.name);
+        return node("UnaryExpr ", expr.operator, expr.right);
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr)
+    {
+        return node("VariableExpr", expr.name);
     }
 
 // Helper funcitons
 
-    // Children: an array of objects which count be statements or Expr or Tokens or other values
-    // prefix a string that holds the current indentation and vertical lines | to visually repersent the tree
-    // isLast is a boolean that indicates whether the current node is the last child of its parent
-    private String buildTree(Object[] children, String prefix, boolean isLast)
+    // Prints name on the current line, then one line per child below it. Each child line
+    // starts with the prefix of everything above, then its own branch: ├── when more siblings
+    // follow, └── for the last one. A child's own children get "│   " added to the prefix
+    // when there are siblings still to come (so the line carries on down to them) and blank
+    // space when there aren't.
+    private Void node(String name, Object... children)
     {
-        // You already know, this is to efficiently build out string
-        StringBuilder builder = new StringBuilder();
+        append(name);
+        append("\n");
 
-        // Stores the number of children
         int len = children.length;
-
-        // Loop over each child object to process them one by one
         for (int i = 0; i < len; i++)
         {
-            // Get the current child object at the index i
             Object obj = children[i];
-            // We are simply checking if its the last child, since we started at zero we decrease count by one
             boolean lastChild = (i == len - 1);
-            // Branch stores the prefix string for this node’s line in the tree:
-                // If lastChild is true, use └── (corner branch) to indicate end of siblings.
-                // Otherwise, use ├── (tee branch) to indicate more siblings follow.
-            String branch = lastChild ? "└── " : "├── ";
-            // ChildPrefix is the prefix to use for child nodes of the current node:
-                // If this node is the last child, child lines get " " (spaces) — no vertical continuation line.
-                // Otherwise, child lines get "│ " — vertical bar to continue the tree visually downwards.
-            String childPrefix = lastChild ? "    " : "│   ";
-
-            if (obj instanceof Stmt) {
-                builder.append(prefix) // Adds the current indentation and vertical bars from above levels.
-                        .append(branch)// Adds the branch symbol (├── or └──) to this line.
-                        .append(((Stmt) obj)
-                                .accept(this) // Calls the accept method on the statement with the current visitor (this), which returns a string representing the subtree rooted at this statement.
-                                .replaceAll("\n", "\n" + prefix + childPrefix));
-                                // The subtree string may contain newlines (because it’s multi-line).
-                                // For each newline, this replaces it with a newline + the prefix for this node + the child prefix, so the vertical bars and spacing line up properly on the following lines.
-            } else if (obj instanceof Expr) {
-                builder.append(prefix).append(branch).append(((Expr) obj).accept(this).replaceAll("\n", "\n" + prefix + childPrefix));
-            } else if (obj instanceof Token) {
-                builder.append(prefix).append(branch).append("Token: ").append(((Token) obj).lexeme).append("\n");
-            } else {
-                builder.append(prefix).append(branch).append(stringify(obj)).append("\n");
+            appendPrefix();
+            append(lastChild ? "└── " : "├── ");
+
+            if (obj instanceof Stmt || obj instanceof Expr)
+            {
+                int depth = prefixLength;
+                push(lastChild ? "    " : "│   ");
+                if (obj instanceof Stmt) ((Stmt) obj).accept(this);
+                else ((Expr) obj).accept(this);
+                prefixLength = depth;
+            }
+            else if (obj instanceof Token)
+            {
+                append("Token: ");
+                append(((Token) obj).lexeme);
+                append("\n");
+            }
+            else
+            {
+                append(stringify(obj));
+                append("\n");
             }
         }
+        return null;
+    }
 
-        return builder.toString();
+    private void push(String column)
+    {
+        if (prefixLength + column.length() > prefix.length) prefix = Arrays.copyOf(prefix, prefix.length * 2);
+        column.getChars(0, column.length(), prefix, prefixLength);
+        prefixLength += column.length();
     }
 
-    // A helper method to start the tree printing for a root node named name, with variable number of children.
-    public String treeBuilder(String name, Object... children)
+    private void appendPrefix()
     {
-        // Creates a new StringBuilder for the whole tree string.
-        StringBuilder result = new StringBuilder();
-        // Adds the root node label and a newline.
-        result.append(name).append("\n");
-        // Calls buildTree for the children with:
-            // Empty prefix "" (start with no indentation),
-            // True for isLast because the root node is considered last at the top level.
-        result.append(buildTree(children, "", true));
-        return result.toString();
+        try
+        {
+            if (out instanceof Writer) ((Writer) out).write(prefix, 0, prefixLength);
+            else out.append(CharBuffer.wrap(prefix, 0, prefixLength));
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
     }
 
+    private void append(String text)
+    {
+        try
+        {
+            out.append(text);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
 
     private String stringify(Object object)
     {
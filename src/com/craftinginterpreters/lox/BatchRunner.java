@@ -0,0 +1,248 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+Runs a whole directory (or glob) of scripts inside one JVM instead of one launch per script.
+
+Every script gets its own Interpreter, globals, ErrorReporter and output file, so the only
+thing the scripts share is the warmed up JIT code. Output for scripts/a/b.lox goes to
+<out>/a/b.lox.out (print) and <out>/a/b.lox.err (errors), and <out>/report.tsv lists
+every script with its status, time and the line of its first error.
+ */
+class BatchRunner
+{
+    enum Status
+    {
+        // INTERNAL_ERROR is a Java exception escaping the interpreter, a bug in jlox rather
+        // than in the script, but it only fails that one script
+        OK(0), SYNTAX_ERROR(65), RUNTIME_ERROR(70), INTERNAL_ERROR(70), IO_ERROR(74);
+
+        final int exitCode;
+
+        Status(int exitCode)
+        {
+            this.exitCode = exitCode;
+        }
+    }
+
+    static class Result
+    {
+        final Path script;
+        final Status status;
+        final long nanos;
+        final int errorLine;
+        final String errorMessage;
+
+        Result(Path script, Status status, long nanos, int errorLine, String errorMessage)
+        {
+            this.script = script;
+            this.status = status;
+            this.nanos = nanos;
+            this.errorLine = errorLine;
+            this.errorMessage = errorMessage;
+        }
+    }
+
+    private final Path root;
+    private final PathMatcher matcher;
+    private final Path outputDir;
+    private final int parallelism;
+
+    // target is either a directory (every *.lox under it) or a glob like scripts/**/*.lox
+    BatchRunner(String target, Path outputDir, int parallelism)
+    {
+        Path path = Paths.get(target);
+        if (Files.isDirectory(path))
+        {
+            this.root = path;
+            this.matcher = FileSystems.getDefault().getPathMatcher("glob:**.lox");
+        }
+        else
+        {
+            // The rest of the glob is matched against paths relative to the root
+            String root = globRoot(target);
+            this.root = Paths.get(root.isEmpty() ? "." : root);
+            this.matcher = FileSystems.getDefault().getPathMatcher("glob:" + target.substring(root.length()));
+        }
+        this.outputDir = outputDir;
+        this.parallelism = parallelism;
+    }
+
+    List<Result> run() throws IOException
+    {
+        List<Path> scripts = findScripts();
+        Files.createDirectories(outputDir);
+
+        List<Callable<Result>> tasks = new ArrayList<>(scripts.size());
+        for (Path script : scripts) tasks.add(() -> runScript(script));
+
+        // Not a ForkJoinPool: its workers can't be given the command line's big stack on Java 17,
+        // and a script that recursed fine under jlox would overflow here
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(null, runnable, "jlox-batch", Lox.STACK_MEGABYTES << 20);
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<Result> results = new ArrayList<>(scripts.size());
+        try
+        {
+            for (Future<Result> future : pool.invokeAll(tasks)) results.add(future.get());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Batch interrupted.", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IOException("Batch task failed.", e.getCause());
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+
+        writeReport(results);
+        return results;
+    }
+
+    private List<Path> findScripts() throws IOException
+    {
+        try (Stream<Path> files = Files.walk(root))
+        {
+            return files.filter(Files::isRegularFile)
+                    .filter(file -> matcher.matches(root.relativize(file)))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private Result runScript(Path script)
+    {
+        Path relative = root.relativize(script);
+        Path out = outputDir.resolve(relative + ".out");
+        Path err = outputDir.resolve(relative + ".err");
+
+        StringWriter errors = new StringWriter();
+        ErrorReporter reporter = new ErrorReporter(new PrintWriter(errors));
+        ErrorReporter previous = Lox.setReporter(reporter);
+        long start = System.nanoTime();
+        Status status;
+        try
+        {
+            Files.createDirectories(out.getParent());
+            try (Writer file = Files.newBufferedWriter(out, Charset.defaultCharset()))
+            {
+                PrintWriter writer = new PrintWriter(file);
+                List<Stmt> statements = Lox.load(script, Files.readAllBytes(script));
+                if (!reporter.hadError)
+                {
+                    Interpreter interpreter = new Interpreter(new Environment(), writer);
+                    // Imports resolve next to the script, the same as jlox script.lox
+                    interpreter.directory = script.toAbsolutePath().getParent();
+                    interpreter.interpret(statements);
+                }
+                writer.flush();
+            }
+            status = reporter.hadError ? Status.SYNTAX_ERROR
+                    : reporter.hadRuntimeError ? Status.RUNTIME_ERROR
+                    : Status.OK;
+        }
+        catch (IOException e)
+        {
+            status = Status.IO_ERROR;
+            errors.write(e.toString());
+        }
+        catch (RuntimeException | StackOverflowError e)
+        {
+            status = Status.INTERNAL_ERROR;
+            errors.write(e.toString());
+        }
+        finally
+        {
+            Lox.setReporter(previous);
+        }
+        long nanos = System.nanoTime() - start;
+
+        try
+        {
+            if (errors.getBuffer().length() > 0) Files.writeString(err, errors.toString());
+            else Files.deleteIfExists(err);
+        }
+        catch (IOException e)
+        {
+            // The report still records the failure
+        }
+
+        String message = status == Status.IO_ERROR || status == Status.INTERNAL_ERROR
+                ? errors.toString() : reporter.firstMessage;
+        return new Result(script, status, nanos, reporter.firstLine, message);
+    }
+
+    private void writeReport(List<Result> results) throws IOException
+    {
+        try (PrintWriter report = new PrintWriter(Files.newBufferedWriter(outputDir.resolve("report.tsv"))))
+        {
+            report.println("script\tstatus\texit\tmillis\tline\tmessage");
+            for (Result result : results)
+            {
+                report.printf("%s\t%s\t%d\t%.3f\t%s\t%s%n",
+                        root.relativize(result.script), result.status, result.status.exitCode,
+                        result.nanos / 1e6,
+                        result.errorLine < 0 ? "" : String.valueOf(result.errorLine),
+                        result.errorMessage == null ? "" : result.errorMessage.replace('\t', ' ').replace('\n', ' '));
+            }
+        }
+    }
+
+    // The directories at the front of the glob that have no wildcards, so we only walk what can match.
+    private static String globRoot(String glob)
+    {
+        String[] parts = glob.split("/");
+        StringBuilder root = new StringBuilder();
+        for (int i = 0; i < parts.length - 1; i++)
+        {
+            if (parts[i].matches(".*[*?\\[{].*")) break;
+            root.append(parts[i]).append('/');
+        }
+        return root.toString();
+    }
+
+    static int main(String target, Path outputDir, int parallelism) throws IOException
+    {
+        long start = System.nanoTime();
+        List<Result> results = new BatchRunner(target, outputDir, parallelism).run();
+        long nanos = System.nanoTime() - start;
+
+        int failed = 0;
+        for (Result result : results)
+        {
+            if (result.status == Status.OK) continue;
+            failed++;
+            System.err.println(result.script + ": " + result.status
+                    + (result.errorLine < 0 ? "" : " [line " + result.errorLine + "]"));
+        }
+        System.out.printf("%d scripts, %d failed, %.1f ms. Report: %s%n",
+                results.size(), failed, nanos / 1e6, outputDir.resolve("report.tsv"));
+        return failed == 0 ? 0 : 1;
+    }
+}
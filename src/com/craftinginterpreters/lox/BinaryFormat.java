@@ -0,0 +1,163 @@
+package com.craftinginterpreters.lox;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+The pieces AstCache's .loxc files and Snapshot files have in common.
+
+    varint      7 bits per byte, low bits first
+    string      a varint index into the pool; the first time a string appears its index
+                is the pool's size, followed by the UTF-8 length as a varint and the bytes
+    literal     a one byte tag and then the value: nothing for nil, true and false, a
+                double, a long for an integer, or a pooled string
+
+Both files come from disk, so the Decoder never trusts a number it reads: a varint that
+doesn't fit an int, a string longer than what is left, or a count of things bigger than
+the remaining bytes could hold (each of them takes at least one) is Corrupt, not an
+allocation.
+ */
+final class BinaryFormat
+{
+    static final byte NIL_VALUE = 0;
+    static final byte FALSE_VALUE = 1;
+    static final byte TRUE_VALUE = 2;
+    static final byte NUMBER_VALUE = 3;
+    static final byte STRING_VALUE = 4;
+    static final byte INTEGER_VALUE = 5;
+
+    private BinaryFormat() {}
+
+    // Each format decides what a corrupt file means for it, AstCache just ignores the file
+    static final class Corrupt extends RuntimeException {}
+
+    static class Encoder
+    {
+        final DataOutputStream out;
+        private final Map<String, Integer> pool = new HashMap<>();
+
+        Encoder(DataOutputStream out)
+        {
+            this.out = out;
+        }
+
+        void varint(int value) throws IOException
+        {
+            while ((value & ~0x7F) != 0)
+            {
+                out.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        }
+
+        void string(String value) throws IOException
+        {
+            Integer index = pool.get(value);
+            if (index != null)
+            {
+                varint(index);
+                return;
+            }
+            varint(pool.size());
+            pool.put(value, pool.size());
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            varint(utf8.length);
+            out.write(utf8);
+        }
+
+        // Writes value if it is nil, a boolean, a number or a string, false for anything else
+        boolean literal(Object value) throws IOException
+        {
+            if (value == null) out.writeByte(NIL_VALUE);
+            else if (value instanceof Boolean) out.writeByte((Boolean) value ? TRUE_VALUE : FALSE_VALUE);
+            else if (value instanceof Double)
+            {
+                out.writeByte(NUMBER_VALUE);
+                out.writeDouble((Double) value);
+            }
+            else if (value instanceof Long)
+            {
+                out.writeByte(INTEGER_VALUE);
+                out.writeLong((Long) value);
+            }
+            else if (value instanceof String)
+            {
+                out.writeByte(STRING_VALUE);
+                string((String) value);
+            }
+            else return false;
+            return true;
+        }
+    }
+
+    static class Decoder
+    {
+        final ByteBuffer in;
+        private final List<String> pool = new ArrayList<>();
+
+        Decoder(ByteBuffer in)
+        {
+            this.in = in;
+        }
+
+        int varint()
+        {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do
+            {
+                if (shift > 28) throw new Corrupt();
+                b = in.get();
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        // How many of something follow, when every one of them takes at least a byte
+        int count()
+        {
+            int count = varint();
+            if (count < 0 || count > in.remaining()) throw new Corrupt();
+            return count;
+        }
+
+        String string()
+        {
+            int index = varint();
+            if (index >= 0 && index < pool.size()) return pool.get(index);
+            if (index != pool.size()) throw new Corrupt();
+
+            int length = varint();
+            if (length < 0 || length > in.remaining()) throw new Corrupt();
+            byte[] utf8 = new byte[length];
+            in.get(utf8);
+            String value = new String(utf8, StandardCharsets.UTF_8);
+            pool.add(value);
+            return value;
+        }
+
+        // The value after a tag Encoder.literal wrote
+        Object literal(byte tag)
+        {
+            switch (tag)
+            {
+                case NIL_VALUE: return null;
+                case FALSE_VALUE: return false;
+                case TRUE_VALUE: return true;
+                case NUMBER_VALUE: return in.getDouble();
+                case INTEGER_VALUE: return LoxNumbers.integer(in.getLong());
+                case STRING_VALUE: return string();
+                default: throw new Corrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+/*
+One Lox function call, kept on the heap rather than in a chain of Java exceptions.
+
+locals holds the parameters and then every variable the function declares, at the slots the
+Resolver picked. A return statement does not throw: it stores the value here and sets
+returning, and blocks and loops stop when they see it. A call in tail position (return f(x))
+stores the function and arguments instead of calling it, and Interpreter.invoke reuses its
+Java frame to run it, so tail recursion never grows the Java stack.
+ */
+final class CallFrame
+{
+    // A variable an inner function captured, shared by the frame and the closure
+    static final class Cell
+    {
+        Object value;
+
+        Cell(Object value)
+        {
+            this.value = value;
+        }
+    }
+
+    final LoxFunction function;
+    final Object[] locals;
+    final Cell[] upvalues;
+    // Who called us, for anything that wants to walk the Lox stack
+    final CallFrame caller;
+
+    boolean returning;
+    Object value;
+    // Set instead of value when the return is a tail call
+    LoxFunction tailFunction;
+    List<Object> tailArguments;
+
+    CallFrame(LoxFunction function, List<Object> arguments, CallFrame caller)
+    {
+        Resolver.Layout layout = function.declaration.layout;
+        this.function = function;
+        this.locals = new Object[layout.slots];
+        this.upvalues = function.upvalues;
+        this.caller = caller;
+
+        for (int i = 0; i < arguments.size(); i++) locals[i] = arguments.get(i);
+        for (int slot : layout.cellParams) locals[slot] = new Cell(locals[slot]);
+    }
+}
@@ -0,0 +1,515 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.LongPredicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptException;
+import javax.script.SimpleScriptContext;
+
+/*
+Runs the corpus of Lox programs against every engine and checks them against golden files,
+then times each one and compares against the recorded baselines.
+
+    java com.craftinginterpreters.lox.Conformance [options]
+
+    --corpus dir            programs and golden files (default corpus)
+    --engines a,b           engines to check (default all: tree, cached, profile, jsr223, probe, coverage, osr, parallel)
+    --warmup n              untimed runs of each program first, at least half a second (default 20)
+    --iterations n          timed runs, at least 200 ms of them, we keep the best (default 20)
+    --time-threshold f      fail when the best time grows by more than this (default 0.5)
+    --alloc-threshold f     fail when allocated bytes grow by more than this (default 0.1)
+    --no-perf               only check outputs
+    --update-golden         rewrite the golden files from the tree walker
+    --update-baselines      rewrite baselines.tsv from this run
+
+For corpus/foo.lox the golden files are foo.out (stdout), foo.err (stderr, missing means
+empty) and foo.exit (exit code, missing means 0). Exit codes are the ones Lox uses: 65 for
+syntax errors, 70 for runtime errors.
+
+Every engine has to match the same golden files, which is the point: the tree walker wrote
+them, so a new engine (or a faster tree walker) is correct when it still produces them.
+
+The corpus programs named host_* call host functions, which this class registers through
+each of the HostFunctions entry points before running anything.
+
+Timing and allocation baselines live in corpus/baselines.tsv, one row per program and engine.
+They are only meaningful on the machine that recorded them, so rerun --update-baselines
+before starting on an optimization and compare against that. Allocation is per thread and
+close to deterministic, which is why its default threshold is much tighter than time's.
+ */
+class Conformance
+{
+    static class Outcome
+    {
+        final String out;
+        final String err;
+        final int exitCode;
+
+        Outcome(String out, String err, int exitCode)
+        {
+            this.out = out;
+            this.err = err;
+            this.exitCode = exitCode;
+        }
+    }
+
+    // One way of running a program. New engines get added to ENGINES and the corpus checks them.
+    interface Engine
+    {
+        int run(String source, PrintWriter out, PrintWriter err);
+    }
+
+    static final Map<String, Engine> ENGINES = new LinkedHashMap<>();
+    // What the coverage engine reports into, nobody reads it
+    private static final Coverage COVERAGE = new Coverage();
+    // What every engine gives the corpus to call, see host_functions.lox
+    private static final HostFunctions HOST_FUNCTIONS = new HostFunctions();
+
+    static
+    {
+        ENGINES.put("tree", (source, out, err) -> treeWalk(source, out, err, false, new Interpreter(new Environment(), out)));
+        ENGINES.put("cached", (source, out, err) -> treeWalk(source, out, err, true, new Interpreter(new Environment(), out)));
+        ENGINES.put("profile", (source, out, err) -> treeWalk(source, out, err, false, new ProfilingInterpreter(new Environment(), out)));
+        ENGINES.put("jsr223", Conformance::scriptEngine);
+        // A probe that does nothing on every statement, instrumenting must not change a thing
+        ENGINES.put("probe", (source, out, err) -> {
+            InstrumentedInterpreter interpreter = new InstrumentedInterpreter(new Environment(), out);
+            interpreter.probes.attachStatements(new InstrumentedInterpreter.Probe() {});
+            return treeWalk(source, out, err, false, interpreter);
+        });
+        ENGINES.put("coverage", (source, out, err) ->
+                treeWalk(source, out, err, false, new CoverageInterpreter(new Environment(), out, COVERAGE, "<corpus>")));
+        // Every loop goes to LoopCompiler on its first back edge
+        ENGINES.put("osr", (source, out, err) -> {
+            Interpreter interpreter = new Interpreter(new Environment(), out);
+            interpreter.osrThreshold = 0;
+            return treeWalk(source, out, err, false, interpreter);
+        });
+        // Top level statements run ahead on helper threads wherever ParallelRunner lets them
+        ENGINES.put("parallel", (source, out, err) -> {
+            Interpreter interpreter = new Interpreter(new Environment(), out);
+            interpreter.parallelism = 4;
+            return treeWalk(source, out, err, false, interpreter);
+        });
+
+        try
+        {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            HOST_FUNCTIONS.register("hostHypot", Math.class.getMethod("hypot", double.class, double.class));
+            HOST_FUNCTIONS.register("hostMax", DoubleBinaryOperator.class, Math::max);
+            HOST_FUNCTIONS.register("hostRepeat", lookup.findStatic(Conformance.class, "repeat",
+                    MethodType.methodType(String.class, String.class, int.class)));
+            HOST_FUNCTIONS.register("hostIsEven", LongPredicate.class, n -> n % 2 == 0);
+            HOST_FUNCTIONS.register("hostNothing", Runnable.class, () -> {});
+            HOST_FUNCTIONS.register("hostFail", lookup.findStatic(Conformance.class, "fail",
+                    MethodType.methodType(void.class, String.class)));
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static String repeat(String text, int times)
+    {
+        return text.repeat(times);
+    }
+
+    private static void fail(String message)
+    {
+        throw new IllegalStateException(message);
+    }
+
+    // Same steps and exit codes as jlox script.lox (Lox.runFile, then 70 if anything failed at
+    // runtime). With cached the statements go through an AstCache round trip first.
+    private static int treeWalk(String source, PrintWriter out, PrintWriter err, boolean cached, Interpreter interpreter)
+    {
+        ErrorReporter reporter = new ErrorReporter(err);
+        ErrorReporter previous = Lox.setReporter(reporter);
+        try
+        {
+            List<Stmt> statements = Lox.parse(source);
+            if (reporter.hadError) return 65;
+
+            interpreter.host(HOST_FUNCTIONS);
+            if (cached)
+            {
+                byte[] hash = AstCache.hash(source.getBytes(StandardCharsets.UTF_8));
+                statements = AstCache.read(ByteBuffer.wrap(AstCache.write(statements, hash)), hash);
+                if (statements == null)
+                {
+                    err.println("AstCache could not read back what it wrote.");
+                    return 74;
+                }
+            }
+            interpreter.interpret(statements);
+            return reporter.hadRuntimeError ? 70 : 0;
+        }
+        finally
+        {
+            Lox.setReporter(previous);
+        }
+    }
+
+    private static final LoxScriptEngineFactory FACTORY = new LoxScriptEngineFactory();
+
+    // Syntax errors already went to the context's error writer, runtime errors only come back as
+    // a ScriptException, so print those the way the command line does.
+    private static int scriptEngine(String source, PrintWriter out, PrintWriter err)
+    {
+        LoxScriptEngine engine = (LoxScriptEngine) FACTORY.getScriptEngine();
+        engine.hostFunctions = HOST_FUNCTIONS;
+        ScriptContext context = new SimpleScriptContext();
+        context.setWriter(out);
+        context.setErrorWriter(err);
+        engine.setContext(context);
+
+        CompiledScript script;
+        try
+        {
+            script = engine.compile(source);
+        }
+        catch (ScriptException e)
+        {
+            return 65;
+        }
+
+        try
+        {
+            script.eval(context);
+            return 0;
+        }
+        catch (ScriptException e)
+        {
+            err.println(stripPosition(e));
+            err.println("[line " + e.getLineNumber() + "]");
+            return 70;
+        }
+    }
+
+    // ScriptException.getMessage() appends " in <file> at line number n"
+    private static String stripPosition(ScriptException e)
+    {
+        String message = e.getMessage();
+        int at = message.lastIndexOf(" in " + e.getFileName());
+        return at < 0 ? message : message.substring(0, at);
+    }
+
+    static Outcome run(Engine engine, String source)
+    {
+        StringWriter out = new StringWriter();
+        StringWriter err = new StringWriter();
+        PrintWriter outWriter = new PrintWriter(out);
+        PrintWriter errWriter = new PrintWriter(err);
+        int exitCode = engine.run(source, outWriter, errWriter);
+        outWriter.flush();
+        errWriter.flush();
+        return new Outcome(out.toString(), err.toString(), exitCode);
+    }
+
+    static class Baseline
+    {
+        final long nanos;
+        final long allocatedBytes;
+
+        Baseline(long nanos, long allocatedBytes)
+        {
+            this.nanos = nanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+
+    private final Path corpus;
+    private final List<String> engines;
+    private int warmup = 20;
+    private int iterations = 20;
+    private double timeThreshold = 0.5;
+    private double allocThreshold = 0.1;
+    private boolean perf = true;
+    private boolean updateGolden = false;
+    private boolean updateBaselines = false;
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private int failures = 0;
+
+    Conformance(Path corpus, List<String> engines)
+    {
+        this.corpus = corpus;
+        this.engines = engines;
+    }
+
+    int check() throws IOException
+    {
+        // Programs are run from their source text, so their imports are found through the search path
+        if (!ModuleCache.SEARCH_PATH.contains(corpus)) ModuleCache.SEARCH_PATH.add(corpus);
+        List<Path> programs;
+        try (Stream<Path> files = Files.list(corpus))
+        {
+            programs = files.filter(file -> file.toString().endsWith(".lox")).sorted().collect(Collectors.toList());
+        }
+
+        Path baselineFile = corpus.resolve("baselines.tsv");
+        Map<String, Baseline> baselines = readBaselines(baselineFile);
+        Map<String, Baseline> measured = new TreeMap<>();
+
+        for (Path program : programs)
+        {
+            String name = program.getFileName().toString();
+            name = name.substring(0, name.length() - ".lox".length());
+            String source = Files.readString(program);
+
+            if (updateGolden) writeGolden(name, run(ENGINES.get("tree"), source));
+            Outcome expected = readGolden(name);
+
+            for (String engineName : engines)
+            {
+                Engine engine = ENGINES.get(engineName);
+                String key = name + "\t" + engineName;
+                if (!compare(key, expected, run(engine, source))) continue;
+                if (!perf) continue;
+
+                Baseline now = measure(engine, source);
+                measured.put(key, now);
+                compareBaseline(key, baselines.get(key), now);
+            }
+        }
+
+        if (updateBaselines && perf)
+        {
+            baselines.putAll(measured);
+            writeBaselines(baselineFile, baselines);
+            System.out.println("Wrote " + baselineFile);
+        }
+
+        System.out.printf("%d programs, %d engines, %d failures%n", programs.size(), engines.size(), failures);
+        return failures == 0 ? 0 : 1;
+    }
+
+    private boolean compare(String key, Outcome expected, Outcome actual)
+    {
+        List<String> problems = new ArrayList<>();
+        if (expected.exitCode != actual.exitCode)
+        {
+            problems.add("exit code " + actual.exitCode + ", expected " + expected.exitCode);
+        }
+        if (!expected.out.equals(actual.out)) problems.add("stdout" + firstDifference(expected.out, actual.out));
+        if (!expected.err.equals(actual.err)) problems.add("stderr" + firstDifference(expected.err, actual.err));
+        if (problems.isEmpty()) return true;
+
+        failures++;
+        System.out.println("FAIL " + key.replace('\t', ' ') + ": " + String.join("; ", problems));
+        return false;
+    }
+
+    private static String firstDifference(String expected, String actual)
+    {
+        String[] a = expected.split("\n", -1);
+        String[] b = actual.split("\n", -1);
+        for (int i = 0; i < Math.max(a.length, b.length); i++)
+        {
+            String left = i < a.length ? a[i] : "<missing>";
+            String right = i < b.length ? b[i] : "<missing>";
+            if (!left.equals(right))
+            {
+                return " differs at line " + (i + 1) + ": expected \"" + left + "\", got \"" + right + "\"";
+            }
+        }
+        return " differs";
+    }
+
+    // Both loops run for at least the given count and at least a minimum time, so tiny programs
+    // get enough samples and big ones get past the JIT before we start the clock.
+    private static final long WARMUP_NANOS = 500_000_000L;
+    private static final long MEASURE_NANOS = 200_000_000L;
+
+    private Baseline measure(Engine engine, String source)
+    {
+        long deadline = System.nanoTime() + WARMUP_NANOS;
+        for (int i = 0; i < warmup || System.nanoTime() < deadline; i++) run(engine, source);
+
+        // Noise (other processes, GC, the JIT) only ever makes a run slower, and escape analysis
+        // only ever removes allocations, so the best run is the stable number for both.
+        long nanos = Long.MAX_VALUE;
+        long bytes = Long.MAX_VALUE;
+        deadline = System.nanoTime() + MEASURE_NANOS;
+        for (int i = 0; i < iterations || System.nanoTime() < deadline; i++)
+        {
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            run(engine, source);
+            nanos = Math.min(nanos, System.nanoTime() - start);
+            bytes = Math.min(bytes, allocatedBytes() - allocatedBefore);
+        }
+        return new Baseline(nanos, bytes);
+    }
+
+    private long allocatedBytes()
+    {
+        if (threads instanceof com.sun.management.ThreadMXBean)
+        {
+            return ((com.sun.management.ThreadMXBean) threads).getCurrentThreadAllocatedBytes();
+        }
+        return 0;
+    }
+
+    // Differences below these are noise however big the percentage looks on a tiny program
+    private static final long TIME_FLOOR_NANOS = 20_000;
+    private static final long ALLOC_FLOOR_BYTES = 1024;
+
+    private void compareBaseline(String key, Baseline baseline, Baseline now)
+    {
+        String label = key.replace('\t', ' ');
+        if (baseline == null)
+        {
+            System.out.printf("NEW  %s: %.1f us, %d bytes%n", label, now.nanos / 1e3, now.allocatedBytes);
+            return;
+        }
+
+        double time = ratio(now.nanos, baseline.nanos);
+        double alloc = ratio(now.allocatedBytes, baseline.allocatedBytes);
+        boolean regressed = (time > 1 + timeThreshold && now.nanos - baseline.nanos > TIME_FLOOR_NANOS)
+                || (alloc > 1 + allocThreshold && now.allocatedBytes - baseline.allocatedBytes > ALLOC_FLOOR_BYTES);
+        if (regressed && !updateBaselines) failures++;
+        System.out.printf("%s %s: %.1f us (%+.0f%%), %d bytes (%+.0f%%)%n",
+                regressed ? "SLOW" : "ok  ", label,
+                now.nanos / 1e3, (time - 1) * 100, now.allocatedBytes, (alloc - 1) * 100);
+    }
+
+    private static double ratio(long now, long baseline)
+    {
+        if (baseline == 0) return now == 0 ? 1 : Double.POSITIVE_INFINITY;
+        return (double) now / baseline;
+    }
+
+    private Outcome readGolden(String name) throws IOException
+    {
+        Path exit = corpus.resolve(name + ".exit");
+        return new Outcome(
+                readOrEmpty(corpus.resolve(name + ".out")),
+                readOrEmpty(corpus.resolve(name + ".err")),
+                Files.exists(exit) ? Integer.parseInt(Files.readString(exit).trim()) : 0);
+    }
+
+    private static String readOrEmpty(Path path) throws IOException
+    {
+        return Files.exists(path) ? Files.readString(path) : "";
+    }
+
+    // Only write the files that say something, so a passing program is just .lox and .out
+    private void writeGolden(String name, Outcome outcome) throws IOException
+    {
+        Files.writeString(corpus.resolve(name + ".out"), outcome.out);
+        writeOrDelete(corpus.resolve(name + ".err"), outcome.err);
+        writeOrDelete(corpus.resolve(name + ".exit"), outcome.exitCode == 0 ? "" : outcome.exitCode + "\n");
+    }
+
+    private static void writeOrDelete(Path path, String text) throws IOException
+    {
+        if (text.isEmpty()) Files.deleteIfExists(path);
+        else Files.writeString(path, text);
+    }
+
+    private static Map<String, Baseline> readBaselines(Path file) throws IOException
+    {
+        Map<String, Baseline> baselines = new TreeMap<>();
+        if (!Files.exists(file)) return baselines;
+        for (String line : Files.readAllLines(file))
+        {
+            if (line.isEmpty() || line.startsWith("program\t")) continue;
+            String[] fields = line.split("\t");
+            // program, engine, micros, bytes
+            baselines.put(fields[0] + "\t" + fields[1],
+                    new Baseline(Math.round(Double.parseDouble(fields[2]) * 1e3), Long.parseLong(fields[3])));
+        }
+        return baselines;
+    }
+
+    private static void writeBaselines(Path file, Map<String, Baseline> baselines) throws IOException
+    {
+        StringBuilder text = new StringBuilder("program\tengine\tmicros\tbytes\n");
+        for (Map.Entry<String, Baseline> entry : baselines.entrySet())
+        {
+            text.append(entry.getKey()).append('\t')
+                    .append(String.format("%.1f", entry.getValue().nanos / 1e3)).append('\t')
+                    .append(entry.getValue().allocatedBytes).append('\n');
+        }
+        Files.writeString(file, text);
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        String corpus = "corpus";
+        List<String> engines = new ArrayList<>(ENGINES.keySet());
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++)
+        {
+            String flag = args[i];
+            switch (flag)
+            {
+                case "--no-perf":
+                case "--update-golden":
+                case "--update-baselines":
+                    options.put(flag, "");
+                    continue;
+            }
+            if (i + 1 == args.length) usage("Missing value for " + flag);
+            String value = args[++i];
+            if (flag.equals("--corpus")) corpus = value;
+            else if (flag.equals("--engines")) engines = Arrays.asList(value.split(","));
+            else options.put(flag, value);
+        }
+        for (String engine : engines)
+        {
+            if (!ENGINES.containsKey(engine)) usage("Unknown engine " + engine + ", have " + ENGINES.keySet());
+        }
+
+        Conformance conformance = new Conformance(Paths.get(corpus), engines);
+        for (Map.Entry<String, String> option : options.entrySet())
+        {
+            String value = option.getValue();
+            switch (option.getKey())
+            {
+                case "--warmup": conformance.warmup = Integer.parseInt(value); break;
+                case "--iterations": conformance.iterations = Math.max(1, Integer.parseInt(value)); break;
+                case "--time-threshold": conformance.timeThreshold = Double.parseDouble(value); break;
+                case "--alloc-threshold": conformance.allocThreshold = Double.parseDouble(value); break;
+                case "--no-perf": conformance.perf = false; break;
+                case "--update-golden": conformance.updateGolden = true; break;
+                case "--update-baselines": conformance.updateBaselines = true; break;
+                default: usage("Unknown option " + option.getKey());
+            }
+        }
+        System.exit(conformance.check());
+    }
+
+    private static void usage(String problem)
+    {
+        System.err.println(problem);
+        System.err.println("Usage: Conformance [--corpus dir] [--engines a,b] [--warmup n] [--iterations n]");
+        System.err.println("                   [--time-threshold f] [--alloc-threshold f] [--no-perf]");
+        System.err.println("                   [--update-golden] [--update-baselines]");
+        System.exit(64);
+    }
+}
@@ -0,0 +1,281 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+Line and branch coverage, written out as an LCOV tracefile (genhtml, Codecov and most
+editors read it).
+
+Every statement gets a dense id the first time a tree is about to run under coverage,
+from one counter for the whole process, so trees shared between interpreters (modules,
+anything parsed once and run many times) are numbered once and keep their ids. An if without
+an else and a while get one more id after their own, for the condition coming out false.
+Which node and file each id stands for is kept by each Coverage, for the trees that ran
+under it, so the nodes go away with it.
+
+Expressions don't get one. Nothing in an expression is a statement, so they only add the
+other lines of an expression written over several, and recording them too made covered runs
+of arithmetic heavy code twice as slow. What gets recorded is whether each id ran, one bit
+each. CoverageInterpreter sets bits in a
+plain long[] only it writes, so a hit is an OR into an array, and when a run is over its
+words are ORed into a Coverage with getAndBitwiseOr: no locks, and any number of concurrent
+runs can report into the same one. Bits live in chunks made on first use, so the id space
+can grow without moving a word another thread might be ORing into. Bits rather than
+counters keep the per run array and the merge 64 times smaller, which matters because in
+straight line code each node only runs once and anything per node per run costs as much
+as running it.
+
+The report has a DA line per source line that has a statement starting on it, 1 if any of
+them ran, and BRDA branches for if (then, else) and while (into the body, out of the loop).
+ */
+final class Coverage
+{
+    private static final int CHUNK = 1024;
+    private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    // Guarded by the class
+    private static int nextId = 1;
+
+    // id -> statement and the file it came from, null for the extra branch ids and the ids
+    // of trees that never ran under this Coverage. Guarded by this, readers copy under it.
+    private Stmt[] nodes = new Stmt[CHUNK];
+    private String[] files = new String[CHUNK];
+
+    private final AtomicReferenceArray<long[]> chunks = new AtomicReferenceArray<>(1 << 12);
+
+    // One past the highest id handed out so far
+    static synchronized int size()
+    {
+        return nextId;
+    }
+
+    // Gives every statement in the tree that doesn't have an id yet the next ones, and
+    // records the tree's statements here with file as where they came from
+    synchronized void number(List<Stmt> statements, String file)
+    {
+        boolean known = true;
+        for (Stmt stmt : statements) known &= stmt.id != 0 && stmt.id < nodes.length && nodes[stmt.id] == stmt;
+        if (known) return;
+        new Numbering(file).stmts(statements);
+    }
+
+    private static synchronized void assign(Stmt stmt)
+    {
+        // Another Coverage may have numbered it since we looked
+        if (stmt.id != 0) return;
+        stmt.id = nextId++;
+        // Where the condition coming out false gets recorded
+        if ((stmt instanceof Stmt.If && ((Stmt.If) stmt).elseBranch == null) || stmt instanceof Stmt.While)
+        {
+            nextId++;
+        }
+    }
+
+    private void record(Stmt stmt, String file)
+    {
+        if (stmt.id >= nodes.length)
+        {
+            int length = Math.max(stmt.id + 1, nodes.length * 2);
+            nodes = Arrays.copyOf(nodes, length);
+            files = Arrays.copyOf(files, length);
+        }
+        nodes[stmt.id] = stmt;
+        files[stmt.id] = file;
+    }
+
+    // ORs in a run's bits, bit id of the array is id
+    void merge(long[] bits)
+    {
+        for (int word = 0; word < bits.length; word++)
+        {
+            if (bits[word] != 0) WORDS.getAndBitwiseOr(chunk(word), word % CHUNK, bits[word]);
+        }
+    }
+
+    private long[] chunk(int word)
+    {
+        int index = word / CHUNK;
+        long[] chunk = chunks.get(index);
+        if (chunk != null) return chunk;
+        chunks.compareAndSet(index, null, new long[CHUNK]);
+        return chunks.get(index);
+    }
+
+    boolean ran(int id)
+    {
+        int word = id >>> 6;
+        long[] chunk = chunks.get(word / CHUNK);
+        return chunk != null && ((long) WORDS.getVolatile(chunk, word % CHUNK) & (1L << id)) != 0;
+    }
+
+    private static final class FileReport
+    {
+        // line -> whether any statement starting there ran
+        final Map<Integer, Boolean> lines = new TreeMap<>();
+        // line -> [block, branch, taken: 1, 0 or -1 for never reached] rows
+        final Map<Integer, List<int[]>> branches = new TreeMap<>();
+    }
+
+    void writeLcov(Writer out) throws IOException
+    {
+        Stmt[] known;
+        String[] from;
+        synchronized (this)
+        {
+            known = nodes;
+            from = files;
+        }
+
+        Map<String, FileReport> reports = new LinkedHashMap<>();
+        for (int id = 1; id < known.length; id++)
+        {
+            Stmt node = known[id];
+            if (node == null) continue;
+            FileReport report = reports.computeIfAbsent(from[id], file -> new FileReport());
+            int line = node.line;
+            report.lines.merge(line, ran(id), Boolean::logicalOr);
+
+            if (node instanceof Stmt.If)
+            {
+                Stmt.If branch = (Stmt.If) node;
+                int otherwise = branch.elseBranch != null ? branch.elseBranch.id : id + 1;
+                addBranch(report, line, id, ran(id), ran(branch.thenBranch.id), ran(otherwise));
+            }
+            else if (node instanceof Stmt.While)
+            {
+                addBranch(report, line, id, ran(id), ran(((Stmt.While) node).body.id), ran(id + 1));
+            }
+        }
+
+        for (Map.Entry<String, FileReport> entry : reports.entrySet())
+        {
+            FileReport report = entry.getValue();
+            out.write("TN:\n");
+            out.write("SF:" + entry.getKey() + "\n");
+            int linesHit = 0;
+            for (Map.Entry<Integer, Boolean> line : report.lines.entrySet())
+            {
+                out.write("DA:" + line.getKey() + "," + (line.getValue() ? 1 : 0) + "\n");
+                if (line.getValue()) linesHit++;
+            }
+            int branchesFound = 0;
+            int branchesHit = 0;
+            for (Map.Entry<Integer, List<int[]>> line : report.branches.entrySet())
+            {
+                for (int[] branch : line.getValue())
+                {
+                    String taken = branch[2] < 0 ? "-" : Integer.toString(branch[2]);
+                    out.write("BRDA:" + line.getKey() + "," + branch[0] + "," + branch[1] + "," + taken + "\n");
+                    branchesFound++;
+                    if (branch[2] > 0) branchesHit++;
+                }
+            }
+            out.write("BRF:" + branchesFound + "\n");
+            out.write("BRH:" + branchesHit + "\n");
+            out.write("LF:" + report.lines.size() + "\n");
+            out.write("LH:" + linesHit + "\n");
+            out.write("end_of_record\n");
+        }
+        out.flush();
+    }
+
+    private static void addBranch(FileReport report, int line, int block, boolean reached, boolean first, boolean second)
+    {
+        List<int[]> rows = report.branches.computeIfAbsent(line, key -> new ArrayList<>());
+        rows.add(new int[] {block, 0, !reached ? -1 : first ? 1 : 0});
+        rows.add(new int[] {block, 1, !reached ? -1 : second ? 1 : 0});
+    }
+
+    // Walks a whole tree, function bodies included, numbering what isn't numbered yet
+    private final class Numbering implements Stmt.Visitor<Void>
+    {
+        private final String file;
+
+        Numbering(String file)
+        {
+            this.file = file;
+        }
+
+        void stmts(List<Stmt> statements)
+        {
+            for (Stmt stmt : statements) stmt(stmt);
+        }
+
+        private void stmt(Stmt stmt)
+        {
+            if (stmt == null) return;
+            if (stmt.id == 0) assign(stmt);
+            record(stmt, file);
+            stmt.accept(this);
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt)
+        {
+            stmts(stmt.statements);
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt)
+        {
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt)
+        {
+            stmts(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt)
+        {
+            stmt(stmt.thenBranch);
+            stmt(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitImportStmt(Stmt.Import stmt)
+        {
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt)
+        {
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt)
+        {
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt)
+        {
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt)
+        {
+            stmt(stmt.body);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/*
+Interpreter that records which statements run, for Coverage.
+
+A subclass like ProfilingInterpreter, so runs without coverage never see it. Recording is
+setting bit stmt.id in a plain array only this interpreter writes, evaluate isn't touched,
+and at the end of each executeAll the bits are ORed into the shared Coverage and cleared.
+Trees get their ids just before they first run here: the script in executeAll, a module as
+it's imported.
+
+Spawned tasks record into their own arrays too, and merge and clear them on their own
+thread when their function is done. A task still running when the interpreter that spawned
+it finishes has what it recorded so far read, never cleared, from the spawner's thread; it
+can only miss hits that came in the meantime, which the task merges itself when it ends.
+Loops stay in the tree walker, compiled ones would skip execute.
+ */
+class CoverageInterpreter extends Interpreter
+{
+    private final Coverage coverage;
+    // What the script shows up as in the report
+    private final String file;
+    private long[] bits = new long[(Coverage.size() >>> 6) + 1];
+    private final List<CoverageInterpreter> tasks = new CopyOnWriteArrayList<>();
+
+    CoverageInterpreter(Environment globals, PrintWriter out, Coverage coverage, String file)
+    {
+        super(globals, out);
+        this.coverage = coverage;
+        this.file = file;
+        osrThreshold = -1;
+        parallelism = 1;
+    }
+
+    @Override
+    void executeAll(List<Stmt> statements)
+    {
+        coverage.number(statements, file);
+        try
+        {
+            super.executeAll(statements);
+        }
+        finally
+        {
+            report();
+        }
+    }
+
+    @Override
+    void loading(Path file, List<Stmt> statements)
+    {
+        coverage.number(statements, file.toString());
+    }
+
+    @Override
+    void execute(Stmt stmt)
+    {
+        hit(stmt.id);
+        super.execute(stmt);
+    }
+
+    // The if itself can't tell us the condition was false when there's no else to run, so
+    // this is visitIfStmt again with that one bit added
+    @Override
+    public Void visitIfStmt(Stmt.If stmt)
+    {
+        if (stmt.elseBranch != null) return super.visitIfStmt(stmt);
+        if (isTruthy(evaluate(stmt.condition))) execute(stmt.thenBranch);
+        else hit(stmt.id + 1);
+        return null;
+    }
+
+    // A loop that comes back without a return in flight ended on its condition
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt)
+    {
+        super.visitWhileStmt(stmt);
+        if (frame == null || !frame.returning) hit(stmt.id + 1);
+        return null;
+    }
+
+    private void hit(int id)
+    {
+        long[] current = bits;
+        int word = id >>> 6;
+        // Nodes numbered after this run started (a module) are past the end
+        if (word >= current.length) bits = current = Arrays.copyOf(current, Math.max(word + 1, current.length * 2));
+        current[word] |= 1L << id;
+    }
+
+    @Override
+    void finished()
+    {
+        report();
+    }
+
+    // Hands what this run recorded to the Coverage, and what its tasks have so far
+    private void report()
+    {
+        coverage.merge(bits);
+        Arrays.fill(bits, 0);
+        for (CoverageInterpreter task : tasks) task.snapshot();
+        tasks.clear();
+    }
+
+    // Only ever called from another thread, so it reads and leaves clearing to report
+    private void snapshot()
+    {
+        coverage.merge(bits);
+        for (CoverageInterpreter task : tasks) task.snapshot();
+    }
+
+    @Override
+    Interpreter fork()
+    {
+        CoverageInterpreter child = new CoverageInterpreter(globals, out(), coverage, file);
+        child.directory = directory;
+        tasks.add(child);
+        return child;
+    }
+}
@@ -0,0 +1,260 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/*
+Breakpoints, stepping and watch expressions, built from InstrumentedInterpreter probes.
+
+A breakpoint is a line probe, so until the program reaches one the debugger costs nothing
+past the instrumented interpreter's own checks. It stops once per visit to the line: at the
+outermost statement that starts there, not again at the statements nested inside it on the
+same line, and again in a new call (recursion). Stepping attaches the debugger to every
+statement, and continuing takes it off again.
+
+    STEP_INTO   stop at the next statement on another line, or in another call
+    STEP_OVER   the same, but not inside calls made from here
+    STEP_OUT    stop once the current function has returned
+
+When the program stops, the Handler gets a Pause to look around in and says how to go on.
+It runs on the thread of the interpreter that stopped and the program waits for it. With
+tasks any of them can stop at a breakpoint; stepping follows the one that stopped last.
+console() is a Handler on a terminal, the one jlox --break uses.
+ */
+final class Debugger
+{
+    enum Resume { CONTINUE, STEP_INTO, STEP_OVER, STEP_OUT }
+
+    interface Handler
+    {
+        Resume paused(Pause pause);
+    }
+
+    final class Pause
+    {
+        final InstrumentedInterpreter interpreter;
+        final Stmt statement;
+        final int line;
+
+        private Pause(InstrumentedInterpreter interpreter, Stmt statement)
+        {
+            this.interpreter = interpreter;
+            this.statement = statement;
+            this.line = statement.line;
+        }
+
+        // Innermost function first, <script> last
+        List<String> stack()
+        {
+            return interpreter.stack();
+        }
+
+        // Every watch expression with its value right now
+        Map<String, String> watches()
+        {
+            Map<String, String> values = new LinkedHashMap<>();
+            for (String watch : Debugger.this.watches) values.put(watch, interpreter.inspect(watch));
+            return values;
+        }
+
+        String evaluate(String expression)
+        {
+            return interpreter.inspect(expression);
+        }
+    }
+
+    private final InstrumentedInterpreter.Probes probes;
+    // Until a host sets one, stops just carry on
+    private volatile Handler handler = pause -> Resume.CONTINUE;
+    private final Map<Integer, Runnable> breakpoints = new ConcurrentHashMap<>();
+    private final List<String> watches = new CopyOnWriteArrayList<>();
+
+    // Breakpoint statements running right now, per interpreter, to stop once per visit
+    private final Map<InstrumentedInterpreter, Deque<Visit>> visiting = new ConcurrentHashMap<>();
+
+    // While stepping: the statement probe's detach, who we follow and from where
+    private Runnable stepping;
+    private volatile InstrumentedInterpreter steppingIn;
+    private Resume mode;
+    private int fromLine;
+    private CallFrame fromFrame;
+    private int fromDepth;
+
+    private static final class Visit
+    {
+        final int line;
+        final CallFrame frame;
+
+        Visit(int line, CallFrame frame)
+        {
+            this.line = line;
+            this.frame = frame;
+        }
+    }
+
+    private final InstrumentedInterpreter.Probe breakpoint = new InstrumentedInterpreter.Probe()
+    {
+        @Override
+        public void enter(InstrumentedInterpreter interpreter, Object node, int line)
+        {
+            Deque<Visit> visits = visiting.computeIfAbsent(interpreter, key -> new ArrayDeque<>());
+            Visit top = visits.peek();
+            boolean nested = top != null && top.line == line && top.frame == interpreter.frame;
+            visits.push(new Visit(line, interpreter.frame));
+            // The step probe sees this statement too and decides for both
+            if (!nested && steppingIn != interpreter) pause(interpreter, (Stmt) node);
+        }
+
+        @Override
+        public void exit(InstrumentedInterpreter interpreter, Object node, int line, Object value)
+        {
+            Deque<Visit> visits = visiting.get(interpreter);
+            if (visits == null) return;
+            visits.poll();
+            if (visits.isEmpty()) visiting.remove(interpreter);
+        }
+    };
+
+    private final InstrumentedInterpreter.Probe step = new InstrumentedInterpreter.Probe()
+    {
+        @Override
+        public void enter(InstrumentedInterpreter interpreter, Object node, int line)
+        {
+            if (interpreter != steppingIn) return;
+            boolean moved = line != fromLine || interpreter.frame != fromFrame;
+            boolean stop;
+            switch (mode)
+            {
+                case STEP_INTO: stop = moved; break;
+                case STEP_OVER: stop = moved && interpreter.depth() <= fromDepth; break;
+                default: stop = interpreter.depth() < fromDepth; break;
+            }
+            if (stop || (moved && breakpoints.containsKey(line) && !nestedVisit(interpreter, line)))
+            {
+                pause(interpreter, (Stmt) node);
+            }
+        }
+    };
+
+    Debugger(InstrumentedInterpreter interpreter)
+    {
+        this.probes = interpreter.probes;
+    }
+
+    void onPause(Handler handler)
+    {
+        this.handler = handler;
+    }
+
+    void breakAt(int line)
+    {
+        breakpoints.computeIfAbsent(line, at -> probes.attachLine(at, breakpoint));
+    }
+
+    void clear(int line)
+    {
+        Runnable detach = breakpoints.remove(line);
+        if (detach != null) detach.run();
+    }
+
+    void watch(String expression)
+    {
+        watches.add(expression);
+    }
+
+    // Whether a statement on line is already running in this call. The step probe runs
+    // before the breakpoint's, so this statement isn't pushed yet.
+    private boolean nestedVisit(InstrumentedInterpreter interpreter, int line)
+    {
+        Deque<Visit> visits = visiting.get(interpreter);
+        Visit top = visits == null ? null : visits.peek();
+        return top != null && top.line == line && top.frame == interpreter.frame;
+    }
+
+    private synchronized void pause(InstrumentedInterpreter interpreter, Stmt statement)
+    {
+        Resume resume = handler.paused(new Pause(interpreter, statement));
+        if (resume == Resume.CONTINUE)
+        {
+            steppingIn = null;
+            if (stepping != null) stepping.run();
+            stepping = null;
+            return;
+        }
+        mode = resume;
+        fromLine = statement.line;
+        fromFrame = interpreter.frame;
+        fromDepth = interpreter.depth();
+        steppingIn = interpreter;
+        if (stepping == null) stepping = probes.attachStatements(step);
+    }
+
+    // Talks to someone at a terminal. At each stop it shows the line and the watches, then
+    // reads commands until one of them resumes:
+    //     c  continue          s  step into       n  step over        out  step out
+    //     p <expr>  print      w <expr>  watch    bt  Lox stack       b <line>  break there too
+    // End of input continues to the end of the program.
+    Handler console(BufferedReader in, PrintWriter out, String source)
+    {
+        String[] lines = source == null ? new String[0] : source.split("\n", -1);
+        return pause -> {
+            String text = pause.line >= 1 && pause.line <= lines.length ? lines[pause.line - 1].trim() : "";
+            out.println("[line " + pause.line + "] " + text);
+            for (Map.Entry<String, String> watch : pause.watches().entrySet())
+            {
+                out.println("  " + watch.getKey() + " = " + watch.getValue());
+            }
+            while (true)
+            {
+                out.print("debug> ");
+                out.flush();
+                String command;
+                try
+                {
+                    command = in.readLine();
+                }
+                catch (IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+                if (command == null)
+                {
+                    for (int line : breakpoints.keySet()) clear(line);
+                    return Resume.CONTINUE;
+                }
+                command = command.trim();
+                String argument = command.indexOf(' ') < 0 ? "" : command.substring(command.indexOf(' ') + 1).trim();
+                switch (command.split(" ")[0])
+                {
+                    case "c": return Resume.CONTINUE;
+                    case "s": return Resume.STEP_INTO;
+                    case "n": return Resume.STEP_OVER;
+                    case "out": return Resume.STEP_OUT;
+                    case "p": out.println(pause.evaluate(argument)); break;
+                    case "w": watch(argument); out.println("  " + argument + " = " + pause.evaluate(argument)); break;
+                    case "bt": for (String frame : pause.stack()) out.println("  " + frame); break;
+                    case "b":
+                        try
+                        {
+                            breakAt(Integer.parseInt(argument));
+                        }
+                        catch (NumberFormatException e)
+                        {
+                            out.println("b needs a line number");
+                        }
+                        break;
+                    default: out.println("c, s, n, out, p <expr>, w <expr>, bt or b <line>");
+                }
+            }
+        };
+    }
+}
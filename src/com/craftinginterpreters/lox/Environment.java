@@ -1,40 +1,217 @@
 package com.craftinginterpreters.lox;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class Environment
 {
+    // Scopes the interpreter makes itself are HashMaps until another thread could see them.
+    // Spawned tasks share the globals (and whatever scope a closure captured) with the
+    // thread that spawned them, and ParallelRunner's helpers read the globals, so share()
+    // turns those into ConcurrentHashMaps before the other threads start, and every scope
+    // made after the first spawn in a Run is one from the start. A scope from before it
+    // that wasn't on hand to share switches, under its lock, before its first write after
+    // the spawn, so once a Run has spawned no HashMap of it is written again. Reads never
+    // lock and a write only locks its own bin, so tasks working on different names don't
+    // get in each other's way.
+    //
+    // ConcurrentHashMap can't hold null, so nil is stored as NIL in our maps; an embedder's
+    // own map gets plain nulls, and whole numbers as Doubles, since that is what the host
+    // reads back out of its Bindings. Numbers the host put there itself are read as Lox
+    // numbers, whatever Number type they are.
+    private static final Object NIL = new Object();
+    // What lookup returns for a name this scope doesn't have
+    private static final Object ABSENT = new Object();
+
+    // Everything one program's scopes have in common: its globals, the blocks under them
+    // and the modules it imports. A spawn in one script doesn't change how the daemon, the
+    // batch runner or an embedder runs any other.
+    static final class Run
+    {
+        // Set by the first spawn and never cleared
+        volatile boolean spawned;
+        // What the host gave the program to call, see Interpreter.host
+        volatile HostFunctions hostFunctions;
+
+        // What a name means past the outermost scope: a host function, a native, or null
+        Object function(String name)
+        {
+            HostFunctions host = hostFunctions;
+            Object function = host == null ? null : host.lookup(name);
+            return function != null ? function : Natives.lookup(name);
+        }
+    }
+
     final Environment enclosing;
+    final Run run;
+
     Environment(){
-        enclosing = null;
+        this(new Run());
     }
 
+    // Another top level in the same program, an imported module's
+    Environment(Run run){
+        this(run.spawned ? new ConcurrentHashMap<>(256) : new HashMap<>(256), null, run, true);
+    }
+
+    // Blocks rarely declare more than a couple of names, start them with a small table
     Environment(Environment enclosing){
-        this.enclosing = enclosing; 
+        this(enclosing.run.spawned ? new ConcurrentHashMap<>(2) : new HashMap<>(2), enclosing, enclosing.run, true);
     }
 
-    private final Map<String, Object> values = new HashMap<>();
+    // Lets an embedder back a scope with its own map (javax.script Bindings) without copying it.
+    Environment(Map<String, Object> values, Environment enclosing){
+        this(values, enclosing, enclosing == null ? new Run() : enclosing.run, false);
+    }
+
+    private Environment(Map<String, Object> values, Environment enclosing, Run run, boolean boxesNil){
+        this.values = values;
+        this.enclosing = enclosing;
+        this.run = run;
+        this.boxesNil = boxesNil;
+    }
+
+    // Only ever replaced by a ConcurrentHashMap copy, volatile so other threads move on to it
+    private volatile Map<String, Object> values;
+    // Ours, rather than an embedder's
+    private final boolean boxesNil;
+    // Top levels of imported modules, their variables are visible here as they are, not copied.
+    // Searched after this scope's own names, the latest import first.
+    private volatile List<Environment> imports;
+
+    // Makes this scope, the ones enclosing it and the modules they import safe to use from
+    // other threads. Called on the thread running them, before any other thread can reach them.
+    void share()
+    {
+        for (Environment scope = this; scope != null; scope = scope.enclosing)
+        {
+            scope.shareValues();
+            List<Environment> modules = scope.imports;
+            if (modules != null) for (Environment module : modules) module.share();
+        }
+    }
+
+    // spawn calls this on the scopes the new task starts out seeing
+    void spawning()
+    {
+        run.spawned = true;
+        share();
+    }
+
+    // Locked, so two threads switching the same scope can't each copy it and lose a write
+    private synchronized void shareValues()
+    {
+        // An embedder's map is the embedder's to make thread safe
+        if (boxesNil && !(values instanceof ConcurrentMap)) values = new ConcurrentHashMap<>(values);
+    }
+
+    synchronized void link(Environment module)
+    {
+        if (imports == null) imports = new CopyOnWriteArrayList<>();
+        if (!imports.contains(module)) imports.add(module);
+    }
+
+    // name's value in this scope alone, or ABSENT
+    private Object lookup(String name)
+    {
+        Object value = values.get(name);
+        // Only an embedder's map can hold a real null, ours would have NIL
+        if (value == null) return !boxesNil && values.containsKey(name) ? null : ABSENT;
+        if (boxesNil) return value == NIL ? null : value;
+        // and whatever the host put in it, an Integer say, which has to become a Lox number
+        return HostFunctions.toLox(value);
+    }
+
+    private void store(String name, Object value)
+    {
+        if (boxesNil)
+        {
+            if (run.spawned && !(values instanceof ConcurrentMap)) shareValues();
+            values.put(name, value == null ? NIL : value);
+        }
+        else values.put(name, value instanceof Long ? (Object) LoxNumbers.toDouble(value) : value);
+    }
+
+    // The imported module that defines name, or null
+    private Environment imported(String name)
+    {
+        List<Environment> modules = imports;
+        if (modules == null) return null;
+        for (int i = modules.size() - 1; i >= 0; i--)
+        {
+            if (modules.get(i).values.containsKey(name)) return modules.get(i);
+        }
+        return null;
+    }
 
     Object get (Token name)
     {
-        if(values.containsKey(name.lexeme))
-            return values.get(name.lexeme);
+        Object value = lookup(name.lexeme);
+        if (value != ABSENT) return value;
+
+        Environment module = imported(name.lexeme);
+        if (module != null) return module.read(name.lexeme);
 
         if (enclosing != null) return enclosing.get(name);
 
+        // Past the outermost scope, the last place a name can come from is a host or native function
+        Object function = run.function(name.lexeme);
+        if (function != null) return function;
+
         throw new RuntimeError(name,"Undefined variable '" + name.lexeme + "'." );
     }
 
+    // The scope that defines name, this one or an enclosing one, or null. It asks the
+    // enclosing scope rather than walking the chain itself, so a scope that overrides this
+    // (ParallelRunner's scratch) answers for the blocks inside it too.
+    Environment owner(String name)
+    {
+        if (values.containsKey(name)) return this;
+        Environment module = imported(name);
+        if (module != null) return module;
+        return enclosing == null ? null : enclosing.owner(name);
+    }
+
+    // name's value in this scope, for callers that found it with owner()
+    Object read(String name)
+    {
+        Object value = lookup(name);
+        return value == ABSENT ? null : value;
+    }
+
+    void write(String name, Object value)
+    {
+        store(name, value);
+    }
+
+    // A copy of every binding in this scope (not the enclosing ones), for Snapshot
+    Map<String, Object> values()
+    {
+        Map<String, Object> copy = new LinkedHashMap<>();
+        for (String name : values.keySet()) copy.put(name, read(name));
+        return copy;
+    }
+
     void define(String name, Object value)
     {
-        values.put(name,value);
+        store(name, value);
     }
 
     void assign(Token name, Object value)
     {
         if(values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
+            store(name.lexeme, value);
+            return;
+        }
+        // Writes go through to the module, every importer sees the new value
+        Environment module = imported(name.lexeme);
+        if (module != null) {
+            module.store(name.lexeme, value);
             return;
         }
         if (enclosing != null) {
@@ -0,0 +1,75 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintWriter;
+
+// The error state the book keeps in static fields on Lox, pulled out so every thread
+// (and every embedded engine call) can report into its own sink.
+class ErrorReporter
+{
+    private final PrintWriter err;
+    boolean hadError = false;
+    boolean hadRuntimeError = false;
+    // Running totals, JFR events report the difference across a phase
+    int syntaxErrors = 0;
+    int runtimeErrors = 0;
+
+    // The first error we saw, embedders turn this into an exception
+    String firstMessage = null;
+    int firstLine = -1;
+
+    ErrorReporter(PrintWriter err)
+    {
+        this.err = err;
+    }
+
+    void error(int line, String message)
+    {
+        report(line, "", message);
+    }
+
+    void error(Token token, String message)
+    {
+        if (token.type == TokenType.EOF)
+        {
+            report(token.line, "at end", message);
+        }
+        else
+        {
+            report(token.line, " at '" + token.lexeme + "'", message);
+        }
+    }
+
+    void runtimeError(RuntimeError error)
+    {
+        err.println(error.getMessage() + "\n[line " + error.token.line + "]");
+        err.flush();
+        record(error.token.line, error.getMessage());
+        hadRuntimeError = true;
+        runtimeErrors++;
+
+        LoxEvents.RuntimeErrorEvent event = new LoxEvents.RuntimeErrorEvent();
+        if (event.shouldCommit())
+        {
+            event.source = LoxEvents.source();
+            event.line = error.token.line;
+            event.message = error.getMessage();
+            event.commit();
+        }
+    }
+
+    private void report(int line, String where, String message)
+    {
+        err.println("[line" + line + "] Error" + where + ": " + message);
+        err.flush();
+        record(line, "Error" + where + ": " + message);
+        hadError = true;
+        syntaxErrors++;
+    }
+
+    private void record(int line, String message)
+    {
+        if (firstMessage != null) return;
+        firstMessage = message;
+        firstLine = line;
+    }
+}
@@ -6,18 +6,28 @@ abstract class Expr
 {
   interface Visitor<R>
     {
-        R visitAssignExpr(Assign expr);
-        R visitBinaryExpr(Binary expr);
-        R visitGroupingExpr(Grouping expr);
-        R visitLiteralExpr(Literal expr);
-        R visitUnaryExpr(Unary expr);
-        R visitVariableExpr(Variable expr);
+            R visitAssignExpr(Assign expr);
+            R visitBinaryExpr(Binary expr);
+            R visitCallExpr(Call expr);
+            R visitGroupingExpr(Grouping expr);
+            R visitIndexExpr(Index expr);
+            R visitListLiteralExpr(ListLiteral expr);
+            R visitLiteralExpr(Literal expr);
+            R visitSetIndexExpr(SetIndex expr);
+            R visitUnaryExpr(Unary expr);
+            R visitVariableExpr(Variable expr);
     }
 
+    // Source line of the node's own token: its keyword, name, operator or bracket
+    int line;
+
     static class Assign extends Expr
     {
         final Token name;
         final Expr value;
+        // Filled in after parsing
+        byte scope;
+        int slot;
 
         Assign(Token name, Expr value)
         {
@@ -52,6 +62,28 @@ abstract class Expr
         }
     }
 
+    static class Call extends Expr
+    {
+        final Expr callee;
+        final Token paren;
+        final List<Expr> arguments;
+        // Filled in after parsing
+        LoxCallable cached;
+
+        Call(Expr callee, Token paren, List<Expr> arguments)
+        {
+            this.callee = callee;
+            this.paren = paren;
+            this.arguments = arguments;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor)
+        {
+            return visitor.visitCallExpr(this);
+        }
+    }
+
     static class Grouping extends Expr
     {
         final Expr expression;
@@ -68,6 +100,44 @@ abstract class Expr
         }
     }
 
+    static class Index extends Expr
+    {
+        final Expr object;
+        final Token bracket;
+        final Expr index;
+
+        Index(Expr object, Token bracket, Expr index)
+        {
+            this.object = object;
+            this.bracket = bracket;
+            this.index = index;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor)
+        {
+            return visitor.visitIndexExpr(this);
+        }
+    }
+
+    static class ListLiteral extends Expr
+    {
+        final Token bracket;
+        final List<Expr> elements;
+
+        ListLiteral(Token bracket, List<Expr> elements)
+        {
+            this.bracket = bracket;
+            this.elements = elements;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor)
+        {
+            return visitor.visitListLiteralExpr(this);
+        }
+    }
+
     static class Literal extends Expr
     {
         final Object value;
@@ -84,6 +154,28 @@ abstract class Expr
         }
     }
 
+    static class SetIndex extends Expr
+    {
+        final Expr object;
+        final Token bracket;
+        final Expr index;
+        final Expr value;
+
+        SetIndex(Expr object, Token bracket, Expr index, Expr value)
+        {
+            this.object = object;
+            this.bracket = bracket;
+            this.index = index;
+            this.value = value;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor)
+        {
+            return visitor.visitSetIndexExpr(this);
+        }
+    }
+
     static class Unary extends Expr
     {
         final Token operator;
@@ -105,6 +197,9 @@ abstract class Expr
     static class Variable extends Expr
     {
         final Token name;
+        // Filled in after parsing
+        byte scope;
+        int slot;
 
         Variable(Token name)
         {
@@ -0,0 +1,322 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+Lets a host application expose its own Java code to Lox scripts.
+
+    HostFunctions functions = new HostFunctions();
+    functions.register("tax", Pricing.class.getMethod("tax", double.class, String.class));
+    functions.register("clamp", DoubleTernaryOperator.class, Math::clamp);
+    functions.register("lookup", MethodHandles.lookup().findStatic(...));
+    interpreter.host(functions);        // or engine.hostFunctions().register(...) for javax.script
+
+Whatever comes in ends up as a MethodHandle, and register() adapts it once: each parameter
+gets a filter that checks the Lox value and unboxes it to what the method takes, and the
+return value is turned back into a Lox value. The result always has the type
+(Object, ...)Object, so a call is one invokeExact with no reflection and no per-call type
+lookups. Call sites in the interpreter remember the last function they called, so after the
+first call they skip the callable and arity checks too.
+
+Parameter types:   double int long float (and their boxes)   a Lox number, int and long must be whole
+                   boolean Boolean                            true or false
+                   String                                     a Lox string
+                   Object                                     any Lox value as is
+Return types:      void is nil, any Java number becomes a Lox number, everything else is
+                   passed through (host objects can travel through a script untouched).
+
+A table only reaches the programs it was handed to, and the tasks they spawn. There a name
+is looked up after the script's own variables and before the built in natives, so a script
+can shadow a host function with its own var and a host function can stand in for a native.
+Registering a name again replaces the function, even while scripts are running. Like the
+natives they only ever see their arguments, never the caller's variables.
+ */
+public final class HostFunctions
+{
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    // Concurrent since a host can register functions while scripts are running
+    private final Map<String, HostFunction> functions = new ConcurrentHashMap<>();
+
+    public HostFunctions() {}
+
+    public void register(String name, MethodHandle handle)
+    {
+        functions.put(name, new HostFunction(name, adapt(name, handle)));
+    }
+
+    HostFunction lookup(String name)
+    {
+        return functions.get(name);
+    }
+
+    // A public static method
+    public void register(String name, Method method)
+    {
+        if (!Modifier.isStatic(method.getModifiers()))
+        {
+            throw new IllegalArgumentException(method + " is not static, bind it to an object with a lambda.");
+        }
+        try
+        {
+            register(name, MethodHandles.publicLookup().unreflect(method));
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new IllegalArgumentException(method + " is not public.", e);
+        }
+    }
+
+    // A lambda or method reference, through the single abstract method of a public interface
+    public <F> void register(String name, Class<F> functionalInterface, F function)
+    {
+        Method target = null;
+        for (Method method : functionalInterface.getMethods())
+        {
+            if (!Modifier.isAbstract(method.getModifiers())) continue;
+            if (target != null)
+            {
+                throw new IllegalArgumentException(functionalInterface + " has more than one abstract method.");
+            }
+            target = method;
+        }
+        if (target == null) throw new IllegalArgumentException(functionalInterface + " has no abstract method.");
+        try
+        {
+            register(name, MethodHandles.publicLookup().unreflect(target).bindTo(function));
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new IllegalArgumentException(functionalInterface + " is not public.", e);
+        }
+    }
+
+    // A function as Lox sees it. handle is always (Object, ...)Object with arity parameters.
+    static final class HostFunction implements LoxCallable
+    {
+        final String name;
+        final int arity;
+        private final MethodHandle handle;
+        private final MethodHandle spreader;
+
+        HostFunction(String name, MethodHandle handle)
+        {
+            this.name = name;
+            this.arity = handle.type().parameterCount();
+            this.handle = handle;
+            this.spreader = handle.asSpreader(Object[].class, arity);
+        }
+
+        @Override
+        public int arity()
+        {
+            return arity;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments)
+        {
+            switch (arity)
+            {
+                case 0: return invoke();
+                case 1: return invoke(arguments.get(0));
+                case 2: return invoke(arguments.get(0), arguments.get(1));
+                case 3: return invoke(arguments.get(0), arguments.get(1), arguments.get(2));
+            }
+            try
+            {
+                return (Object) spreader.invokeExact(arguments.toArray());
+            }
+            catch (Throwable t)
+            {
+                throw failure(t);
+            }
+        }
+
+        // Fixed arity entry points, so a call site can pass its arguments without a List
+
+        Object invoke()
+        {
+            try
+            {
+                return (Object) handle.invokeExact();
+            }
+            catch (Throwable t)
+            {
+                throw failure(t);
+            }
+        }
+
+        Object invoke(Object a)
+        {
+            try
+            {
+                return (Object) handle.invokeExact(a);
+            }
+            catch (Throwable t)
+            {
+                throw failure(t);
+            }
+        }
+
+        Object invoke(Object a, Object b)
+        {
+            try
+            {
+                return (Object) handle.invokeExact(a, b);
+            }
+            catch (Throwable t)
+            {
+                throw failure(t);
+            }
+        }
+
+        Object invoke(Object a, Object b, Object c)
+        {
+            try
+            {
+                return (Object) handle.invokeExact(a, b, c);
+            }
+            catch (Throwable t)
+            {
+                throw failure(t);
+            }
+        }
+
+        // Our own argument errors go through as they are, the host's exceptions get the
+        // function's name on them. Errors (stack overflow, out of memory) are not ours to wrap.
+        private RuntimeException failure(Throwable t)
+        {
+            if (t instanceof Natives.Failure) return (Natives.Failure) t;
+            if (t instanceof Error) throw (Error) t;
+            String message = t.getMessage() == null ? t.getClass().getSimpleName() : t.getMessage();
+            return new Natives.Failure(name + "() failed: " + message);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "<native fn " + name + ">";
+        }
+    }
+
+    static MethodHandle adapt(String name, MethodHandle target)
+    {
+        if (target.isVarargsCollector()) target = target.asFixedArity();
+        MethodType type = target.type();
+        if (type.parameterCount() > 255)
+        {
+            throw new IllegalArgumentException(name + " has more than 255 parameters.");
+        }
+
+        MethodHandle[] filters = new MethodHandle[type.parameterCount()];
+        for (int i = 0; i < filters.length; i++) filters[i] = parameter(name, i + 1, type.parameterType(i));
+        MethodHandle adapted = MethodHandles.filterArguments(target, 0, filters);
+        return result(adapted).asType(MethodType.genericMethodType(filters.length));
+    }
+
+    // (Object)T for a parameter of type T, or null when any Lox value will do
+    private static MethodHandle parameter(String name, int position, Class<?> type)
+    {
+        MethodHandle check;
+        if (type == Object.class) return null;
+        else if (type == double.class || type == Double.class || type == float.class) check = converter("number", double.class);
+        else if (type == int.class || type == Integer.class) check = converter("wholeInt", int.class);
+        else if (type == long.class || type == Long.class) check = converter("wholeLong", long.class);
+        else if (type == boolean.class || type == Boolean.class) check = converter("bool", boolean.class);
+        else if (type == String.class) check = converter("string", String.class);
+        else throw new IllegalArgumentException(name + " takes a " + type.getName() + ", which Lox has no value for.");
+
+        check = MethodHandles.insertArguments(check, 0, name, position);
+        // double to float narrows, which only explicitCastArguments does, the rest is boxing
+        return MethodHandles.explicitCastArguments(check, MethodType.methodType(type, Object.class));
+    }
+
+    private static MethodHandle converter(String method, Class<?> returns)
+    {
+        try
+        {
+            return LOOKUP.findStatic(HostFunctions.class, method,
+                    MethodType.methodType(returns, String.class, int.class, Object.class));
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static MethodHandle result(MethodHandle handle)
+    {
+        Class<?> type = handle.type().returnType();
+        // void comes back as null, which is nil
+        if (type == void.class || type == boolean.class || type == Boolean.class || type == String.class
+                || type == Double.class)
+        {
+            return handle;
+        }
+        // Every primitive number widens to double, and asType boxes that as a Double
+        if (type.isPrimitive() && type != char.class)
+        {
+            return handle.asType(handle.type().changeReturnType(double.class));
+        }
+        try
+        {
+            MethodHandle toLox = LOOKUP.findStatic(HostFunctions.class, "toLox",
+                    MethodType.methodType(Object.class, Object.class));
+            return MethodHandles.filterReturnValue(handle.asType(handle.type().changeReturnType(Object.class)), toLox);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static double number(String function, int position, Object value)
+    {
+        if (LoxNumbers.isNumber(value)) return LoxNumbers.toDouble(value);
+        throw new Natives.Failure(function + "() argument " + position + " must be a number.");
+    }
+
+    private static int wholeInt(String function, int position, Object value)
+    {
+        double number = number(function, position, value);
+        int whole = (int) number;
+        if (whole != number) throw new Natives.Failure(function + "() argument " + position + " must be a whole number.");
+        return whole;
+    }
+
+    private static long wholeLong(String function, int position, Object value)
+    {
+        double number = number(function, position, value);
+        long whole = (long) number;
+        if (whole != number) throw new Natives.Failure(function + "() argument " + position + " must be a whole number.");
+        return whole;
+    }
+
+    private static boolean bool(String function, int position, Object value)
+    {
+        if (value instanceof Boolean) return (Boolean) value;
+        throw new Natives.Failure(function + "() argument " + position + " must be true or false.");
+    }
+
+    private static String string(String function, int position, Object value)
+    {
+        if (value instanceof String) return (String) value;
+        throw new Natives.Failure(function + "() argument " + position + " must be a string.");
+    }
+
+    // Lox has Doubles where the host may have any Number, and Strings where it may have a char
+    static Object toLox(Object value)
+    {
+        if (value instanceof Number && !(value instanceof Double)) return ((Number) value).doubleValue();
+        if (value instanceof Character) return value.toString();
+        return value;
+    }
+}
@@ -0,0 +1,367 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+Interpreter that tools attach probes to: the Debugger, tracing, one-off log lines.
+
+A probe hears about execution entering and leaving what it is attached to, which is one of
+
+    a node         attach(node, probe), any Stmt or Expr
+    a line         attachLine(line, probe), every statement that starts on it
+    everything     attachStatements(probe), every statement
+
+Like ProfilingInterpreter this is a subclass on purpose. The plain Interpreter doesn't know
+probes exist, its evaluate/execute stay the same tiny methods and this class isn't even
+loaded until a host asks for it, so uninstrumented runs get the exact same code as before.
+In here a node nothing is attached to costs a couple of field reads before it runs as usual,
+and nothing at all is looked up while the registry is empty.
+
+Probes are kept in a Probes registry that forked interpreters share, so spawned tasks are
+instrumented as well, and attaching or detaching from another thread (a debugger front end)
+is fine at any time: the registry swaps whole arrays and readers never lock. Loops stay in
+the tree walker, compiled loops would run past evaluate and execute.
+
+While a probe runs, probes are off for that interpreter, so a tool can evaluate watch
+expressions or log values without setting off probes (its own included) on the way.
+ */
+class InstrumentedInterpreter extends Interpreter
+{
+    interface Probe
+    {
+        // Before node runs
+        default void enter(InstrumentedInterpreter interpreter, Object node, int line) {}
+
+        // After node ran, also when it failed. value is what an Expr evaluated to, null for a
+        // Stmt or after an error.
+        default void exit(InstrumentedInterpreter interpreter, Object node, int line, Object value) {}
+    }
+
+    private static final Probe[] NONE = new Probe[0];
+
+    // Where probes are attached. Arrays get replaced, never changed, so readers don't lock.
+    static final class Probes
+    {
+        private final Map<Object, Probe[]> nodes = new ConcurrentHashMap<>();
+        private volatile Probe[][] lines = new Probe[0][];
+        private volatile Probe[] statements = NONE;
+        // How many probes are attached at all, and how many of those to single nodes
+        private volatile int attached;
+        private volatile int attachedToNodes;
+
+        // Each attach returns what detaches it again
+        synchronized Runnable attach(Object node, Probe probe)
+        {
+            nodes.put(node, add(nodes.getOrDefault(node, NONE), probe));
+            attached++;
+            attachedToNodes++;
+            return () -> {
+                synchronized (this)
+                {
+                    Probe[] left = remove(nodes.getOrDefault(node, NONE), probe);
+                    if (left == null) return;
+                    if (left.length == 0) nodes.remove(node);
+                    else nodes.put(node, left);
+                    attached--;
+                    attachedToNodes--;
+                }
+            };
+        }
+
+        synchronized Runnable attachLine(int line, Probe probe)
+        {
+            Probe[][] grown = lines.length > line ? lines.clone() : Arrays.copyOf(lines, line + 1);
+            grown[line] = add(grown[line] == null ? NONE : grown[line], probe);
+            lines = grown;
+            attached++;
+            return () -> {
+                synchronized (this)
+                {
+                    Probe[] left = remove(lines[line], probe);
+                    if (left == null) return;
+                    Probe[][] shrunk = lines.clone();
+                    shrunk[line] = left;
+                    lines = shrunk;
+                    attached--;
+                }
+            };
+        }
+
+        synchronized Runnable attachStatements(Probe probe)
+        {
+            statements = add(statements, probe);
+            attached++;
+            return () -> {
+                synchronized (this)
+                {
+                    Probe[] left = remove(statements, probe);
+                    if (left == null) return;
+                    statements = left;
+                    attached--;
+                }
+            };
+        }
+
+        private Probe[] onLine(int line)
+        {
+            Probe[][] current = lines;
+            if (line >= current.length || current[line] == null) return NONE;
+            return current[line];
+        }
+
+        private Probe[] onNode(Object node)
+        {
+            if (attachedToNodes == 0) return NONE;
+            return nodes.getOrDefault(node, NONE);
+        }
+
+        private static Probe[] add(Probe[] probes, Probe probe)
+        {
+            Probe[] more = Arrays.copyOf(probes, probes.length + 1);
+            more[probes.length] = probe;
+            return more;
+        }
+
+        // probes without probe, null when it wasn't there (detached twice)
+        private static Probe[] remove(Probe[] probes, Probe probe)
+        {
+            if (probes == null) return null;
+            for (int i = 0; i < probes.length; i++)
+            {
+                if (probes[i] != probe) continue;
+                Probe[] fewer = new Probe[probes.length - 1];
+                System.arraycopy(probes, 0, fewer, 0, i);
+                System.arraycopy(probes, i + 1, fewer, i, fewer.length - i);
+                return fewer;
+            }
+            return null;
+        }
+    }
+
+    final Probes probes;
+    // Set while a probe runs, see above
+    private boolean muted;
+
+    InstrumentedInterpreter(Environment globals, PrintWriter out)
+    {
+        this(globals, out, new Probes());
+    }
+
+    InstrumentedInterpreter(Environment globals, PrintWriter out, Probes probes)
+    {
+        super(globals, out);
+        this.probes = probes;
+        osrThreshold = -1;
+        parallelism = 1;
+    }
+
+    @Override
+    void execute(Stmt stmt)
+    {
+        Probes registry = probes;
+        if (registry.attached == 0 || muted)
+        {
+            super.execute(stmt);
+            return;
+        }
+        Probe[] everywhere = registry.statements;
+        Probe[] line = registry.onLine(stmt.line);
+        Probe[] node = registry.onNode(stmt);
+        if (everywhere.length + line.length + node.length == 0)
+        {
+            super.execute(stmt);
+            return;
+        }
+
+        enter(everywhere, stmt, stmt.line);
+        enter(line, stmt, stmt.line);
+        enter(node, stmt, stmt.line);
+        try
+        {
+            super.execute(stmt);
+        }
+        finally
+        {
+            exit(node, stmt, stmt.line, null);
+            exit(line, stmt, stmt.line, null);
+            exit(everywhere, stmt, stmt.line, null);
+        }
+    }
+
+    @Override
+    Object evaluate(Expr expr)
+    {
+        Probes registry = probes;
+        if (registry.attachedToNodes == 0 || muted) return super.evaluate(expr);
+        Probe[] node = registry.onNode(expr);
+        if (node.length == 0) return super.evaluate(expr);
+
+        enter(node, expr, expr.line);
+        Object value = null;
+        try
+        {
+            value = super.evaluate(expr);
+            return value;
+        }
+        finally
+        {
+            exit(node, expr, expr.line, value);
+        }
+    }
+
+    private void enter(Probe[] attached, Object node, int line)
+    {
+        if (attached.length == 0) return;
+        muted = true;
+        try
+        {
+            for (Probe probe : attached) probe.enter(this, node, line);
+        }
+        finally
+        {
+            muted = false;
+        }
+    }
+
+    private void exit(Probe[] attached, Object node, int line, Object value)
+    {
+        if (attached.length == 0) return;
+        muted = true;
+        try
+        {
+            for (Probe probe : attached) probe.exit(this, node, line, value);
+        }
+        finally
+        {
+            muted = false;
+        }
+    }
+
+    // Tasks get their own interpreter, with the same probes
+    @Override
+    Interpreter fork()
+    {
+        InstrumentedInterpreter child = new InstrumentedInterpreter(globals, out(), probes);
+        child.directory = directory;
+        return child;
+    }
+
+    // What tools can look at while a probe runs
+
+    // How many Lox calls deep the program is, 0 in top level code
+    int depth()
+    {
+        int depth = 0;
+        for (CallFrame call = frame; call != null; call = call.caller) depth++;
+        return depth;
+    }
+
+    // The functions on the Lox stack, innermost first
+    List<String> stack()
+    {
+        List<String> names = new ArrayList<>();
+        for (CallFrame call = frame; call != null; call = call.caller)
+        {
+            names.add(call.function.declaration.name.lexeme);
+        }
+        names.add("<script>");
+        return names;
+    }
+
+    // Evaluates source, a Lox expression, where the program is now: the running function's
+    // locals and upvalues are in scope by name along with everything top level code sees. It
+    // reads the program, assigning to a local inside a function doesn't change the function's
+    // copy. Returns the value as print would show it, or what went wrong.
+    String inspect(String source)
+    {
+        StringWriter errors = new StringWriter();
+        ErrorReporter reporter = new ErrorReporter(new PrintWriter(errors));
+        ErrorReporter previous = Lox.setReporter(reporter);
+        List<Stmt> parsed;
+        try
+        {
+            parsed = Lox.parse(source + ";");
+        }
+        finally
+        {
+            Lox.setReporter(previous);
+        }
+        if (reporter.hadError || parsed.size() != 1 || !(parsed.get(0) instanceof Stmt.Expression))
+        {
+            return "error: not an expression";
+        }
+
+        boolean wasMuted = muted;
+        muted = true;
+        try
+        {
+            return stringify(evaluateIn(((Stmt.Expression) parsed.get(0)).expression, scope()));
+        }
+        catch (RuntimeError error)
+        {
+            return "error: " + error.getMessage();
+        }
+        finally
+        {
+            muted = wasMuted;
+        }
+    }
+
+    // The current scope with the running function's variables copied in by name. Each
+    // declaration has its own slot, so when a name is declared more than once the latest one
+    // that has a value wins.
+    private Environment scope()
+    {
+        Environment scope = new Environment(environment());
+        if (frame == null) return scope;
+        Resolver.Layout layout = frame.function.declaration.layout;
+        for (int i = 0; i < layout.upvalueNames.length; i++)
+        {
+            scope.define(layout.upvalueNames[i], frame.upvalues[i].value);
+        }
+        for (int slot = 0; slot < layout.names.length; slot++)
+        {
+            Object value = frame.locals[slot];
+            if (value instanceof CallFrame.Cell) value = ((CallFrame.Cell) value).value;
+            if (value != null || scope.owner(layout.names[slot]) != scope) scope.define(layout.names[slot], value);
+        }
+        return scope;
+    }
+
+    // Ready made probes
+
+    // Writes a line per statement as it starts: [line 3] PrintStmt
+    static Probe tracer(PrintWriter out)
+    {
+        return new Probe()
+        {
+            @Override
+            public void enter(InstrumentedInterpreter interpreter, Object node, int line)
+            {
+                out.println("[line " + line + "] " + node.getClass().getSimpleName()
+                        + (node instanceof Stmt ? "Stmt" : "Expr"));
+                out.flush();
+            }
+        };
+    }
+
+    // A log line added without touching the script: [line 3] total = 42
+    static Probe logger(String expression, PrintWriter out)
+    {
+        return new Probe()
+        {
+            @Override
+            public void enter(InstrumentedInterpreter interpreter, Object node, int line)
+            {
+                out.println("[line " + line + "] " + expression + " = " + interpreter.inspect(expression));
+                out.flush();
+            }
+        };
+    }
+}
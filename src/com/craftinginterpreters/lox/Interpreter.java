@@ -1,22 +1,116 @@
 package com.craftinginterpreters.lox;
 
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
 class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
 {
-    private Environment environment = new Environment();
+    final Environment globals;
+    private Environment environment;
+    // The Lox function running right now, null in top level code
+    CallFrame frame;
+    // Where print writes, System.out unless an embedder hands us something else
+    private final PrintWriter out;
+
+    // Back edges a loop takes in the tree walker before LoopCompiler takes over, -1 never.
+    // -Djlox.osr=n changes it for the whole process.
+    static final int OSR_THRESHOLD = Integer.getInteger("jlox.osr", 1000);
+    int osrThreshold = OSR_THRESHOLD;
+
+    // Threads executeAll may run top level statements on, see ParallelRunner. 1 runs them
+    // one after another; -Djlox.parallel=n changes it for the whole process.
+    static final int PARALLELISM = Integer.getInteger("jlox.parallel", 1);
+    int parallelism = PARALLELISM;
+
+    // Where import looks first: the directory of the script running now
+    Path directory = Paths.get("");
+    // Modules this interpreter has run, an embedder can share one between interpreters
+    ModuleCache.Instances modules = new ModuleCache.Instances();
+
+    // Counted in plain fields while running and handed to LoxMetrics once per executeAll
+    private long statementsExecuted;
+    private long environmentsAllocated;
+    private long outputCharacters;
+
+    Interpreter()
+    {
+        this(new Environment(), new PrintWriter(System.out, true));
+    }
+
+    Interpreter(Environment globals, PrintWriter out)
+    {
+        this.globals = globals;
+        this.environment = globals;
+        this.out = out;
+    }
 
     void interpret(List<Stmt> statements)
     {
+        LoxEvents.Execute event = new LoxEvents.Execute();
+        event.begin();
+        int runtimeErrors = 0;
         try
         {
-            for (Stmt statement: statements) {execute(statement);}
+            executeAll(statements);
         }
         catch(RuntimeError error)
         {
+            runtimeErrors++;
             Lox.runtimeError(error);
         }
 
+        if (event.shouldCommit())
+        {
+            event.source = LoxEvents.source();
+            event.statements = statements.size();
+            event.runtimeErrors = runtimeErrors;
+            event.commit();
+        }
+    }
+
+    // Same as interpret but lets the RuntimeError escape to the caller.
+    void executeAll(List<Stmt> statements)
+    {
+        long started = System.nanoTime();
+        try
+        {
+            if (parallelism > 1 && frame == null) ParallelRunner.run(this, statements);
+            else for (Stmt statement: statements) {execute(statement);}
+        }
+        catch (RuntimeError error)
+        {
+            LoxMetrics.INSTANCE.runtimeError(error);
+            throw error;
+        }
+        finally
+        {
+            flushMetrics(System.nanoTime() - started);
+        }
+    }
+
+    // Adds what an interpreter ParallelRunner ran a statement on counted to ours
+    void absorb(Interpreter worker)
+    {
+        statementsExecuted += worker.statementsExecuted;
+        environmentsAllocated += worker.environmentsAllocated;
+        outputCharacters += worker.outputCharacters;
+    }
+
+    private void flushMetrics(long nanos)
+    {
+        LoxMetrics metrics = LoxMetrics.INSTANCE;
+        metrics.scriptsExecuted.increment();
+        metrics.executeLatency.record(nanos);
+        metrics.statementsExecuted.add(statementsExecuted);
+        metrics.environmentAllocations.add(environmentsAllocated);
+        metrics.outputCharacters.add(outputCharacters);
+        statementsExecuted = 0;
+        environmentsAllocated = 0;
+        outputCharacters = 0;
     }
 
     @Override
@@ -28,38 +122,51 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
     @Override
     public Object visitUnaryExpr(Expr.Unary expr)
     {
-        Object right = evaluate(expr.right);
+        return unary(expr.operator, evaluate(expr.right));
+    }
 
-        return switch (expr.operator.type) {
+    // The operators themselves are static so LoopCompiler's nodes share the exact same
+    // semantics and error messages as the tree walker.
+    static Object unary(Token operator, Object right)
+    {
+        return switch (operator.type) {
             case BANG -> !isTruthy(right);
-            case MINUS -> -(double) right;
+            case MINUS -> right instanceof Long ? LoxNumbers.negate((Long) right) : -(double) right;
             default -> null;
         };
     }
 
     public Object visitVariableExpr(Expr.Variable expr) {
-        return environment.get(expr.name);
+        switch (expr.scope)
+        {
+            case Resolver.LOCAL: return frame.locals[expr.slot];
+            case Resolver.CELL: return ((CallFrame.Cell) frame.locals[expr.slot]).value;
+            case Resolver.UPVALUE: return frame.upvalues[expr.slot].value;
+            default: return environment.get(expr.name);
+        }
     }
 
-    private boolean isTruthy(Object object)
+    static boolean isTruthy(Object object)
     {
         if(object == null) return false;
         if(object instanceof Boolean) return (boolean) object;
         return true;
     }
 
-    private boolean isEqual(Object a, Object b)
+    static boolean isEqual(Object a, Object b)
     {
         if(a == null && b == null) return true;
         if(a == null) return false;
+        if (LoxNumbers.isNumber(a) && LoxNumbers.isNumber(b)) return LoxNumbers.equal(a, b);
 
         return a.equals(b);
     }
 
-    private String stringify(Object object)
+    static String stringify(Object object)
     {
         if(object == null) return "nil";
 
+        if (object instanceof Long) return LoxNumbers.stringify((Long) object);
         if(object instanceof Double)
         {
             String text = object.toString();
@@ -78,13 +185,16 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
         return evaluate(expr.expression);
     }
 
-    private Object evaluate(Expr expr)
+    // evaluate and execute are the only ways into a node, so tools like ProfilingInterpreter
+    // hook in by overriding them. Without a subclass loaded the JIT inlines them as before.
+    Object evaluate(Expr expr)
     {
         return expr.accept(this);
     }
 
-    private void execute(Stmt stmt)
+    void execute(Stmt stmt)
     {
+        statementsExecuted++;
         stmt.accept(this);
     }
 
@@ -105,6 +215,18 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
     @Override
     public Void visitBlockStmt(Stmt.Block stmt)
     {
+        if (frame != null)
+        {
+            // Inside a function every local already has a slot, so no Environment
+            CallFrame current = frame;
+            for (Stmt statement : stmt.statements)
+            {
+                execute(statement);
+                if (current.returning) break;
+            }
+            return null;
+        }
+        environmentsAllocated++;
         executeBlock(stmt.statements, new Environment(environment));
         return null;
     }
@@ -118,14 +240,208 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
         return null;
     }
 
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt)
+    {
+        // A function that captures itself needs its Cell before the closure is made
+        if (stmt.scope == Resolver.CELL) frame.locals[stmt.slot] = new CallFrame.Cell(null);
+
+        Resolver.Layout layout = stmt.layout;
+        CallFrame.Cell[] upvalues = new CallFrame.Cell[layout.upvalues.length];
+        for (int i = 0; i < upvalues.length; i++)
+        {
+            int source = layout.upvalues[i];
+            upvalues[i] = source >= 0 ? (CallFrame.Cell) frame.locals[source] : frame.upvalues[~source];
+        }
+        LoxFunction function = new LoxFunction(stmt, environment, upvalues);
+
+        switch (stmt.scope)
+        {
+            case Resolver.LOCAL: frame.locals[stmt.slot] = function; break;
+            case Resolver.CELL: ((CallFrame.Cell) frame.locals[stmt.slot]).value = function; break;
+            default: environment.define(stmt.name.lexeme, function);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt)
+    {
+        if (isTruthy(evaluate(stmt.condition))) execute(stmt.thenBranch);
+        else if (stmt.elseBranch != null) execute(stmt.elseBranch);
+        return null;
+    }
+
+    PrintWriter out()
+    {
+        return out;
+    }
+
+    // The scope top level and block code is running in, for tools looking at a paused program
+    Environment environment()
+    {
+        return environment;
+    }
+
+    // Evaluates expr the way top level code in scope would, then puts everything back. The
+    // debugger uses it for watch expressions, with the paused function's locals in scope.
+    Object evaluateIn(Expr expr, Environment scope)
+    {
+        Environment previous = environment;
+        CallFrame caller = frame;
+        try
+        {
+            environment = scope;
+            frame = null;
+            return evaluate(expr);
+        }
+        finally
+        {
+            environment = previous;
+            frame = caller;
+        }
+    }
+
+    // A new interpreter for a spawned task: same globals, output and settings, its own stack
+    Interpreter fork()
+    {
+        Interpreter child = new Interpreter(globals, out);
+        child.osrThreshold = osrThreshold;
+        child.directory = directory;
+        return child;
+    }
+
+    // Lets the program, its modules and its tasks call the host's functions
+    void host(HostFunctions functions)
+    {
+        globals.run.hostFunctions = functions;
+    }
+
+    // Called on a forked interpreter's thread once the task's function is done, however it ended
+    void finished()
+    {
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt)
+    {
+        environment.link(module(stmt));
+        return null;
+    }
+
+    // The module's top level, run the first time this interpreter imports it
+    private Environment module(Stmt.Import stmt)
+    {
+        String name = (String) stmt.path.literal;
+        Path file;
+        List<Stmt> statements;
+        try
+        {
+            file = ModuleCache.resolve(name, directory);
+            if (file == null) throw new RuntimeError(stmt.keyword, "Can't find module '" + name + "'.");
+
+            Environment loaded = modules.loaded.get(file);
+            if (loaded != null) return loaded;
+            int start = modules.importing.indexOf(file);
+            if (start >= 0)
+            {
+                StringBuilder cycle = new StringBuilder();
+                for (Path path : modules.importing.subList(start, modules.importing.size()))
+                {
+                    cycle.append(path.getFileName()).append(" -> ");
+                }
+                throw new RuntimeError(stmt.keyword, "Import cycle: " + cycle + file.getFileName() + ".");
+            }
+
+            statements = ModuleCache.load(file);
+            if (statements == null) throw new RuntimeError(stmt.keyword, "Module '" + name + "' has syntax errors.");
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeError(stmt.keyword, "Can't read module '" + name + "'.");
+        }
+
+        loading(file, statements);
+        Environment module = new Environment(globals.run);
+        environmentsAllocated++;
+        Environment previous = environment;
+        Path previousDirectory = directory;
+        modules.importing.add(file);
+        try
+        {
+            environment = module;
+            directory = file.getParent();
+            for (Stmt statement : statements) execute(statement);
+        }
+        finally
+        {
+            environment = previous;
+            directory = previousDirectory;
+            modules.importing.remove(modules.importing.size() - 1);
+        }
+        modules.loaded.put(file, module);
+        return module;
+    }
+
+    // Called before a module's top level runs, for subclasses that want to see its tree
+    void loading(Path file, List<Stmt> statements)
+    {
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt)
+    {
+        if (stmt.value instanceof Expr.Call)
+        {
+            // Tail call: hand the callee back to invoke instead of calling it from here
+            Expr.Call call = (Expr.Call) stmt.value;
+            Object callee = evaluate(call.callee);
+            tailCall(call.paren, callee, arguments(call));
+            return null;
+        }
+        returnValue(stmt.value == null ? null : evaluate(stmt.value));
+        return null;
+    }
+
+    void returnValue(Object value)
+    {
+        frame.value = value;
+        frame.returning = true;
+    }
+
+    void tailCall(Token paren, Object callee, List<Object> arguments)
+    {
+        if (callee instanceof LoxFunction)
+        {
+            checkCall(paren, callee, arguments);
+            frame.tailFunction = (LoxFunction) callee;
+            frame.tailArguments = arguments;
+            frame.returning = true;
+            return;
+        }
+        returnValue(call(paren, callee, arguments));
+    }
+
     @Override
     public Void visitPrintStmt(Stmt.Print stmt)
     {
-        Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        print(evaluate(stmt.expression));
         return null;
     }
 
+    void print(Object value)
+    {
+        String text = stringify(value);
+        outputCharacters += text.length() + 1;
+        out.println(text);
+    }
+
+    // Statements LoopCompiler ran, so the metrics still count them
+    void addStatements(long count)
+    {
+        statementsExecuted += count;
+    }
+
     @Override
     public Void visitVarStmt(Stmt.Var stmt)
     {
@@ -134,7 +450,47 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
         {
             value = evaluate(stmt.initializer);
         }
-        environment.define(stmt.name.lexeme, value);
+        switch (stmt.scope)
+        {
+            case Resolver.LOCAL: frame.locals[stmt.slot] = value; break;
+            // A new Cell each time, closures from an earlier pass keep the old one
+            case Resolver.CELL: frame.locals[stmt.slot] = new CallFrame.Cell(value); break;
+            default: environment.define(stmt.name.lexeme, value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt)
+    {
+        // Hot before, so straight into the compiled loop
+        if (stmt.compiled != null && osrThreshold >= 0)
+        {
+            stmt.compiled.run(this, environment);
+            return null;
+        }
+
+        while (isTruthy(evaluate(stmt.condition)))
+        {
+            execute(stmt.body);
+            if (frame != null && frame.returning) return null;
+
+            // Back edge. Once the loop is hot, compile it and run the rest of the iterations in
+            // the compiled tier, starting from this one's state (on-stack replacement). All the
+            // state is in our Environments, so nothing has to be translated on the way over.
+            if (osrThreshold >= 0 && ++stmt.backEdges > osrThreshold)
+            {
+                if (stmt.compiled == null) stmt.compiled = LoopCompiler.compile(stmt);
+                if (stmt.compiled == null)
+                {
+                    // Not something LoopCompiler handles, stop counting
+                    stmt.backEdges = Integer.MIN_VALUE;
+                    continue;
+                }
+                stmt.compiled.run(this, environment);
+                return null;
+            }
+        }
         return null;
     }
 
@@ -142,7 +498,13 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
     public Object visitAssignExpr(Expr.Assign expr)
     {
         Object value = evaluate(expr.value);
-        environment.assign(expr.name,value);
+        switch (expr.scope)
+        {
+            case Resolver.LOCAL: frame.locals[expr.slot] = value; break;
+            case Resolver.CELL: ((CallFrame.Cell) frame.locals[expr.slot]).value = value; break;
+            case Resolver.UPVALUE: frame.upvalues[expr.slot].value = value; break;
+            default: environment.assign(expr.name,value);
+        }
         return value;
     }
 
@@ -151,54 +513,279 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
     {
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
-        switch (expr.operator.type)
+        return binary(expr.operator, left, right);
+    }
+
+    static Object binary(Token operator, Object left, Object right)
+    {
+        // Two integers stay in long arithmetic, LoxNumbers hands back a double when they
+        // stop being exact
+        if (left instanceof Long && right instanceof Long)
+        {
+            long a = (Long) left;
+            long b = (Long) right;
+            switch (operator.type)
+            {
+                case GREATER: return a > b;
+                case GREATER_EQUAL: return a >= b;
+                case LESS: return a < b;
+                case LESS_EQUAL: return a <= b;
+                case BANG_EQUAL: return a != b;
+                case EQUAL_EQUAL: return a == b;
+                case MINUS: return LoxNumbers.subtract(a, b);
+                case PLUS: return LoxNumbers.add(a, b);
+                case SLASH: return (double) a / (double) b;
+                case STAR: return LoxNumbers.multiply(a, b);
+            }
+        }
+        switch (operator.type)
         {
             case GREATER:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left > (double)right;
+                checkNumberOperands(operator, left, right);
+                return LoxNumbers.toDouble(left) > LoxNumbers.toDouble(right);
             case GREATER_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left >= (double)right;
+                checkNumberOperands(operator, left, right);
+                return LoxNumbers.toDouble(left) >= LoxNumbers.toDouble(right);
             case LESS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left < (double)right;
+                checkNumberOperands(operator, left, right);
+                return LoxNumbers.toDouble(left) < LoxNumbers.toDouble(right);
             case LESS_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left <= (double)right;
+                checkNumberOperands(operator, left, right);
+                return LoxNumbers.toDouble(left) <= LoxNumbers.toDouble(right);
             case BANG_EQUAL:
                 return !isEqual(left,right);
             case EQUAL_EQUAL:
                 return isEqual(left,right);
             case MINUS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left - (double) right;
+                checkNumberOperands(operator, left, right);
+                return LoxNumbers.toDouble(left) - LoxNumbers.toDouble(right);
             case PLUS:
-                if (left instanceof Double && right instanceof Double)
+                if (LoxNumbers.isNumber(left) && LoxNumbers.isNumber(right))
                 {
-                    return (double)left + (double)right;
+                    return LoxNumbers.toDouble(left) + LoxNumbers.toDouble(right);
                 }
 
                 if (left instanceof String && right instanceof String)
                 {
                     return (String)left + (String)right;
                 }
-                throw new RuntimeError(expr.operator,
+                throw new RuntimeError(operator,
                         "Operands must be two numbers or two strings.");
             case SLASH:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left / (double) right;
+                checkNumberOperands(operator, left, right);
+                return LoxNumbers.toDouble(left) / LoxNumbers.toDouble(right);
             case STAR:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left * (double) right;
+                checkNumberOperands(operator, left, right);
+                return LoxNumbers.toDouble(left) * LoxNumbers.toDouble(right);
         }
         // Unreachable
         return null;
     }
 
+    @Override
+    public Object visitCallExpr(Expr.Call expr)
+    {
+        Object callee = evaluate(expr.callee);
+        if (expr.cached == null || callee != expr.cached)
+        {
+            List<Object> arguments = arguments(expr);
+            LoxCallable function = checkCall(expr.paren, callee, arguments);
+            expr.cached = function;
+            return invokeChecked(expr.paren, function, arguments);
+        }
+        // Same function as last time here, so it is callable and takes this many arguments
+        if (callee instanceof HostFunctions.HostFunction) return callHost(expr, (HostFunctions.HostFunction) callee);
+        return invokeChecked(expr.paren, (LoxCallable) callee, arguments(expr));
+    }
+
+    // Straight into the adapted MethodHandle, without building an argument List
+    private Object callHost(Expr.Call expr, HostFunctions.HostFunction function)
+    {
+        List<Expr> arguments = expr.arguments;
+        try
+        {
+            switch (function.arity)
+            {
+                case 0:
+                    return function.invoke();
+                case 1:
+                    return function.invoke(evaluate(arguments.get(0)));
+                case 2:
+                {
+                    Object a = evaluate(arguments.get(0));
+                    return function.invoke(a, evaluate(arguments.get(1)));
+                }
+                case 3:
+                {
+                    Object a = evaluate(arguments.get(0));
+                    Object b = evaluate(arguments.get(1));
+                    return function.invoke(a, b, evaluate(arguments.get(2)));
+                }
+                default:
+                    return function.call(this, arguments(expr));
+            }
+        }
+        catch (Natives.Failure failure)
+        {
+            throw new RuntimeError(expr.paren, failure.getMessage());
+        }
+    }
+
+    private List<Object> arguments(Expr.Call expr)
+    {
+        List<Object> arguments = new ArrayList<>(expr.arguments.size());
+        for (Expr argument : expr.arguments) arguments.add(evaluate(argument));
+        return arguments;
+    }
+
+    Object call(Token paren, Object callee, List<Object> arguments)
+    {
+        return invokeChecked(paren, checkCall(paren, callee, arguments), arguments);
+    }
+
+    private Object invokeChecked(Token paren, LoxCallable function, List<Object> arguments)
+    {
+        try
+        {
+            // Straight to invoke, one Java frame less per Lox call
+            if (function instanceof LoxFunction) return invoke((LoxFunction) function, arguments);
+            return function.call(this, arguments);
+        }
+        catch (Natives.Failure failure)
+        {
+            throw new RuntimeError(paren, failure.getMessage());
+        }
+        catch (StackOverflowError overflow)
+        {
+            // Only non-tail recursion gets here. The innermost call turns it into a Lox error
+            // and the ones above just let the RuntimeError through.
+            throw new RuntimeError(paren, "Stack overflow.");
+        }
+    }
+
+    private static LoxCallable checkCall(Token paren, Object callee, List<Object> arguments)
+    {
+        if (!(callee instanceof LoxCallable))
+        {
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+        }
+        LoxCallable function = (LoxCallable) callee;
+        if (arguments.size() != function.arity())
+        {
+            throw new RuntimeError(paren, "Expected " + function.arity()
+                    + " arguments but got " + arguments.size() + ".");
+        }
+        return function;
+    }
+
+    // Runs a Lox function, and then every function it tail calls, in this one Java frame
+    Object invoke(LoxFunction function, List<Object> arguments)
+    {
+        CallFrame caller = frame;
+        Environment previous = environment;
+        try
+        {
+            while (true)
+            {
+                CallFrame callee = new CallFrame(function, arguments, caller);
+                frame = callee;
+                environment = function.closure;
+                for (Stmt statement : function.declaration.body)
+                {
+                    execute(statement);
+                    if (callee.returning) break;
+                }
+                if (callee.tailFunction == null) return callee.value;
+                function = callee.tailFunction;
+                arguments = callee.tailArguments;
+            }
+        }
+        finally
+        {
+            frame = caller;
+            environment = previous;
+        }
+    }
+
+    @Override
+    public Object visitListLiteralExpr(Expr.ListLiteral expr)
+    {
+        LoxList list = new LoxList(expr.elements.size());
+        for (Expr element : expr.elements) list.append(evaluate(element));
+        return list;
+    }
+
+    @Override
+    public Object visitIndexExpr(Expr.Index expr)
+    {
+        Object object = evaluate(expr.object);
+        Object index = evaluate(expr.index);
+        return index(expr.bracket, object, index);
+    }
+
+    static Object index(Token bracket, Object object, Object index)
+    {
+        if (object instanceof LoxList)
+        {
+            LoxList list = (LoxList) object;
+            return list.get(checkIndex(bracket, list, index));
+        }
+        if (object instanceof LoxMap)
+        {
+            // A missing key reads as nil, has() tells the two apart
+            return ((LoxMap) object).get(checkKey(bracket, index));
+        }
+        throw new RuntimeError(bracket, "Only lists and maps can be indexed.");
+    }
+
+    @Override
+    public Object visitSetIndexExpr(Expr.SetIndex expr)
+    {
+        Object object = evaluate(expr.object);
+        Object index = evaluate(expr.index);
+        Object value = evaluate(expr.value);
+        setIndex(expr.bracket, object, index, value);
+        return value;
+    }
+
+    static void setIndex(Token bracket, Object object, Object index, Object value)
+    {
+        if (object instanceof LoxList)
+        {
+            LoxList list = (LoxList) object;
+            list.set(checkIndex(bracket, list, index), value);
+            return;
+        }
+        if (object instanceof LoxMap)
+        {
+            ((LoxMap) object).put(checkKey(bracket, index), value);
+            return;
+        }
+        throw new RuntimeError(bracket, "Only lists and maps can be indexed.");
+    }
+
+    private static Object checkKey(Token bracket, Object key)
+    {
+        if (LoxNumbers.isNumber(key) || key instanceof String) return key;
+        throw new RuntimeError(bracket, "Map keys must be numbers or strings.");
+    }
+
+    private static int checkIndex(Token bracket, LoxList list, Object index)
+    {
+        if (!LoxNumbers.isNumber(index)) throw new RuntimeError(bracket, "List index must be a number.");
+        double value = LoxNumbers.toDouble(index);
+        int position = (int) value;
+        if (position != value) throw new RuntimeError(bracket, "List index must be a whole number.");
+        if (position < 0 || position >= list.size())
+        {
+            throw new RuntimeError(bracket, "List index " + stringify(index) + " is out of range.");
+        }
+        return position;
+    }
 
-    private void checkNumberOperands(Token operator,
+    private static void checkNumberOperands(Token operator,
                                      Object left, Object right) {
-        if (left instanceof Double && right instanceof Double) return;
+        if (LoxNumbers.isNumber(left) && LoxNumbers.isNumber(right)) return;
 
         throw new RuntimeError(operator, "Operands must be numbers.");
     }
@@ -0,0 +1,1196 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+The second tier for hot loops.
+
+Interpreter.visitWhileStmt counts back edges, and once a loop passes the threshold it hands
+the loop to compile() and keeps running it through the result, from the iteration it was on.
+The compiled loop is a tree of small node objects ("closure compilation") with three things
+the tree walker does not have:
+
+    Resolved slots      Variables declared inside the loop live in an Object[] indexed by a
+                        slot number worked out at compile time, instead of a HashMap per
+                        block per iteration. Variables from outside the loop are looked up
+                        once per entry; when nothing in the loop can see the Environments
+                        (only natives are called, and the program hasn't spawned a task)
+                        they are copied into slots on the way in and written back on the
+                        way out.
+
+    Specialized math    Arithmetic and comparison nodes assume numbers and pass them around
+                        as raw doubles through evalNumber(), so (a + b) * c boxes once.
+
+    Fallback            When a value turns out not to be a number the node catches the
+                        Mismatch, finishes that operation through Interpreter.binary with the
+                        values it already has, and stays generic from then on. Nothing is
+                        evaluated twice, so side effects and errors match the tree walker.
+
+Inside a function the Resolver has already given every variable a CallFrame slot, and the
+compiled nodes use those directly. A return stops the loop the same way it stops the tree
+walker, through the CallFrame's returning flag.
+
+Errors come from the same Interpreter helpers with the same tokens, so a program cannot tell
+which tier ran it apart from the speed. The compiled loop is cached on the While node and
+shared by every Interpreter running that tree; all per-run state is in Frame.
+ */
+final class LoopCompiler
+{
+    // Marks a slot for a name that no scope defined when the loop was entered
+    private static final Object UNDEFINED = new Object();
+
+    // Null when the loop has something this tier does not do
+    static Loop compile(Stmt.While loop)
+    {
+        LoxEvents.LoopCompile event = new LoxEvents.LoopCompile();
+        event.begin();
+
+        LoopCompiler compiler = new LoopCompiler();
+        Loop compiled;
+        try
+        {
+            Node condition = compiler.expr(loop.condition);
+            Statement body = compiler.stmt(loop.body);
+            compiled = new Loop(compiler, condition, body);
+        }
+        catch (Unsupported unsupported)
+        {
+            return null;
+        }
+
+        if (event.shouldCommit())
+        {
+            event.source = LoxEvents.source();
+            event.line = loop.line;
+            event.backEdges = loop.backEdges;
+            event.locals = compiled.locals;
+            event.outerVariables = compiled.outer.length;
+            event.commit();
+        }
+        return compiled;
+    }
+
+    // Per entry state: the slots and where the outside variables came from
+    static final class Frame
+    {
+        final Interpreter interpreter;
+        final Environment entry;
+        // The function the loop is in, null at top level
+        final CallFrame call;
+        final Object[] slots;
+        final Environment[] owners;
+        final int outerBase;
+        final boolean promoted;
+        long statements;
+
+        Frame(Interpreter interpreter, Environment entry, Loop loop)
+        {
+            this.interpreter = interpreter;
+            this.entry = entry;
+            this.call = interpreter.frame;
+            this.slots = new Object[loop.locals + loop.outer.length];
+            this.owners = new Environment[loop.outer.length];
+            this.outerBase = loop.locals;
+
+            // Once a task runs, a slot would hide its writes (while (!done) {} would never end)
+            boolean promoted = loop.promotable && !entry.run.spawned;
+            for (int i = 0; i < loop.outer.length; i++)
+            {
+                String name = loop.outer[i].lexeme;
+                Environment owner = entry.owner(name);
+                owners[i] = owner;
+                if (owner != null)
+                {
+                    slots[outerBase + i] = owner.read(name);
+                }
+                else
+                {
+                    Object function = entry.run.function(name);
+                    slots[outerBase + i] = function != null ? function : UNDEFINED;
+                }
+            }
+            // Every callee has to be a native right now for the slots to be safe
+            for (int callee : loop.callees)
+            {
+                if (!Natives.isNative(slots[outerBase + callee])) promoted = false;
+            }
+            this.promoted = promoted;
+        }
+
+        boolean returning()
+        {
+            return call != null && call.returning;
+        }
+
+        Object read(int outer, Token name)
+        {
+            Environment owner = owners[outer];
+            if (owner != null && !promoted) return owner.read(name.lexeme);
+            Object value = slots[outerBase + outer];
+            // Let the Environment throw the usual "Undefined variable" error
+            return value == UNDEFINED ? entry.get(name) : value;
+        }
+
+        void write(int outer, Token name, Object value)
+        {
+            Environment owner = owners[outer];
+            if (owner == null) entry.assign(name, value);
+            else if (promoted) slots[outerBase + outer] = value;
+            else owner.write(name.lexeme, value);
+        }
+    }
+
+    static final class Loop
+    {
+        final Node condition;
+        final Statement body;
+        final int locals;
+        final Token[] outer;
+        // Outer variables the loop assigns, only these need writing back
+        final int[] written;
+        // Outer variables that are called, they decide whether promotion is safe
+        final int[] callees;
+        // False when something other than a plain outer variable is called
+        final boolean promotable;
+
+        Loop(LoopCompiler compiler, Node condition, Statement body)
+        {
+            this.condition = condition;
+            this.body = body;
+            this.locals = compiler.slots;
+            this.outer = compiler.outer.values().toArray(new Token[0]);
+            this.written = compiler.written.stream().mapToInt(Integer::intValue).distinct().toArray();
+            this.callees = compiler.callees.stream().mapToInt(Integer::intValue).distinct().toArray();
+            boolean promotable = compiler.promotable;
+            for (int callee : callees)
+            {
+                for (int index : written) if (index == callee) promotable = false;
+            }
+            this.promotable = promotable;
+        }
+
+        void run(Interpreter interpreter, Environment environment)
+        {
+            Frame frame = new Frame(interpreter, environment, this);
+            try
+            {
+                while (condition.evalCondition(frame))
+                {
+                    body.exec(frame);
+                    if (frame.returning()) break;
+                }
+            }
+            finally
+            {
+                if (frame.promoted)
+                {
+                    for (int i : written)
+                    {
+                        Environment owner = frame.owners[i];
+                        if (owner != null) owner.write(outer[i].lexeme, frame.slots[frame.outerBase + i]);
+                    }
+                }
+                interpreter.addStatements(frame.statements);
+            }
+        }
+    }
+
+    // Compile time state
+    private final List<Map<String, Integer>> scopes = new ArrayList<>();
+    private int slots = 0;
+    private final Map<String, Token> outer = new LinkedHashMap<>();
+    private final Map<String, Integer> outerIndex = new HashMap<>();
+    private final List<Integer> written = new ArrayList<>();
+    private final List<Integer> callees = new ArrayList<>();
+    private boolean promotable = true;
+
+    private LoopCompiler() {}
+
+    private Integer local(String name)
+    {
+        for (int i = scopes.size() - 1; i >= 0; i--)
+        {
+            Integer slot = scopes.get(i).get(name);
+            if (slot != null) return slot;
+        }
+        return null;
+    }
+
+    private int outer(Token name)
+    {
+        Integer index = outerIndex.get(name.lexeme);
+        if (index != null) return index;
+        outer.put(name.lexeme, name);
+        outerIndex.put(name.lexeme, outerIndex.size());
+        return outerIndex.size() - 1;
+    }
+
+    private Statement stmt(Stmt stmt)
+    {
+        if (stmt instanceof Stmt.Expression)
+        {
+            return new ExpressionStatement(expr(((Stmt.Expression) stmt).expression));
+        }
+        if (stmt instanceof Stmt.Print)
+        {
+            return new PrintStatement(expr(((Stmt.Print) stmt).expression));
+        }
+        if (stmt instanceof Stmt.Var)
+        {
+            Stmt.Var var = (Stmt.Var) stmt;
+            // The initializer sees the outer name, same as the tree walker
+            Node initializer = var.initializer == null ? null : expr(var.initializer);
+            if (var.scope != Resolver.ENVIRONMENT) return new FrameVarStatement(var.scope, var.slot, initializer);
+            if (scopes.isEmpty())
+            {
+                // A var straight in the loop body (not in a block) defines in the enclosing scope,
+                // the tree walker never lets that parse, but stay correct if it ever does
+                return new OuterVarStatement(outer(var.name), var.name, initializer);
+            }
+            int slot = slots++;
+            scopes.get(scopes.size() - 1).put(var.name.lexeme, slot);
+            return new LocalVarStatement(slot, initializer);
+        }
+        if (stmt instanceof Stmt.Block)
+        {
+            scopes.add(new HashMap<>());
+            List<Stmt> statements = ((Stmt.Block) stmt).statements;
+            Statement[] compiled = new Statement[statements.size()];
+            for (int i = 0; i < compiled.length; i++) compiled[i] = stmt(statements.get(i));
+            scopes.remove(scopes.size() - 1);
+            return new BlockStatement(compiled);
+        }
+        if (stmt instanceof Stmt.While)
+        {
+            Stmt.While loop = (Stmt.While) stmt;
+            return new WhileStatement(expr(loop.condition), stmt(loop.body));
+        }
+        if (stmt instanceof Stmt.If)
+        {
+            Stmt.If branch = (Stmt.If) stmt;
+            return new IfStatement(expr(branch.condition), stmt(branch.thenBranch),
+                    branch.elseBranch == null ? null : stmt(branch.elseBranch));
+        }
+        if (stmt instanceof Stmt.Return)
+        {
+            Expr value = ((Stmt.Return) stmt).value;
+            if (value instanceof Expr.Call)
+            {
+                Expr.Call call = (Expr.Call) value;
+                return new TailCallStatement(call.paren, expr(call.callee), arguments(call));
+            }
+            return new ReturnStatement(value == null ? null : expr(value));
+        }
+        if (stmt instanceof Stmt.Function && ((Stmt.Function) stmt).scope != Resolver.ENVIRONMENT)
+        {
+            // Closures capture CallFrame slots, which the interpreter's own visitor handles fine.
+            // At top level they would need our loop slots as an Environment, so no.
+            return new InterpretedStatement(stmt);
+        }
+        throw new Unsupported();
+    }
+
+    private Node expr(Expr expr)
+    {
+        if (expr instanceof Expr.Literal)
+        {
+            Object value = ((Expr.Literal) expr).value;
+            return LoxNumbers.isNumber(value) ? new NumberConstant(value) : new Constant(value);
+        }
+        if (expr instanceof Expr.Grouping)
+        {
+            return expr(((Expr.Grouping) expr).expression);
+        }
+        if (expr instanceof Expr.Variable)
+        {
+            Expr.Variable variable = (Expr.Variable) expr;
+            if (variable.scope != Resolver.ENVIRONMENT) return new FrameGet(variable.scope, variable.slot);
+            Token name = variable.name;
+            Integer slot = local(name.lexeme);
+            return slot != null ? new LocalGet(slot) : new OuterGet(outer(name), name);
+        }
+        if (expr instanceof Expr.Assign)
+        {
+            Expr.Assign assign = (Expr.Assign) expr;
+            Node value = expr(assign.value);
+            if (assign.scope != Resolver.ENVIRONMENT) return new FrameSet(assign.scope, assign.slot, value);
+            Integer slot = local(assign.name.lexeme);
+            if (slot != null) return new LocalSet(slot, value);
+            int index = outer(assign.name);
+            written.add(index);
+            return new OuterSet(index, assign.name, value);
+        }
+        if (expr instanceof Expr.Unary)
+        {
+            Expr.Unary unary = (Expr.Unary) expr;
+            Node right = expr(unary.right);
+            return unary.operator.type == TokenType.MINUS
+                    ? new Negate(unary.operator, right)
+                    : new Not(right);
+        }
+        if (expr instanceof Expr.Binary)
+        {
+            Expr.Binary binary = (Expr.Binary) expr;
+            Node left = expr(binary.left);
+            Node right = expr(binary.right);
+            switch (binary.operator.type)
+            {
+                case PLUS:
+                case MINUS:
+                case STAR:
+                case SLASH:
+                    return new Arithmetic(binary.operator, left, right);
+                case LESS:
+                case LESS_EQUAL:
+                case GREATER:
+                case GREATER_EQUAL:
+                    return new Comparison(binary.operator, left, right);
+                default:
+                    return new GenericBinary(binary.operator, left, right);
+            }
+        }
+        if (expr instanceof Expr.Call)
+        {
+            Expr.Call call = (Expr.Call) expr;
+            Node callee = expr(call.callee);
+            return new Call(call.paren, callee, arguments(call));
+        }
+        if (expr instanceof Expr.ListLiteral)
+        {
+            List<Expr> elements = ((Expr.ListLiteral) expr).elements;
+            Node[] compiled = new Node[elements.size()];
+            for (int i = 0; i < compiled.length; i++) compiled[i] = expr(elements.get(i));
+            return new ListLiteral(compiled);
+        }
+        if (expr instanceof Expr.Index)
+        {
+            Expr.Index index = (Expr.Index) expr;
+            return new Index(index.bracket, expr(index.object), expr(index.index));
+        }
+        if (expr instanceof Expr.SetIndex)
+        {
+            Expr.SetIndex set = (Expr.SetIndex) expr;
+            return new SetIndex(set.bracket, expr(set.object), expr(set.index), expr(set.value));
+        }
+        throw new Unsupported();
+    }
+
+    private Node[] arguments(Expr.Call call)
+    {
+        // Only a native can be called while outer variables sit in slots, and only a name
+        // from outside the loop that the loop never assigns can be checked for that on entry
+        if (call.callee instanceof Expr.Variable
+                && ((Expr.Variable) call.callee).scope == Resolver.ENVIRONMENT
+                && local(((Expr.Variable) call.callee).name.lexeme) == null)
+        {
+            callees.add(outer(((Expr.Variable) call.callee).name));
+        }
+        else
+        {
+            promotable = false;
+        }
+        Node[] arguments = new Node[call.arguments.size()];
+        for (int i = 0; i < arguments.length; i++) arguments[i] = expr(call.arguments.get(i));
+        return arguments;
+    }
+
+    // Something in the loop only the tree walker runs
+    private static final class Unsupported extends RuntimeException
+    {
+        Unsupported()
+        {
+            super(null, null, false, false);
+        }
+    }
+
+    // Thrown by evalNumber when the value is not a number. Carries the value so the caller can
+    // finish generically without evaluating anything again.
+    static final class Mismatch extends RuntimeException
+    {
+        final Object value;
+
+        Mismatch(Object value)
+        {
+            super(null, null, false, false);
+            this.value = value;
+        }
+    }
+
+    abstract static class Node
+    {
+        abstract Object eval(Frame frame);
+
+        double evalNumber(Frame frame)
+        {
+            Object value = eval(frame);
+            if (LoxNumbers.isNumber(value)) return LoxNumbers.toDouble(value);
+            throw new Mismatch(value);
+        }
+
+        boolean evalCondition(Frame frame)
+        {
+            return Interpreter.isTruthy(eval(frame));
+        }
+    }
+
+    abstract static class Statement
+    {
+        abstract void exec(Frame frame);
+    }
+
+    static final class Constant extends Node
+    {
+        private final Object value;
+
+        Constant(Object value)
+        {
+            this.value = value;
+        }
+
+        @Override
+        Object eval(Frame frame)
+        {
+            return value;
+        }
+    }
+
+    static final class NumberConstant extends Node
+    {
+        private final double number;
+        // The literal as the tree walker would produce it, a Long for whole numbers
+        private final Object boxed;
+
+        NumberConstant(Object value)
+        {
+            this.number = LoxNumbers.toDouble(value);
+            this.boxed = value;
+        }
+
+        @Override
+        Object eval(Frame frame)
+        {
+            return boxed;
+        }
+
+        @Override
+        double evalNumber(Frame frame)
+        {
+            return number;
+        }
+    }
+
+    static final class LocalGet extends Node
+    {
+        private final int slot;
+
+        LocalGet(int slot)
+        {
+            this.slot = slot;
+        }
+
+        @Override
+        Object eval(Frame frame)
+        {
+            return frame.slots[slot];
+        }
+    }
+
+    static final class LocalSet extends Node
+    {
+        private final int slot;
+        private final Node value;
+
+        LocalSet(int slot, Node value)
+        {
+            this.slot = slot;
+            this.value = value;
+        }
+
+        @Override
+        Object eval(Frame frame)
+        {
+            Object result = value.eval(frame);
+            frame.slots[slot] = result;
+            return result;
+        }
+    }
+
+    static final class OuterGet extends Node
+    {
+        private final int index;
+        private final Token name;
+
+        OuterGet(int index, Token name)
+        {
+            this.index = index;
+            this.name = name;
+        }
+
+        @Override
+        Object eval(Frame frame)
+        {
+            return frame.read(index, name);
+        }
+    }
+
+    static final class OuterSet extends Node
+    {
+        private final int index;
+        private final Token name;
+        private final Node value;
+
+        OuterSet(int index, Token name, Node value)
+        {
+            this.index = index;
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        Object eval(Frame frame)
+        {
+            Object result = value.eval(frame);
+            frame.write(index, name, result);
+            return result;
+        }
+    }
+
+    static final class Not extends Node
+    {
+        private final Node right;
+
+        Not(Node right)
+        {
+            this.right = right;
+        }
+
+        @Override
+        Object eval(Frame frame)
+        {
+            return !right.evalCondition(frame);
+        }
+
+        @Override
+        boolean evalCondition(Frame frame)
+        {
+            return !right.evalCondition(frame);
+        }
+    }
+
+    static final class Negate extends Node
+    {
+        private final Token operator;
+        private final Node right;
+        private boolean generic;
+
+        Negate(Token operator, Node right)
+        {
+            this.operator = operator;
+            this.right = right;
+        }
+
+        @Override
+        Object eval(Frame frame)
+        {
+            if (generic) return Interpreter.unary(operator, right.eval(frame));
+            return evalNumber(frame);
+        }
+
+        @Override
+        double evalNumber(Frame frame)
+        {
+            if (!generic)
+            {
+                try
+                {
+                    return -right.evalNumber(frame);
+                }
+                catch (Mismatch mismatch)
+                {
+                    generic = true;
+                    return number(Interpreter.unary(operator, mismatch.value));
+                }
+            }
+            return number(Interpreter.unary(operator, right.eval(frame)));
+        }
+    }
+
+    // Unary minus is the one operator whose result can fail to be a number, and only by throwing
+    private static double number(Object value)
+    {
+        if (LoxNumbers.isNumber(value)) return LoxNumbers.toDouble(value);
+        throw new Mismatch(value);
+    }
+
+    // + - * / on numbers until they see something else
+    static final class Arithmetic extends Node
+    {
+        private final Token operator;
+        private final TokenType type;
+        private final Node left;
+        private final Node right;
+        private boolean generic;
+
+        Arithmetic(Token operator, Node left, Node right)
+        {
+            this.operator = operator;
+            this.type = operator.type;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object eval(Frame frame)
+        {
+            if (generic) return Interpreter.binary(operator, left.eval(frame), right.eval(frame));
+
+            double a;
+            try
+            {
+                a = left.evalNumber(frame);
+            }
+            catch (Mismatch mismatch)
+            {
+                generic = true;
+                return Interpreter.binary(operator, mismatch.value, right.eval(frame));
+            }
+            double b;
+            try
+            {
+                b = right.evalNumber(frame);
+            }
+            catch (Mismatch mismatch)
+            {
+                generic = true;
+                return Interpreter.binary(operator, a, mismatch.value);
+            }
+            return compute(a, b);
+        }
+
+        @Override
+        double evalNumber(Frame frame)
+        {
+            if (generic) return number(Interpreter.binary(operator, left.eval(frame), right.eval(frame)));
+
+            double a;
+            try
+            {
+                a = left.evalNumber(frame);
+            }
+            catch (Mismatch mismatch)
+            {
+                generic = true;
+                return number(Interpreter.binary(operator, mismatch.value, right.eval(frame)));
+            }
+            double b;
+            try
+            {
+                b = right.evalNumber(frame);
+            }
+            catch (Mismatch mismatch)
+            {
+                generic = true;
+                return number(Interpreter.binary(operator, a, mismatch.value));
+            }
+            return compute(a, b);
+        }
+
+        private double compute(double a, double b)
+        {
+            switch (type)
+            {
+                case PLUS: return a + b;
+                case MINUS: return a - b;
+                case STAR: return a * b;
+                default: return a / b;
+            }
+        }
+    }
+
+    // < <= > >= on numbers, straight to a boolean for loop and if conditions
+    static final class Comparison extends Node
+    {
+        private final Token operator;
+        private final TokenType type;
+        private final Node left;
+        private final Node right;
+        private boolean generic;
+
+        Comparison(Token operator, Node left, Node right)
+        {
+            this.operator = operator;
+            this.type = operator.type;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object eval(Frame frame)
+        {
+            if (generic) return Interpreter.binary(operator, left.eval(frame), right.eval(frame));
+            return evalCondition(frame);
+        }
+
+        @Override
+        boolean evalCondition(Frame frame)
+        {
+            if (generic) return Interpreter.isTruthy(Interpreter.binary(operator, left.eval(frame), right.eval(frame)));
+
+            double a;
+            try
+            {
+                a = left.evalNumber(frame);
+            }
+            catch (Mismatch mismatch)
+            {
+                generic = true;
+                return (Boolean) Interpreter.binary(operator, mismatch.value, right.eval(frame));
+            }
+            double b;
+            try
+            {
+                b = right.evalNumber(frame);
+            }
+            catch (Mismatch mismatch)
+            {
+                generic = true;
+                return (Boolean) Interpreter.binary(operator, a, mismatch.value);
+            }
+            switch (type)
+            {
+                case LESS: return a < b;
+                case LESS_EQUAL: return a <= b;
+                case GREATER: return a > b;
+                default: return a >= b;
+            }
+        }
+    }
+
+    static final class GenericBinary extends Node
+    {
+        private final Token operator;
+        private final Node left;
+        private final Node right;
+
+        GenericBinary(Token operator, Node left, Node right)
+        {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object eval(Frame frame)
+        {
+            Object a = left.eval(frame);
+            return Interpreter.binary(operator, a, right.eval(frame));
+        }
+    }
+
+    static final class Call extends Node
+    {
+        private final Token paren;
+        private final Node callee;
+        private final Node[] arguments;
+
+        Call(Token paren, Node callee, Node[] arguments)
+        {
+            this.paren = paren;
+            this.callee = callee;
+            this.arguments = arguments;
+        }
+
+        // A host function this site already called, see Interpreter.visitCallExpr
+        private HostFunctions.HostFunction cached;
+
+        @Override
+        Object eval(Frame frame)
+        {
+            Object function = callee.eval(frame);
+            if (function == cached && function != null) return callHost(frame, cached);
+
+            List<Object> values = new ArrayList<>(arguments.length);
+            for (Node argument : arguments) values.add(argument.eval(frame));
+            Object result = frame.interpreter.call(paren, function, values);
+            // call() checked it, so next time it can go straight in
+            if (function instanceof HostFunctions.HostFunction && arguments.length <= 3)
+            {
+                cached = (HostFunctions.HostFunction) function;
+            }
+            return result;
+        }
+
+        private Object callHost(Frame frame, HostFunctions.HostFunction function)
+        {
+            try
+            {
+                switch (arguments.length)
+                {
+                    case 0:
+                        return function.invoke();
+                    case 1:
+                        return function.invoke(arguments[0].eval(frame));
+                    case 2:
+                    {
+                        Object a = arguments[0].eval(frame);
+                        return function.invoke(a, arguments[1].eval(frame));
+                    }
+                    default:
+                    {
+                        Object a = arguments[0].eval(frame);
+                        Object b = arguments[1].eval(frame);
+                        return function.invoke(a, b, arguments[2].eval(frame));
+                    }
+                }
+            }
+            catch (Natives.Failure failure)
+            {
+                throw new RuntimeError(paren, failure.getMessage());
+            }
+        }
+    }
+
+    static final class ListLiteral extends Node
+    {
+        private final Node[] elements;
+
+        ListLiteral(Node[] elements)
+        {
+            this.elements = elements;
+        }
+
+        @Override
+        Object eval(Frame frame)
+        {
+            LoxList list = new LoxList(elements.length);
+            for (Node element : elements) list.append(element.eval(frame));
+            return list;
+        }
+    }
+
+    static final class Index extends Node
+    {
+        private final Token bracket;
+        private final Node object;
+        private final Node index;
+
+        Index(Token bracket, Node object, Node index)
+        {
+            this.bracket = bracket;
+            this.object = object;
+            this.index = index;
+        }
+
+        @Override
+        Object eval(Frame frame)
+        {
+            Object target = object.eval(frame);
+            return Interpreter.index(bracket, target, index.eval(frame));
+        }
+    }
+
+    static final class SetIndex extends Node
+    {
+        private final Token bracket;
+        private final Node object;
+        private final Node index;
+        private final Node value;
+
+        SetIndex(Token bracket, Node object, Node index, Node value)
+        {
+            this.bracket = bracket;
+            this.object = object;
+            this.index = index;
+            this.value = value;
+        }
+
+        @Override
+        Object eval(Frame frame)
+        {
+            Object target = object.eval(frame);
+            Object key = index.eval(frame);
+            Object result = value.eval(frame);
+            Interpreter.setIndex(bracket, target, key, result);
+            return result;
+        }
+    }
+
+    static final class ExpressionStatement extends Statement
+    {
+        private final Node expression;
+
+        ExpressionStatement(Node expression)
+        {
+            this.expression = expression;
+        }
+
+        @Override
+        void exec(Frame frame)
+        {
+            frame.statements++;
+            expression.eval(frame);
+        }
+    }
+
+    static final class PrintStatement extends Statement
+    {
+        private final Node expression;
+
+        PrintStatement(Node expression)
+        {
+            this.expression = expression;
+        }
+
+        @Override
+        void exec(Frame frame)
+        {
+            frame.statements++;
+            frame.interpreter.print(expression.eval(frame));
+        }
+    }
+
+    static final class LocalVarStatement extends Statement
+    {
+        private final int slot;
+        private final Node initializer;
+
+        LocalVarStatement(int slot, Node initializer)
+        {
+            this.slot = slot;
+            this.initializer = initializer;
+        }
+
+        @Override
+        void exec(Frame frame)
+        {
+            frame.statements++;
+            frame.slots[slot] = initializer == null ? null : initializer.eval(frame);
+        }
+    }
+
+    static final class OuterVarStatement extends Statement
+    {
+        private final int index;
+        private final Token name;
+        private final Node initializer;
+
+        OuterVarStatement(int index, Token name, Node initializer)
+        {
+            this.index = index;
+            this.name = name;
+            this.initializer = initializer;
+        }
+
+        @Override
+        void exec(Frame frame)
+        {
+            frame.statements++;
+            Object value = initializer == null ? null : initializer.eval(frame);
+            frame.entry.define(name.lexeme, value);
+            frame.owners[index] = frame.entry;
+            frame.slots[frame.outerBase + index] = value;
+        }
+    }
+
+    static final class BlockStatement extends Statement
+    {
+        private final Statement[] statements;
+
+        BlockStatement(Statement[] statements)
+        {
+            this.statements = statements;
+        }
+
+        @Override
+        void exec(Frame frame)
+        {
+            frame.statements++;
+            for (Statement statement : statements)
+            {
+                statement.exec(frame);
+                if (frame.returning()) return;
+            }
+        }
+    }
+
+    static final class WhileStatement extends Statement
+    {
+        private final Node condition;
+        private final Statement body;
+
+        WhileStatement(Node condition, Statement body)
+        {
+            this.condition = condition;
+            this.body = body;
+        }
+
+        @Override
+        void exec(Frame frame)
+        {
+            frame.statements++;
+            while (condition.evalCondition(frame))
+            {
+                body.exec(frame);
+                if (frame.returning()) return;
+            }
+        }
+    }
+
+    static final class IfStatement extends Statement
+    {
+        private final Node condition;
+        private final Statement thenBranch;
+        private final Statement elseBranch;
+
+        IfStatement(Node condition, Statement thenBranch, Statement elseBranch)
+        {
+            this.condition = condition;
+            this.thenBranch = thenBranch;
+            this.elseBranch = elseBranch;
+        }
+
+        @Override
+        void exec(Frame frame)
+        {
+            frame.statements++;
+            if (condition.evalCondition(frame)) thenBranch.exec(frame);
+            else if (elseBranch != null) elseBranch.exec(frame);
+        }
+    }
+
+    static final class ReturnStatement extends Statement
+    {
+        private final Node value;
+
+        ReturnStatement(Node value)
+        {
+            this.value = value;
+        }
+
+        @Override
+        void exec(Frame frame)
+        {
+            frame.statements++;
+            frame.interpreter.returnValue(value == null ? null : value.eval(frame));
+        }
+    }
+
+    // return f(x) in a compiled loop is still a tail call
+    static final class TailCallStatement extends Statement
+    {
+        private final Token paren;
+        private final Node callee;
+        private final Node[] arguments;
+
+        TailCallStatement(Token paren, Node callee, Node[] arguments)
+        {
+            this.paren = paren;
+            this.callee = callee;
+            this.arguments = arguments;
+        }
+
+        @Override
+        void exec(Frame frame)
+        {
+            frame.statements++;
+            Object function = callee.eval(frame);
+            List<Object> values = new ArrayList<>(arguments.length);
+            for (Node argument : arguments) values.add(argument.eval(frame));
+            frame.interpreter.tailCall(paren, function, values);
+        }
+    }
+
+    static final class InterpretedStatement extends Statement
+    {
+        private final Stmt stmt;
+
+        InterpretedStatement(Stmt stmt)
+        {
+            this.stmt = stmt;
+        }
+
+        @Override
+        void exec(Frame frame)
+        {
+            // execute counts it
+            frame.interpreter.execute(stmt);
+        }
+    }
+
+    // A variable the Resolver put in the CallFrame
+    static final class FrameGet extends Node
+    {
+        private final byte scope;
+        private final int slot;
+
+        FrameGet(byte scope, int slot)
+        {
+            this.scope = scope;
+            this.slot = slot;
+        }
+
+        @Override
+        Object eval(Frame frame)
+        {
+            switch (scope)
+            {
+                case Resolver.LOCAL: return frame.call.locals[slot];
+                case Resolver.CELL: return ((CallFrame.Cell) frame.call.locals[slot]).value;
+                default: return frame.call.upvalues[slot].value;
+            }
+        }
+    }
+
+    static final class FrameSet extends Node
+    {
+        private final byte scope;
+        private final int slot;
+        private final Node value;
+
+        FrameSet(byte scope, int slot, Node value)
+        {
+            this.scope = scope;
+            this.slot = slot;
+            this.value = value;
+        }
+
+        @Override
+        Object eval(Frame frame)
+        {
+            Object result = value.eval(frame);
+            switch (scope)
+            {
+                case Resolver.LOCAL: frame.call.locals[slot] = result; break;
+                case Resolver.CELL: ((CallFrame.Cell) frame.call.locals[slot]).value = result; break;
+                default: frame.call.upvalues[slot].value = result;
+            }
+            return result;
+        }
+    }
+
+    static final class FrameVarStatement extends Statement
+    {
+        private final byte scope;
+        private final int slot;
+        private final Node initializer;
+
+        FrameVarStatement(byte scope, int slot, Node initializer)
+        {
+            this.scope = scope;
+            this.slot = slot;
+            this.initializer = initializer;
+        }
+
+        @Override
+        void exec(Frame frame)
+        {
+            frame.statements++;
+            Object value = initializer == null ? null : initializer.eval(frame);
+            frame.call.locals[slot] = scope == Resolver.CELL ? new CallFrame.Cell(value) : value;
+        }
+    }
+}
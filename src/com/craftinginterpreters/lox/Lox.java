@@ -3,40 +3,249 @@ package com.craftinginterpreters.lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Writer;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
 public class Lox
 {
-    private static final Interpreter interpreter = new Interpreter();
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
-
-    public static void main(String[] args) throws IOException {
-        runFile("src/com/craftinginterpreters/lox/LoxProgram.txt");
-
-        //        if (args.length > 1)
-//        {
-//            System.out.println("Usage: jlox [script]");
-//            System.exit(64);
-//        }
-//        else if
-//        (args.length == 1)
-//        {
-//            runFile(args[0]);
-//        }
-//        else
-//        {
-//            runPrompt();
-//        }
+    private static Interpreter interpreter = new Interpreter();
+
+    // Each thread reports syntax and runtime errors into its own reporter, so embedded
+    // engines can capture errors without stepping on the command line's stderr.
+    private static final ThreadLocal<ErrorReporter> reporter =
+            ThreadLocal.withInitial(() -> new ErrorReporter(new PrintWriter(System.err, true)));
+
+    // Megabytes of Java stack for the thread running scripts, -Djlox.stack=n to change it.
+    // Tail calls run in constant stack, but every other Lox call still nests a few Java calls.
+    static final long STACK_MEGABYTES = Long.getLong("jlox.stack", 512);
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread(null, () -> {
+            try
+            {
+                start(args);
+            }
+            catch (Throwable e)
+            {
+                failure[0] = e;
+            }
+        }, "jlox", STACK_MEGABYTES << 20);
+        thread.start();
+        thread.join();
+        if (failure[0] instanceof IOException) throw (IOException) failure[0];
+        if (failure[0] != null)
+        {
+            // A bug in jlox rather than in the script, but the script still didn't run
+            failure[0].printStackTrace();
+            System.exit(70);
+        }
+    }
+
+    private static void start(String[] args) throws IOException {
+        if (args.length == 0)
+        {
+            runFile("src/com/craftinginterpreters/lox/LoxProgram.txt");
+            if (reporter().hadRuntimeError) System.exit(70);
+            return;
+        }
+
+        if (args[0].equals("--batch"))
+        {
+            runBatch(args);
+            return;
+        }
+
+        if (args[0].equals("--daemon"))
+        {
+            runDaemon(args);
+            return;
+        }
+
+        // jlox [--restore snapshot] [--snapshot snapshot] [--profile] [--profile-out file]
+        //      [--trace] [--break line]... [--coverage file] [--parallel n] [script]
+        String restore = null;
+        String snapshot = null;
+        String script = null;
+        boolean profile = false;
+        String profileOut = null;
+        boolean trace = false;
+        List<Integer> breakpoints = new ArrayList<>();
+        String coverageOut = null;
+        int parallelism = 1;
+        for (int i = 0; i < args.length; i++)
+        {
+            if (args[i].equals("--restore") && i + 1 < args.length) restore = args[++i];
+            else if (args[i].equals("--snapshot") && i + 1 < args.length) snapshot = args[++i];
+            else if (args[i].equals("--profile")) profile = true;
+            else if (args[i].equals("--profile-out") && i + 1 < args.length) profileOut = args[++i];
+            else if (args[i].equals("--trace")) trace = true;
+            else if (args[i].equals("--break") && i + 1 < args.length) breakpoints.add(Integer.parseInt(args[++i]));
+            else if (args[i].equals("--coverage") && i + 1 < args.length) coverageOut = args[++i];
+            else if (args[i].equals("--parallel") && i + 1 < args.length) parallelism = Integer.parseInt(args[++i]);
+            else if (script == null && !args[i].startsWith("--")) script = args[i];
+            else usage();
+        }
+
+        ProfilingInterpreter profiler = null;
+        if (profile || profileOut != null)
+        {
+            profiler = new ProfilingInterpreter(new Environment(), new PrintWriter(System.out, true));
+            interpreter = profiler;
+        }
+        if (trace || !breakpoints.isEmpty())
+        {
+            if (profiler != null) usage();
+            InstrumentedInterpreter instrumented = new InstrumentedInterpreter(new Environment(), new PrintWriter(System.out, true));
+            PrintWriter console = new PrintWriter(System.err, true);
+            if (trace) instrumented.probes.attachStatements(InstrumentedInterpreter.tracer(console));
+            if (!breakpoints.isEmpty())
+            {
+                Debugger debugger = new Debugger(instrumented);
+                String source = script == null ? null : Files.readString(Paths.get(script), Charset.defaultCharset());
+                debugger.onPause(debugger.console(new BufferedReader(new InputStreamReader(System.in)), console, source));
+                for (int line : breakpoints) debugger.breakAt(line);
+            }
+            interpreter = instrumented;
+        }
+        Coverage coverage = null;
+        if (coverageOut != null)
+        {
+            if (profiler != null || trace || !breakpoints.isEmpty()) usage();
+            coverage = new Coverage();
+            interpreter = new CoverageInterpreter(new Environment(), new PrintWriter(System.out, true), coverage,
+                    script == null ? "<prompt>" : script);
+        }
+
+        if (parallelism > 1)
+        {
+            // The tools see every statement on the interpreter they replaced this one with
+            if (profiler != null || trace || !breakpoints.isEmpty() || coverage != null) usage();
+            interpreter.parallelism = parallelism;
+        }
+
+        // Restoring is just decoding a file, far cheaper than re-running the init script.
+        try
+        {
+            if (restore != null) Snapshot.restore(interpreter, Paths.get(restore));
+        }
+        catch (IOException e)
+        {
+            snapshotFailed("restore", e);
+        }
+
+        if (script != null) runFile(script);
+        else if (snapshot == null) runPrompt();
+
+        try
+        {
+            if (snapshot != null) Snapshot.save(interpreter, Paths.get(snapshot));
+        }
+        catch (IOException e)
+        {
+            snapshotFailed("save", e);
+        }
+
+        if (coverage != null)
+        {
+            try (Writer out = Files.newBufferedWriter(Paths.get(coverageOut)))
+            {
+                coverage.writeLcov(out);
+            }
+        }
+
+        if (profiler != null)
+        {
+            String source = script == null ? null : Files.readString(Paths.get(script), Charset.defaultCharset());
+            profiler.report(new PrintWriter(System.err), source, 20);
+            if (profileOut != null)
+            {
+                try (Writer out = Files.newBufferedWriter(Paths.get(profileOut)))
+                {
+                    profiler.writeCollapsed(out);
+                }
+            }
+        }
+
+        // Only now, so a script that failed still gets its snapshot and reports
+        if (script != null && reporter().hadRuntimeError) System.exit(70);
+    }
+
+    // A snapshot that can't be read or written is the user's problem, not a stack trace
+    private static void snapshotFailed(String verb, IOException e)
+    {
+        System.err.println("Could not " + verb + " snapshot: " + e.getMessage());
+        System.exit(74);
+    }
+
+    // jlox --batch <directory|glob> [--out directory] [--threads n]
+    private static void runBatch(String[] args) throws IOException
+    {
+        if (args.length < 2) usage();
+        String target = args[1];
+        Path out = Paths.get("batch-output");
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 2; i < args.length; i++)
+        {
+            if (args[i].equals("--out") && i + 1 < args.length) out = Paths.get(args[++i]);
+            else if (args[i].equals("--threads") && i + 1 < args.length) threads = Integer.parseInt(args[++i]);
+            else usage();
+        }
+        System.exit(BatchRunner.main(target, out, threads));
+    }
+
+    // jlox --daemon [--socket path | --port n] [--warmup iterations]
+    private static void runDaemon(String[] args) throws IOException
+    {
+        String socket = null;
+        int port = 0;
+        int warmup = 2000;
+        for (int i = 1; i < args.length; i++)
+        {
+            if (args[i].equals("--socket") && i + 1 < args.length) socket = args[++i];
+            else if (args[i].equals("--port") && i + 1 < args.length) port = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--warmup") && i + 1 < args.length) warmup = Integer.parseInt(args[++i]);
+            else usage();
+        }
+        LoxDaemon.warmUp(warmup);
+        new LoxDaemon(LoxDaemon.address(socket, port)).serve();
+    }
+
+    private static void usage()
+    {
+        System.out.println("Usage: jlox [--restore snapshot] [--snapshot snapshot] [--profile] [--profile-out file]");
+        System.out.println("            [--trace] [--break line]... [--coverage file] [--parallel n] [script]");
+        System.out.println("       jlox --batch <directory|glob> [--out directory] [--threads n]");
+        System.out.println("       jlox --daemon [--socket path | --port n] [--warmup iterations]");
+        System.exit(64);
     }
 
     private static void runFile(String path) throws IOException
     {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        Path file = Paths.get(path);
+        byte[] bytes = Files.readAllBytes(file);
+        LoxEvents.setSource(path);
+        interpreter.directory = file.toAbsolutePath().getParent();
+        LoxEvents.Run event = startRun(bytes.length);
+        execute(load(file, bytes), event);
+    }
+
+    static List<Stmt> load(Path file, byte[] bytes)
+    {
+        // A .loxc next to the source with a matching hash lets us skip scanning and parsing.
+        List<Stmt> statements = AstCache.load(file, bytes);
+        if (statements == null)
+        {
+            statements = parse(new String(bytes, Charset.defaultCharset()));
+            if (!reporter().hadError) AstCache.store(file, bytes, statements);
+        }
+        return statements;
     }
 
     private static void runPrompt() throws IOException
@@ -49,51 +258,95 @@ public class Lox
             String line = reader.readLine();
             if (line == null) break;
             run(line);
-            hadError = false;
+            reporter().hadError = false;
         }
     }
 
     private static void run(String source)
+    {
+        LoxEvents.setSource("<prompt>");
+        LoxEvents.Run event = startRun(source.length());
+        execute(parse(source), event);
+    }
+
+    static List<Stmt> parse(String source)
     {
         Scanner scanner = new Scanner(source);
         List<Token> tokens = scanner.scanTokens();
         Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
+        return parser.parse();
+    }
 
+    private static void execute(List<Stmt> statements, LoxEvents.Run event)
+    {
         // Stop if there was a syntax error.
-        if (hadError) System.exit(65);
-
-        if (hadRuntimeError) System.exit(70);
+        if (reporter().hadError) exit(65, event, statements);
 
+        // A runtime error doesn't stop here: the prompt carries on after one, and a script
+        // exits with 70 once start() has written whatever the tools collected
         interpreter.interpret(statements);
+        finishRun(event, statements);
     }
 
-    static void error(int line, String message)
+    // The Run event only reads counters it can diff against, so nothing is paid when JFR is off.
+    private static int syntaxErrorsAtStart;
+    private static int runtimeErrorsAtStart;
+
+    private static LoxEvents.Run startRun(long bytes)
+    {
+        LoxEvents.Run event = new LoxEvents.Run();
+        if (event.isEnabled())
+        {
+            event.bytes = bytes;
+            syntaxErrorsAtStart = reporter().syntaxErrors;
+            runtimeErrorsAtStart = reporter().runtimeErrors;
+        }
+        event.begin();
+        return event;
+    }
+
+    private static void finishRun(LoxEvents.Run event, List<Stmt> statements)
+    {
+        if (!event.shouldCommit()) return;
+        event.source = LoxEvents.source();
+        event.statements = statements.size();
+        event.syntaxErrors = reporter().syntaxErrors - syntaxErrorsAtStart;
+        event.runtimeErrors = reporter().runtimeErrors - runtimeErrorsAtStart;
+        event.commit();
+    }
+
+    // System.exit skips finally blocks, so the Run event has to go out first.
+    private static void exit(int code, LoxEvents.Run event, List<Stmt> statements)
     {
-        report(line,"",message);
+        finishRun(event, statements);
+        System.exit(code);
     }
 
-    private static void report(int line, String where, String message)
+    static ErrorReporter reporter()
     {
-        System.err.println("[line" + line +"] Error" + where + ": " + message);
-        hadError = true;
+        return reporter.get();
+    }
+
+    // Installs a reporter for the current thread and returns the one it replaced.
+    static ErrorReporter setReporter(ErrorReporter next)
+    {
+        ErrorReporter previous = reporter.get();
+        reporter.set(next);
+        return previous;
+    }
+
+    static void error(int line, String message)
+    {
+        reporter().error(line, message);
     }
 
     static void error(Token token, String message)
     {
-        if(token.type == TokenType.EOF)
-        {
-            report(token.line, "at end", message);
-        }
-        else
-        {
-            report(token.line, " at '" + token.lexeme + "'", message);
-        }
+        reporter().error(token, message);
     }
 
     static void runtimeError(RuntimeError error)
     {
-        System.err.println(error.getMessage()+ "\n[line " + error.token.line + "]");
-        hadRuntimeError = true;
+        reporter().runtimeError(error);
     }
-}
\ No newline at end of file
+}
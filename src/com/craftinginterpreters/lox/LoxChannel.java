@@ -0,0 +1,118 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+A bounded queue between tasks, made with channel(capacity).
+
+send blocks while the channel is full and receive while it is empty, so a fast producer
+can't run away from a slow consumer. close() wakes everyone up: sending to a closed channel
+is an error, receiving drains what is left and then gets nil. A plain ring buffer under one
+lock, the way ArrayBlockingQueue does it, except that nil is a value like any other.
+ */
+final class LoxChannel
+{
+    private final Object[] items;
+    private int head;
+    private int count;
+    private boolean closed;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    LoxChannel(int capacity)
+    {
+        items = new Object[capacity];
+    }
+
+    void send(Object value)
+    {
+        lockInterruptibly("send");
+        try
+        {
+            while (count == items.length && !closed) await(notFull, "send");
+            if (closed) throw new Natives.Failure("send() on a closed channel.");
+            items[(head + count) % items.length] = value;
+            count++;
+            notEmpty.signal();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    Object receive()
+    {
+        lockInterruptibly("receive");
+        try
+        {
+            while (count == 0 && !closed) await(notEmpty, "receive");
+            if (count == 0) return null;
+            Object value = items[head];
+            items[head] = null;
+            head = (head + 1) % items.length;
+            count--;
+            notFull.signal();
+            return value;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    // A blocked task can be interrupted (the host shutting down), that ends up as a Lox error
+    private void lockInterruptibly(String function)
+    {
+        try
+        {
+            lock.lockInterruptibly();
+        }
+        catch (InterruptedException e)
+        {
+            throw interrupted(function);
+        }
+    }
+
+    private void await(Condition condition, String function)
+    {
+        try
+        {
+            condition.await();
+        }
+        catch (InterruptedException e)
+        {
+            throw interrupted(function);
+        }
+    }
+
+    private static Natives.Failure interrupted(String function)
+    {
+        Thread.currentThread().interrupt();
+        return new Natives.Failure(function + "() was interrupted.");
+    }
+
+    void close()
+    {
+        lock.lock();
+        try
+        {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "<channel " + items.length + ">";
+    }
+}
@@ -0,0 +1,94 @@
+package com.craftinginterpreters.lox;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+/*
+Thin client for LoxDaemon. Sends a script path (or "-" to send source from stdin), copies the
+daemon's stdout and stderr frames to ours, and exits with the daemon's exit code.
+
+    java -cp out com.craftinginterpreters.lox.LoxClient [--socket path | --port n] <script | ->
+ */
+public class LoxClient
+{
+    public static void main(String[] args) throws IOException
+    {
+        String socket = null;
+        int port = 0;
+        String script = null;
+        for (int i = 0; i < args.length; i++)
+        {
+            if (args[i].equals("--socket") && i + 1 < args.length) socket = args[++i];
+            else if (args[i].equals("--port") && i + 1 < args.length) port = Integer.parseInt(args[++i]);
+            else if (script == null) script = args[i];
+            else usage();
+        }
+        if (script == null) usage();
+
+        byte kind;
+        byte[] payload;
+        if (script.equals("-"))
+        {
+            kind = LoxDaemon.SOURCE;
+            payload = System.in.readAllBytes();
+        }
+        else
+        {
+            // The daemon may run in another directory, so send an absolute path
+            kind = LoxDaemon.PATH;
+            payload = Paths.get(script).toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        SocketAddress address = LoxDaemon.address(socket, port);
+        try (SocketChannel channel = address instanceof UnixDomainSocketAddress
+                ? SocketChannel.open(StandardProtocolFamily.UNIX)
+                : SocketChannel.open())
+        {
+            channel.connect(address);
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+            out.writeByte(kind);
+            out.writeInt(payload.length);
+            out.write(payload);
+            out.flush();
+
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            for (;;)
+            {
+                byte stream = in.readByte();
+                if (stream == LoxDaemon.EXIT)
+                {
+                    System.out.flush();
+                    System.err.flush();
+                    System.exit(in.readInt());
+                }
+
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                PrintStream target = stream == LoxDaemon.ERR ? System.err : System.out;
+                target.write(bytes);
+                target.flush();
+            }
+        }
+        catch (EOFException e)
+        {
+            System.err.println("jlox daemon closed the connection.");
+            System.exit(LoxDaemon.EXIT_IO_ERROR);
+        }
+    }
+
+    private static void usage()
+    {
+        System.out.println("Usage: LoxClient [--socket path | --port n] <script | ->");
+        System.exit(64);
+    }
+}
@@ -0,0 +1,251 @@
+package com.craftinginterpreters.lox;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+Keeps one JVM (and its JIT'd Scanner, Parser and Interpreter) alive so short scripts do not
+pay for startup. LoxClient is the thin end that talks to it.
+
+Protocol, big endian:
+
+    request   byte kind ('P' = path on the daemon's file system, 'S' = source text)
+              int length, then that many UTF-8 bytes
+
+    response  any number of frames: byte stream (OUT or ERR), int length, bytes
+              then exactly one frame: byte EXIT, int exit code
+
+Exit codes are the ones Lox uses: 0, 65 for syntax errors, 70 for runtime errors (and for
+a Java exception out of the interpreter, whose stack trace goes to the client's stderr),
+plus 74 when the script could not be read. Every request gets its own Interpreter, globals and
+ErrorReporter, and each connection is served on its own thread.
+ */
+class LoxDaemon
+{
+    static final byte PATH = 'P';
+    static final byte SOURCE = 'S';
+
+    static final byte OUT = 1;
+    static final byte ERR = 2;
+    static final byte EXIT = 3;
+
+    static final int EXIT_INTERNAL_ERROR = 70;
+    static final int EXIT_IO_ERROR = 74;
+
+    static Path defaultSocket()
+    {
+        return Paths.get(System.getProperty("java.io.tmpdir"), "jlox.sock");
+    }
+
+    private final SocketAddress address;
+    // Scripts get the same stack here as on the command line, so they overflow at the same depth
+    private final ExecutorService workers = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(null, runnable, "jlox-daemon-worker", Lox.STACK_MEGABYTES << 20);
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    LoxDaemon(SocketAddress address)
+    {
+        this.address = address;
+    }
+
+    void serve() throws IOException
+    {
+        ServerSocketChannel server;
+        if (address instanceof UnixDomainSocketAddress)
+        {
+            Path socket = ((UnixDomainSocketAddress) address).getPath();
+            // A socket file left behind by a daemon that was killed
+            Files.deleteIfExists(socket);
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try
+                {
+                    Files.deleteIfExists(socket);
+                }
+                catch (IOException e)
+                {
+                    // Nothing left to do on the way out
+                }
+            }));
+        }
+        else
+        {
+            server = ServerSocketChannel.open();
+        }
+
+        try (server)
+        {
+            server.bind(address);
+            System.err.println("jlox daemon listening on " + address);
+            for (;;)
+            {
+                SocketChannel client = server.accept();
+                workers.execute(() -> handle(client));
+            }
+        }
+    }
+
+    private void handle(SocketChannel channel)
+    {
+        try (channel)
+        {
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+
+            byte kind = in.readByte();
+            byte[] payload = new byte[in.readInt()];
+            in.readFully(payload);
+
+            int code = run(kind, new String(payload, StandardCharsets.UTF_8), out);
+            synchronized (out)
+            {
+                out.writeByte(EXIT);
+                out.writeInt(code);
+                out.flush();
+            }
+        }
+        catch (IOException e)
+        {
+            // The client went away, its interpreter state goes with it
+        }
+    }
+
+    private int run(byte kind, String payload, DataOutputStream out)
+    {
+        PrintWriter stdout = new PrintWriter(new OutputStreamWriter(new FrameStream(out, OUT), StandardCharsets.UTF_8), true);
+        PrintWriter stderr = new PrintWriter(new OutputStreamWriter(new FrameStream(out, ERR), StandardCharsets.UTF_8), true);
+
+        ErrorReporter reporter = new ErrorReporter(stderr);
+        ErrorReporter previous = Lox.setReporter(reporter);
+        try
+        {
+            List<Stmt> statements;
+            // Imports resolve next to the script, source sent inline has only the daemon's directory
+            Path directory = Paths.get("");
+            if (kind == PATH)
+            {
+                Path script = Paths.get(payload);
+                statements = Lox.load(script, Files.readAllBytes(script));
+                directory = script.toAbsolutePath().getParent();
+            }
+            else if (kind == SOURCE)
+            {
+                statements = Lox.parse(payload);
+            }
+            else
+            {
+                stderr.println("Unknown request kind " + kind + ".");
+                return EXIT_IO_ERROR;
+            }
+
+            if (reporter.hadError) return 65;
+            Interpreter interpreter = new Interpreter(new Environment(), stdout);
+            interpreter.directory = directory;
+            interpreter.interpret(statements);
+            stdout.flush();
+            return reporter.hadRuntimeError ? 70 : 0;
+        }
+        catch (IOException e)
+        {
+            stderr.println("Could not read script: " + e.getMessage());
+            return EXIT_IO_ERROR;
+        }
+        catch (RuntimeException | StackOverflowError e)
+        {
+            // A bug in the interpreter, not the script; the client still gets its answer
+            e.printStackTrace(stderr);
+            return EXIT_INTERNAL_ERROR;
+        }
+        finally
+        {
+            Lox.setReporter(previous);
+        }
+    }
+
+    // Wraps every write into a frame tagged with the stream it belongs to.
+    private static class FrameStream extends OutputStream
+    {
+        private final DataOutputStream out;
+        private final byte stream;
+
+        FrameStream(DataOutputStream out, byte stream)
+        {
+            this.out = out;
+            this.stream = stream;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException
+        {
+            if (length == 0) return;
+            // stdout and stderr share the socket, keep their frames whole
+            synchronized (out)
+            {
+                out.writeByte(stream);
+                out.writeInt(length);
+                out.write(bytes, offset, length);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            synchronized (out)
+            {
+                out.flush();
+            }
+        }
+    }
+
+    // Runs a small program enough times for the JIT to compile the hot interpreter paths.
+    static void warmUp(int iterations)
+    {
+        String source =
+                "var a = 1;\n" +
+                "var b = \"warm\";\n" +
+                "{\n" +
+                "  var c = a * 2 + (3 - 1) / 4;\n" +
+                "  a = c - 1;\n" +
+                "  b = b + \"er\";\n" +
+                "  print a >= c == !false;\n" +
+                "}\n";
+        PrintWriter sink = new PrintWriter(OutputStream.nullOutputStream());
+        for (int i = 0; i < iterations; i++)
+        {
+            new Interpreter(new Environment(), sink).interpret(Lox.parse(source));
+        }
+    }
+
+    static SocketAddress address(String socket, int port)
+    {
+        if (port > 0) return new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        return UnixDomainSocketAddress.of(socket == null ? defaultSocket() : Paths.get(socket));
+    }
+}
@@ -0,0 +1,162 @@
+package com.craftinginterpreters.lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/*
+Java Flight Recorder events for the phases of a Lox run.
+
+    Run            Lox.runFile / Lox.run, the whole thing
+    Scan           Scanner.scanTokens
+    Parse          Parser.parse
+    Execute        Interpreter.interpret
+    RuntimeError   one per runtime error, off unless the recording turns it on
+    LoopCompile    LoopCompiler.compile, once per hot loop
+
+The usual JFR pattern keeps these cheap: when a recording is not asking for an event,
+begin() and shouldCommit() are a couple of loads, and escape analysis removes the
+allocation. Stack traces are off since every event comes from the same few call sites.
+jfr/jlox.jfc at the root of the project turns all of them on.
+
+Scanner and Parser do not know which file they are working on, so Lox sets it here for the
+current thread before a run and the events pick it up.
+ */
+final class LoxEvents
+{
+    private static final ThreadLocal<String> source = ThreadLocal.withInitial(() -> "<unknown>");
+
+    private LoxEvents() {}
+
+    static String source()
+    {
+        return source.get();
+    }
+
+    static void setSource(String name)
+    {
+        source.set(name);
+    }
+
+    @Name("com.craftinginterpreters.lox.Run")
+    @Label("Lox Run")
+    @Category("JLOX")
+    @Description("Scanning, parsing and executing one script")
+    @StackTrace(false)
+    static final class Run extends Event
+    {
+        @Label("Source")
+        String source;
+
+        @Label("Source Size")
+        @DataAmount(DataAmount.BYTES)
+        long bytes;
+
+        @Label("Statements")
+        int statements;
+
+        @Label("Syntax Errors")
+        int syntaxErrors;
+
+        @Label("Runtime Errors")
+        int runtimeErrors;
+    }
+
+    @Name("com.craftinginterpreters.lox.Scan")
+    @Label("Lox Scan")
+    @Category("JLOX")
+    @StackTrace(false)
+    static final class Scan extends Event
+    {
+        @Label("Source")
+        String source;
+
+        @Label("Characters")
+        long characters;
+
+        @Label("Tokens")
+        int tokens;
+
+        @Label("Errors")
+        int errors;
+    }
+
+    @Name("com.craftinginterpreters.lox.Parse")
+    @Label("Lox Parse")
+    @Category("JLOX")
+    @StackTrace(false)
+    static final class Parse extends Event
+    {
+        @Label("Source")
+        String source;
+
+        @Label("Tokens")
+        int tokens;
+
+        @Label("Statements")
+        int statements;
+
+        @Label("Errors")
+        int errors;
+    }
+
+    @Name("com.craftinginterpreters.lox.Execute")
+    @Label("Lox Execute")
+    @Category("JLOX")
+    @StackTrace(false)
+    static final class Execute extends Event
+    {
+        @Label("Source")
+        String source;
+
+        @Label("Statements")
+        int statements;
+
+        @Label("Runtime Errors")
+        int runtimeErrors;
+    }
+
+    @Name("com.craftinginterpreters.lox.RuntimeError")
+    @Label("Lox Runtime Error")
+    @Category("JLOX")
+    @Enabled(false)
+    static final class RuntimeErrorEvent extends Event
+    {
+        @Label("Source")
+        String source;
+
+        @Label("Line")
+        int line;
+
+        @Label("Message")
+        String message;
+    }
+
+    @Name("com.craftinginterpreters.lox.LoopCompile")
+    @Label("Lox Loop Compile")
+    @Category("JLOX")
+    @Description("A hot while or for loop moving to the compiled tier")
+    @StackTrace(false)
+    static final class LoopCompile extends Event
+    {
+        @Label("Source")
+        String source;
+
+        @Label("Line")
+        int line;
+
+        @Label("Back Edges")
+        int backEdges;
+
+        @Label("Local Slots")
+        int locals;
+
+        @Label("Outer Variables")
+        int outerVariables;
+    }
+}
@@ -0,0 +1,129 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+A file read one line (or one record) at a time, made by lines(path) or records(path, sep)
+and read with next(stream), which returns nil at the end.
+
+The file is memory mapped a window at a time (64 MB, -Djlox.mapWindow=bytes to change it)
+and nothing is decoded until next() asks for it: next scans the mapped bytes for the
+separator and turns just that record into a String. When a record runs off the end of the
+window the next window starts at that record, and a single record bigger than a whole window
+gets a bigger one, up to 2 GB, past which next() fails. The mapping lives outside the Java heap, which only holds a scratch array
+as long as the longest record, so a 10 GB log needs no more memory than a 10 KB one. Old
+windows are unmapped when the GC collects them.
+
+Records are UTF-8 and the separator is a single ASCII character. lines() splits on '\n'
+and drops a '\r' before it, and a last record without a separator still counts.
+ */
+final class LoxFileStream
+{
+    private static final long WINDOW = Long.getLong("jlox.mapWindow", 64L << 20);
+
+    private final String name;
+    private final FileChannel channel;
+    private final long size;
+    private final byte separator;
+    private final boolean lines;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    // Where the next record starts in the file
+    private long position;
+    private byte[] scratch = new byte[256];
+    private boolean closed;
+
+    LoxFileStream(Path path, byte separator, boolean lines) throws IOException
+    {
+        this.name = path.toString();
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = channel.size();
+        this.separator = separator;
+        this.lines = lines;
+    }
+
+    // The next record, or null once the file is used up
+    Object next()
+    {
+        if (closed) throw new Natives.Failure("next() on a closed stream.");
+        if (position >= size) return null;
+        try
+        {
+            long windowSize = WINDOW;
+            if (window == null || position >= windowStart + window.limit()) map(windowSize);
+            while (true)
+            {
+                int from = (int) (position - windowStart);
+                int limit = window.limit();
+                int end = from;
+                while (end < limit && window.get(end) != separator) end++;
+
+                if (end < limit)
+                {
+                    position = windowStart + end + 1;
+                    return decode(from, end);
+                }
+                if (windowStart + limit >= size)
+                {
+                    position = size;
+                    return decode(from, end);
+                }
+                // The record runs past this window. Start the next one at the record, and if it
+                // already started there, the record needs a bigger window. A buffer can't map
+                // more than 2 GB, and a String couldn't hold a record that long anyway.
+                if (from == 0)
+                {
+                    if (limit == Integer.MAX_VALUE) throw new Natives.Failure("next() found a record too large in " + name + ".");
+                    windowSize = Math.min(windowSize * 2, Integer.MAX_VALUE);
+                }
+                map(windowSize);
+            }
+        }
+        catch (IOException e)
+        {
+            throw new Natives.Failure("next() could not read " + name + ": " + e.getMessage());
+        }
+    }
+
+    private void map(long windowSize) throws IOException
+    {
+        windowStart = position;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(windowSize, size - windowStart));
+    }
+
+    private String decode(int from, int end)
+    {
+        if (lines && end > from && window.get(end - 1) == '\r') end--;
+        int length = end - from;
+        if (length > scratch.length) scratch = new byte[Math.max(length, scratch.length * 2)];
+        window.get(from, scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    void close()
+    {
+        if (closed) return;
+        closed = true;
+        window = null;
+        try
+        {
+            channel.close();
+        }
+        catch (IOException e)
+        {
+            throw new Natives.Failure("close() failed on " + name + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "<stream " + name + ">";
+    }
+}
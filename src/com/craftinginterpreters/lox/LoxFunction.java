@@ -0,0 +1,37 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// A fun declaration's value: the code, the Environment it was declared in for names the
+// Resolver left to ENVIRONMENT, and the Cells it captured from enclosing functions.
+final class LoxFunction implements LoxCallable
+{
+    final Stmt.Function declaration;
+    final Environment closure;
+    final CallFrame.Cell[] upvalues;
+
+    LoxFunction(Stmt.Function declaration, Environment closure, CallFrame.Cell[] upvalues)
+    {
+        this.declaration = declaration;
+        this.closure = closure;
+        this.upvalues = upvalues;
+    }
+
+    @Override
+    public int arity()
+    {
+        return declaration.params.size();
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments)
+    {
+        return interpreter.invoke(this, arguments);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "<fn " + declaration.name.lexeme + ">";
+    }
+}
@@ -0,0 +1,151 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+/*
+The value behind [a, b, c].
+
+Numeric data is the common case, so a list starts out as a plain double[] and only turns
+into an Object[] the first time something other than a number goes in. After that it stays
+generic, there is no switching back. Either way it grows by doubling like ArrayList.
+
+The bulk operations (sum, min, max, sort) run straight over the double[] when they can, no
+boxing and no trips through the interpreter.
+ */
+class LoxList
+{
+    private double[] numbers;
+    private Object[] values;
+    private int size;
+
+    LoxList(int capacity)
+    {
+        numbers = new double[Math.max(capacity, 4)];
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    boolean isNumeric()
+    {
+        return values == null;
+    }
+
+    Object get(int index)
+    {
+        return values == null ? (Object) numbers[index] : values[index];
+    }
+
+    // Whole numbers come in as Longs, a list keeps every number as a double so the
+    // primitive array, sort and sum only ever see one kind
+    void set(int index, Object value)
+    {
+        if (value instanceof Long) value = LoxNumbers.toDouble(value);
+        if (values == null)
+        {
+            if (value instanceof Double)
+            {
+                numbers[index] = (Double) value;
+                return;
+            }
+            generalize();
+        }
+        values[index] = value;
+    }
+
+    void append(Object value)
+    {
+        if (value instanceof Long) value = LoxNumbers.toDouble(value);
+        if (values == null)
+        {
+            if (value instanceof Double)
+            {
+                if (size == numbers.length) numbers = Arrays.copyOf(numbers, size * 2);
+                numbers[size++] = (Double) value;
+                return;
+            }
+            generalize();
+        }
+        if (size == values.length) values = Arrays.copyOf(values, size * 2);
+        values[size++] = value;
+    }
+
+    // Boxes everything once, from here on the list holds any value
+    private void generalize()
+    {
+        values = new Object[numbers.length];
+        for (int i = 0; i < size; i++) values[i] = numbers[i];
+        numbers = null;
+    }
+
+    // These throw when an element is not a number, the call site turns that into a RuntimeError
+    double sum()
+    {
+        double sum = 0;
+        if (values == null)
+        {
+            for (int i = 0; i < size; i++) sum += numbers[i];
+        }
+        else
+        {
+            for (int i = 0; i < size; i++) sum += number(i);
+        }
+        return sum;
+    }
+
+    double min()
+    {
+        double min = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < size; i++) min = Math.min(min, values == null ? numbers[i] : number(i));
+        return min;
+    }
+
+    double max()
+    {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < size; i++) max = Math.max(max, values == null ? numbers[i] : number(i));
+        return max;
+    }
+
+    private double number(int index)
+    {
+        Object value = values[index];
+        if (value instanceof Double) return (Double) value;
+        throw new Natives.Failure("List holds " + Interpreter.stringify(value) + ", expected only numbers.");
+    }
+
+    // Numbers sort numerically and strings by code unit, anything else (or a mix) is an error
+    void sort()
+    {
+        if (values == null)
+        {
+            Arrays.sort(numbers, 0, size);
+            return;
+        }
+
+        boolean strings = size > 0 && values[0] instanceof String;
+        for (int i = 0; i < size; i++)
+        {
+            if (strings ? !(values[i] instanceof String) : !(values[i] instanceof Double))
+            {
+                throw new Natives.Failure("Can only sort a list of numbers or a list of strings.");
+            }
+        }
+        Arrays.sort(values, 0, size);
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < size; i++)
+        {
+            if (i > 0) builder.append(", ");
+            Object value = get(i);
+            builder.append(value == this ? "[...]" : Interpreter.stringify(value));
+        }
+        return builder.append(']').toString();
+    }
+}
@@ -0,0 +1,315 @@
+package com.craftinginterpreters.lox;
+
+/*
+The value behind map().
+
+Keys are numbers or strings, and each kind gets its own open addressing table with linear
+probing. Number keys are stored as the bits of the double in a long[], so a numeric key is
+never boxed once it is in the table. Keys compare the way Lox's == does: by Double.equals
+for numbers (NaN finds NaN, 0 and -0 are different keys) and String.equals for strings.
+
+Both tables are power of two sized and at most half full, so probe runs stay short. Empty
+slots are a null value (nil is stored as the NIL marker) or a null key, and delete shifts
+the rest of the run back instead of leaving tombstones, so lookups never slow down after
+lots of deletes.
+
+Iteration order is table order: deterministic, but not insertion order.
+ */
+class LoxMap
+{
+    private static final Object NIL = new Object();
+    private static final int MIN_CAPACITY = 8;
+
+    private long[] numberKeys = new long[MIN_CAPACITY];
+    private Object[] numberValues = new Object[MIN_CAPACITY];
+    private int numberCount;
+
+    private String[] stringKeys = new String[MIN_CAPACITY];
+    private Object[] stringValues = new Object[MIN_CAPACITY];
+    // Each key's hash, so a probe only calls equals() on a likely match
+    private int[] stringHashes = new int[MIN_CAPACITY];
+    private int stringCount;
+
+    int size()
+    {
+        return numberCount + stringCount;
+    }
+
+    // Callers check the key is a number or a String first. Long keys are stored as the
+    // equal double, which is what == says they are.
+    Object get(Object key)
+    {
+        return key instanceof String ? get((String) key) : get(LoxNumbers.toDouble(key));
+    }
+
+    void put(Object key, Object value)
+    {
+        if (key instanceof String) put((String) key, value);
+        else put(LoxNumbers.toDouble(key), value);
+    }
+
+    boolean containsKey(Object key)
+    {
+        return key instanceof String
+                ? stringSlot((String) key) >= 0
+                : numberSlot(Double.doubleToLongBits(LoxNumbers.toDouble(key))) >= 0;
+    }
+
+    boolean remove(Object key)
+    {
+        if (!(key instanceof String))
+        {
+            int slot = numberSlot(Double.doubleToLongBits(LoxNumbers.toDouble(key)));
+            if (slot < 0) return false;
+            removeNumber(slot);
+        }
+        else
+        {
+            int slot = stringSlot((String) key);
+            if (slot < 0) return false;
+            removeString(slot);
+        }
+        return true;
+    }
+
+    Object get(double key)
+    {
+        int slot = numberSlot(Double.doubleToLongBits(key));
+        return slot < 0 ? null : unwrap(numberValues[slot]);
+    }
+
+    Object get(String key)
+    {
+        int slot = stringSlot(key);
+        return slot < 0 ? null : unwrap(stringValues[slot]);
+    }
+
+    void put(double key, Object value)
+    {
+        long bits = Double.doubleToLongBits(key);
+        int mask = numberKeys.length - 1;
+        int slot = hash(bits) & mask;
+        while (numberValues[slot] != null)
+        {
+            if (numberKeys[slot] == bits)
+            {
+                numberValues[slot] = wrap(value);
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        numberKeys[slot] = bits;
+        numberValues[slot] = wrap(value);
+        if (++numberCount * 2 > numberKeys.length) growNumbers();
+    }
+
+    void put(String key, Object value)
+    {
+        int mask = stringKeys.length - 1;
+        int hash = hash(key);
+        int slot = hash & mask;
+        String existing;
+        while ((existing = stringKeys[slot]) != null)
+        {
+            if (stringHashes[slot] == hash && existing.equals(key))
+            {
+                stringValues[slot] = wrap(value);
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        stringKeys[slot] = key;
+        stringValues[slot] = wrap(value);
+        stringHashes[slot] = hash;
+        if (++stringCount * 2 > stringKeys.length) growStrings();
+    }
+
+    // Slot holding the key, or -1
+    private int numberSlot(long bits)
+    {
+        int mask = numberKeys.length - 1;
+        int slot = hash(bits) & mask;
+        while (numberValues[slot] != null)
+        {
+            if (numberKeys[slot] == bits) return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int stringSlot(String key)
+    {
+        int mask = stringKeys.length - 1;
+        int hash = hash(key);
+        int slot = hash & mask;
+        String existing;
+        while ((existing = stringKeys[slot]) != null)
+        {
+            if (stringHashes[slot] == hash && existing.equals(key)) return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    // Backward shift: walk the rest of the run and pull back every entry whose home slot
+    // is not between the hole and where it sits now, so no probe ever crosses a gap.
+    private void removeNumber(int hole)
+    {
+        int mask = numberKeys.length - 1;
+        int slot = hole;
+        while (true)
+        {
+            slot = (slot + 1) & mask;
+            if (numberValues[slot] == null) break;
+            int home = hash(numberKeys[slot]) & mask;
+            if (((slot - home) & mask) >= ((slot - hole) & mask))
+            {
+                numberKeys[hole] = numberKeys[slot];
+                numberValues[hole] = numberValues[slot];
+                hole = slot;
+            }
+        }
+        numberValues[hole] = null;
+        numberCount--;
+    }
+
+    private void removeString(int hole)
+    {
+        int mask = stringKeys.length - 1;
+        int slot = hole;
+        while (true)
+        {
+            slot = (slot + 1) & mask;
+            if (stringKeys[slot] == null) break;
+            int home = stringHashes[slot] & mask;
+            if (((slot - home) & mask) >= ((slot - hole) & mask))
+            {
+                stringKeys[hole] = stringKeys[slot];
+                stringValues[hole] = stringValues[slot];
+                stringHashes[hole] = stringHashes[slot];
+                hole = slot;
+            }
+        }
+        stringKeys[hole] = null;
+        stringValues[hole] = null;
+        stringCount--;
+    }
+
+    private void growNumbers()
+    {
+        long[] keys = numberKeys;
+        Object[] values = numberValues;
+        numberKeys = new long[keys.length * 2];
+        numberValues = new Object[keys.length * 2];
+        int mask = numberKeys.length - 1;
+        for (int i = 0; i < keys.length; i++)
+        {
+            if (values[i] == null) continue;
+            int slot = hash(keys[i]) & mask;
+            while (numberValues[slot] != null) slot = (slot + 1) & mask;
+            numberKeys[slot] = keys[i];
+            numberValues[slot] = values[i];
+        }
+    }
+
+    private void growStrings()
+    {
+        String[] keys = stringKeys;
+        Object[] values = stringValues;
+        int[] hashes = stringHashes;
+        stringKeys = new String[keys.length * 2];
+        stringValues = new Object[keys.length * 2];
+        stringHashes = new int[keys.length * 2];
+        int mask = stringKeys.length - 1;
+        for (int i = 0; i < keys.length; i++)
+        {
+            if (keys[i] == null) continue;
+            int slot = hashes[i] & mask;
+            while (stringKeys[slot] != null) slot = (slot + 1) & mask;
+            stringKeys[slot] = keys[i];
+            stringValues[slot] = values[i];
+            stringHashes[slot] = hashes[i];
+        }
+    }
+
+    // Small integers are the most common numeric keys and their bits only differ at the top,
+    // while the table masks off the bottom. Fold the top down, multiply to spread it back up,
+    // and fold again (the first half of MurmurHash3's finalizer).
+    private static int hash(long bits)
+    {
+        bits ^= bits >>> 33;
+        bits *= 0xFF51AFD7ED558CCDL;
+        bits ^= bits >>> 33;
+        return (int) bits;
+    }
+
+    private static int hash(String key)
+    {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static Object wrap(Object value)
+    {
+        return value == null ? NIL : value;
+    }
+
+    private static Object unwrap(Object value)
+    {
+        return value == NIL ? null : value;
+    }
+
+    LoxList keys()
+    {
+        LoxList keys = new LoxList(size());
+        for (int i = 0; i < numberKeys.length; i++)
+        {
+            if (numberValues[i] != null) keys.append(Double.longBitsToDouble(numberKeys[i]));
+        }
+        for (String key : stringKeys)
+        {
+            if (key != null) keys.append(key);
+        }
+        return keys;
+    }
+
+    // Same order as keys()
+    LoxList values()
+    {
+        LoxList values = new LoxList(size());
+        for (Object value : numberValues)
+        {
+            if (value != null) values.append(unwrap(value));
+        }
+        for (int i = 0; i < stringKeys.length; i++)
+        {
+            if (stringKeys[i] != null) values.append(unwrap(stringValues[i]));
+        }
+        return values;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder("{");
+        for (int i = 0; i < numberKeys.length; i++)
+        {
+            if (numberValues[i] == null) continue;
+            if (builder.length() > 1) builder.append(", ");
+            builder.append(Interpreter.stringify(Double.longBitsToDouble(numberKeys[i]))).append(": ")
+                    .append(format(unwrap(numberValues[i])));
+        }
+        for (int i = 0; i < stringKeys.length; i++)
+        {
+            if (stringKeys[i] == null) continue;
+            if (builder.length() > 1) builder.append(", ");
+            builder.append(stringKeys[i]).append(": ").append(format(unwrap(stringValues[i])));
+        }
+        return builder.append('}').toString();
+    }
+
+    private String format(Object value)
+    {
+        return value == this ? "{...}" : Interpreter.stringify(value);
+    }
+}
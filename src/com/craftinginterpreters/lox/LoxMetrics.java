@@ -0,0 +1,239 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/*
+Process wide counters behind the LoxMetricsMXBean.
+
+Everything is a LongAdder (or an array of them), which stripes its cells per thread, so
+interpreters running on many threads never fight over one cache line. The interpreter
+itself counts statements and environments in plain fields while it runs and adds them
+here once per script, so the per statement cost is one field increment.
+
+Latencies go into LatencyHistogram, log-linear buckets that keep percentiles within
+about 12% without storing any samples.
+
+Runtime errors are counted by kind, their message with whatever was in quotes (a variable's
+name, mostly) blanked out, and only the first MAX_ERROR_KINDS kinds get a row of their own.
+A long running host sees every name scripts ever got wrong, and those would otherwise each
+keep an entry forever.
+ */
+final class LoxMetrics implements LoxMetricsMXBean
+{
+    static final LoxMetrics INSTANCE = new LoxMetrics();
+    static final String OBJECT_NAME = "com.craftinginterpreters.lox:type=Metrics";
+
+    static
+    {
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        }
+        catch (JMException | SecurityException e)
+        {
+            // Metrics still count, they just are not visible over JMX
+        }
+    }
+
+    final LongAdder scriptsExecuted = new LongAdder();
+    final LongAdder tokensScanned = new LongAdder();
+    final LongAdder statementsExecuted = new LongAdder();
+    final LongAdder runtimeErrors = new LongAdder();
+    final LongAdder environmentAllocations = new LongAdder();
+    final LongAdder outputCharacters = new LongAdder();
+    private final ConcurrentHashMap<String, LongAdder> runtimeErrorsByMessage = new ConcurrentHashMap<>();
+
+    static final int MAX_ERROR_KINDS = 256;
+    static final String OTHER_ERRORS = "(other)";
+    private static final Pattern QUOTED = Pattern.compile("'[^']*'");
+
+    final LatencyHistogram scanLatency = new LatencyHistogram();
+    final LatencyHistogram parseLatency = new LatencyHistogram();
+    final LatencyHistogram executeLatency = new LatencyHistogram();
+
+    private LoxMetrics() {}
+
+    void runtimeError(RuntimeError error)
+    {
+        runtimeErrors.increment();
+        String kind = QUOTED.matcher(error.getMessage()).replaceAll("'_'");
+        LongAdder count = runtimeErrorsByMessage.get(kind);
+        if (count == null)
+        {
+            // Threads racing past the check can go a few over, never without bound
+            if (runtimeErrorsByMessage.size() >= MAX_ERROR_KINDS) kind = OTHER_ERRORS;
+            count = runtimeErrorsByMessage.computeIfAbsent(kind, key -> new LongAdder());
+        }
+        count.increment();
+    }
+
+    @Override
+    public long getScriptsExecuted()
+    {
+        return scriptsExecuted.sum();
+    }
+
+    @Override
+    public long getTokensScanned()
+    {
+        return tokensScanned.sum();
+    }
+
+    @Override
+    public long getStatementsExecuted()
+    {
+        return statementsExecuted.sum();
+    }
+
+    @Override
+    public long getRuntimeErrors()
+    {
+        return runtimeErrors.sum();
+    }
+
+    @Override
+    public Map<String, Long> getRuntimeErrorsByMessage()
+    {
+        Map<String, Long> counts = new TreeMap<>();
+        runtimeErrorsByMessage.forEach((message, count) -> counts.put(message, count.sum()));
+        return counts;
+    }
+
+    @Override
+    public long getEnvironmentAllocations()
+    {
+        return environmentAllocations.sum();
+    }
+
+    @Override
+    public long getOutputCharacters()
+    {
+        return outputCharacters.sum();
+    }
+
+    @Override
+    public double getScanP50Micros()
+    {
+        return scanLatency.percentile(0.50) / 1e3;
+    }
+
+    @Override
+    public double getScanP99Micros()
+    {
+        return scanLatency.percentile(0.99) / 1e3;
+    }
+
+    @Override
+    public double getParseP50Micros()
+    {
+        return parseLatency.percentile(0.50) / 1e3;
+    }
+
+    @Override
+    public double getParseP99Micros()
+    {
+        return parseLatency.percentile(0.99) / 1e3;
+    }
+
+    @Override
+    public double getExecuteP50Micros()
+    {
+        return executeLatency.percentile(0.50) / 1e3;
+    }
+
+    @Override
+    public double getExecuteP99Micros()
+    {
+        return executeLatency.percentile(0.99) / 1e3;
+    }
+
+    @Override
+    public void reset()
+    {
+        scriptsExecuted.reset();
+        tokensScanned.reset();
+        statementsExecuted.reset();
+        runtimeErrors.reset();
+        environmentAllocations.reset();
+        outputCharacters.reset();
+        runtimeErrorsByMessage.clear();
+        scanLatency.reset();
+        parseLatency.reset();
+        executeLatency.reset();
+    }
+
+    /*
+    Each power of two range of nanoseconds is split into SUB_BUCKETS equal parts, so a
+    bucket is never wider than 1/SUB_BUCKETS of its lower bound. Recording is a couple of
+    bit operations and one LongAdder increment.
+     */
+    static final class LatencyHistogram
+    {
+        private static final int SUB_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+        private final LongAdder[] counts = new LongAdder[BUCKETS];
+
+        LatencyHistogram()
+        {
+            for (int i = 0; i < BUCKETS; i++) counts[i] = new LongAdder();
+        }
+
+        void record(long nanos)
+        {
+            counts[index(Math.max(0, nanos))].increment();
+        }
+
+        private static int index(long value)
+        {
+            if (value < SUB_BUCKETS) return (int) value;
+            int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+            int sub = (int) (value >>> exponent) & (SUB_BUCKETS - 1);
+            return (exponent + 1) * SUB_BUCKETS + sub;
+        }
+
+        // Lowest value that lands in the bucket, what percentile() reports
+        private static long lowerBound(int index)
+        {
+            if (index < SUB_BUCKETS) return index;
+            int exponent = index / SUB_BUCKETS - 1;
+            long sub = index % SUB_BUCKETS;
+            return (SUB_BUCKETS | sub) << exponent;
+        }
+
+        long percentile(double fraction)
+        {
+            long[] snapshot = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++)
+            {
+                snapshot[i] = counts[i].sum();
+                total += snapshot[i];
+            }
+            if (total == 0) return 0;
+
+            long rank = (long) Math.ceil(fraction * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++)
+            {
+                seen += snapshot[i];
+                if (seen >= rank) return lowerBound(i);
+            }
+            return lowerBound(BUCKETS - 1);
+        }
+
+        void reset()
+        {
+            for (LongAdder count : counts) count.reset();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Map;
+
+// Live counters for long running hosts, registered as com.craftinginterpreters.lox:type=Metrics.
+public interface LoxMetricsMXBean
+{
+    long getScriptsExecuted();
+    long getTokensScanned();
+    long getStatementsExecuted();
+    long getRuntimeErrors();
+    Map<String, Long> getRuntimeErrorsByMessage();
+    long getEnvironmentAllocations();
+    // Characters written by print, which is the byte count for ASCII output
+    long getOutputCharacters();
+
+    double getScanP50Micros();
+    double getScanP99Micros();
+    double getParseP50Micros();
+    double getParseP99Micros();
+    double getExecuteP50Micros();
+    double getExecuteP99Micros();
+
+    void reset();
+}
@@ -0,0 +1,109 @@
+package com.craftinginterpreters.lox;
+
+/*
+Lox has one number type, but whole numbers don't have to be doubles underneath.
+
+Integer literals and the results of + - * on two integers are kept as Longs, everything
+else (a literal with a fraction, division, anything mixed with a double) is a Double like
+before. A Long is only ever a value a double could hold exactly: once a result leaves
+±2^53 it becomes the double the old arithmetic would have produced, so the two
+representations never disagree about a value and no script can tell them apart:
+
+    stringify    a Long prints the way the equal double printed (1e7 and up in E notation)
+    ==           a Long equals a Double with the same value, -0 is always a Double
+    map keys     normalised to the double, so m[1] and m[1.0] are the same entry
+
+What it buys is counters and indexes that stay in long arithmetic: comparisons without
+conversions, and small values come out of a cache instead of a fresh box every time.
+ */
+final class LoxNumbers
+{
+    // Every long in [-MAX, MAX] is exactly a double, past that doubles skip integers
+    static final long MAX = 1L << 53;
+
+    private static final int CACHE_LOW = -128;
+    private static final int CACHE_HIGH = 1024;
+    private static final Long[] CACHE = new Long[CACHE_HIGH - CACHE_LOW + 1];
+
+    static
+    {
+        for (int i = 0; i < CACHE.length; i++) CACHE[i] = (long) (i + CACHE_LOW);
+    }
+
+    private LoxNumbers() {}
+
+    static boolean isNumber(Object value)
+    {
+        return value instanceof Double || value instanceof Long;
+    }
+
+    // Anything else still fails the cast, same as the old (double) casts did
+    static double toDouble(Object value)
+    {
+        if (value instanceof Long) return (Long) value;
+        return (Double) value;
+    }
+
+    // A whole number result, boxed through the cache, or the double once it is out of range
+    static Object integer(long value)
+    {
+        if (value >= CACHE_LOW && value <= CACHE_HIGH) return CACHE[(int) value - CACHE_LOW];
+        if (value < -MAX || value > MAX) return (double) value;
+        return value;
+    }
+
+    // A number literal's text from the Scanner
+    static Object parse(String text)
+    {
+        if (text.indexOf('.') < 0 && text.length() <= 16)
+        {
+            long value = Long.parseLong(text);
+            if (value <= MAX) return integer(value);
+        }
+        return Double.parseDouble(text);
+    }
+
+    // Both operands are within ±2^53 so none of these can overflow a long, and a result
+    // past 2^53 rounds the same way the double arithmetic would have.
+
+    static Object add(long a, long b)
+    {
+        return integer(a + b);
+    }
+
+    static Object subtract(long a, long b)
+    {
+        return integer(a - b);
+    }
+
+    static Object multiply(long a, long b)
+    {
+        long high = Math.multiplyHigh(a, b);
+        long low = a * b;
+        // Doesn't fit in a long, let the doubles round it
+        if (high != (low >> 63)) return (double) a * (double) b;
+        // 0 * -1 is -0 in double arithmetic, which has to stay visible
+        if (low == 0 && (a < 0 || b < 0)) return -0.0;
+        return integer(low);
+    }
+
+    static Object negate(long value)
+    {
+        if (value == 0) return -0.0;
+        return integer(-value);
+    }
+
+    // Lox == between two numbers: Double.equals on the values, so NaN == NaN and 0 != -0
+    static boolean equal(Object a, Object b)
+    {
+        if (a instanceof Long && b instanceof Long) return ((Long) a).longValue() == (Long) b;
+        return Double.doubleToLongBits(toDouble(a)) == Double.doubleToLongBits(toDouble(b));
+    }
+
+    static String stringify(long value)
+    {
+        // Double.toString switches to E notation at 1e7
+        if (value > -10_000_000 && value < 10_000_000) return Long.toString(value);
+        return Interpreter.stringify((double) value);
+    }
+}
@@ -0,0 +1,260 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.Invocable;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+/*
+javax.script front end for the interpreter.
+
+The ENGINE_SCOPE Bindings become the global Environment and the GLOBAL_SCOPE Bindings the
+scope enclosing it. Environment just wraps the Bindings map, so a value the host puts in is
+what Lox reads and a var the script defines shows up in the Bindings, with no copying in
+either direction. Numbers cross as Doubles: whatever Number the host put in reads as a Lox
+number, and a Lox number comes out as a Double.
+
+Invocable calls a function a script declared, by its name in the engine's context. Lox has
+no objects with methods, so invokeMethod and getInterface(thiz, ...) have nothing to work
+with; getInterface(type) maps each method of the interface to the function of that name.
+ */
+public class LoxScriptEngine extends AbstractScriptEngine implements Compilable, Invocable
+{
+    private final LoxScriptEngineFactory factory;
+    // Imported modules run once per engine, not once per eval
+    private final ModuleCache.Instances modules = new ModuleCache.Instances();
+    // Every script this engine runs can call these
+    HostFunctions hostFunctions = new HostFunctions();
+
+    LoxScriptEngine(LoxScriptEngineFactory factory)
+    {
+        this.factory = factory;
+    }
+
+    public HostFunctions hostFunctions()
+    {
+        return hostFunctions;
+    }
+
+    @Override
+    public Object eval(String script, ScriptContext context) throws ScriptException
+    {
+        return execute(parse(script, context), context);
+    }
+
+    @Override
+    public Object eval(Reader reader, ScriptContext context) throws ScriptException
+    {
+        return eval(read(reader), context);
+    }
+
+    @Override
+    public CompiledScript compile(String script) throws ScriptException
+    {
+        return new Compiled(parse(script, context));
+    }
+
+    @Override
+    public CompiledScript compile(Reader script) throws ScriptException
+    {
+        return compile(read(script));
+    }
+
+    @Override
+    public Bindings createBindings()
+    {
+        return new SimpleBindings();
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory()
+    {
+        return factory;
+    }
+
+    // Numbers sit in the Bindings as Doubles, the same as Environment leaves Lox's own there
+    @Override
+    public void put(String key, Object value)
+    {
+        super.put(key, value instanceof Number && !(value instanceof Double)
+                ? (Object) ((Number) value).doubleValue() : value);
+    }
+
+    private List<Stmt> parse(String script, ScriptContext context) throws ScriptException
+    {
+        ErrorReporter errors = new ErrorReporter(printWriter(context.getErrorWriter()));
+        ErrorReporter previous = Lox.setReporter(errors);
+        try
+        {
+            List<Stmt> statements = Lox.parse(script);
+            if (errors.hadError)
+            {
+                throw new ScriptException(errors.firstMessage, fileName(context), errors.firstLine);
+            }
+            return statements;
+        }
+        finally
+        {
+            Lox.setReporter(previous);
+        }
+    }
+
+    @Override
+    public Object invokeFunction(String name, Object... args) throws ScriptException, NoSuchMethodException
+    {
+        Object function = context.getAttribute(name);
+        if (!(function instanceof LoxCallable)) throw new NoSuchMethodException(name);
+
+        List<Object> arguments = new ArrayList<>(args.length);
+        for (Object argument : args) arguments.add(HostFunctions.toLox(argument));
+        Token paren = new Token(TokenType.RIGHT_PAREN, ")", null, 0);
+        Object result = run(context, interpreter -> interpreter.call(paren, function, arguments));
+        return result instanceof Long ? (Object) LoxNumbers.toDouble(result) : result;
+    }
+
+    @Override
+    public Object invokeMethod(Object thiz, String name, Object... args)
+    {
+        throw new IllegalArgumentException("Lox values have no methods to invoke.");
+    }
+
+    @Override
+    public <T> T getInterface(Class<T> type)
+    {
+        if (type == null || !type.isInterface()) throw new IllegalArgumentException("Not an interface: " + type);
+        for (Method method : type.getMethods())
+        {
+            boolean missing = !(context.getAttribute(method.getName()) instanceof LoxCallable);
+            if (Modifier.isAbstract(method.getModifiers()) && missing) return null;
+        }
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class)
+            {
+                switch (method.getName())
+                {
+                    case "equals": return proxy == args[0];
+                    case "hashCode": return System.identityHashCode(proxy);
+                    default: return "<lox " + type.getName() + ">";
+                }
+            }
+            if (method.isDefault()) return InvocationHandler.invokeDefault(proxy, method, args);
+            return invokeFunction(method.getName(), args == null ? new Object[0] : args);
+        };
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler));
+    }
+
+    @Override
+    public <T> T getInterface(Object thiz, Class<T> type)
+    {
+        throw new IllegalArgumentException("Lox values have no methods to invoke.");
+    }
+
+    private Object execute(List<Stmt> statements, ScriptContext context) throws ScriptException
+    {
+        return run(context, interpreter -> {
+            interpreter.executeAll(statements);
+            return null;
+        });
+    }
+
+    // body runs on a fresh Interpreter over the context's Bindings
+    private Object run(ScriptContext context, Function<Interpreter, Object> body) throws ScriptException
+    {
+        Bindings globalScope = context.getBindings(ScriptContext.GLOBAL_SCOPE);
+        Environment enclosing = globalScope == null ? null : new Environment(globalScope, null);
+        Environment globals = new Environment(context.getBindings(ScriptContext.ENGINE_SCOPE), enclosing);
+
+        PrintWriter out = printWriter(context.getWriter());
+        Interpreter interpreter = new Interpreter(globals, out);
+        interpreter.modules = modules;
+        interpreter.host(hostFunctions);
+        // Imports are relative to the script's file when the host names one
+        Object name = context.getAttribute(ScriptEngine.FILENAME);
+        if (name != null) interpreter.directory = Paths.get(name.toString()).toAbsolutePath().getParent();
+        // An imported module is parsed while the script runs, its syntax errors go to the context too
+        ErrorReporter previous = Lox.setReporter(new ErrorReporter(printWriter(context.getErrorWriter())));
+        try
+        {
+            return body.apply(interpreter);
+        }
+        catch (RuntimeError error)
+        {
+            throw new ScriptException(error.getMessage(), fileName(context), error.token.line);
+        }
+        finally
+        {
+            Lox.setReporter(previous);
+            out.flush();
+        }
+    }
+
+    private static PrintWriter printWriter(Writer writer)
+    {
+        if (writer instanceof PrintWriter) return (PrintWriter) writer;
+        return new PrintWriter(writer, true);
+    }
+
+    private static String fileName(ScriptContext context)
+    {
+        Object name = context.getAttribute(ScriptEngine.FILENAME);
+        return name == null ? "<eval>" : name.toString();
+    }
+
+    private static String read(Reader reader) throws ScriptException
+    {
+        StringBuilder builder = new StringBuilder();
+        char[] buffer = new char[8192];
+        try
+        {
+            int count;
+            while ((count = reader.read(buffer)) != -1) builder.append(buffer, 0, count);
+        }
+        catch (IOException e)
+        {
+            throw new ScriptException(e);
+        }
+        return builder.toString();
+    }
+
+    // Holds on to the parsed statements, so each eval goes straight to the interpreter.
+    private class Compiled extends CompiledScript
+    {
+        private final List<Stmt> statements;
+
+        Compiled(List<Stmt> statements)
+        {
+            this.statements = statements;
+        }
+
+        @Override
+        public Object eval(ScriptContext context) throws ScriptException
+        {
+            return execute(statements, context);
+        }
+
+        @Override
+        public ScriptEngine getEngine()
+        {
+            return LoxScriptEngine.this;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+
+// Found by javax.script.ScriptEngineManager through META-INF/services.
+public class LoxScriptEngineFactory implements ScriptEngineFactory
+{
+    private static final List<String> NAMES = List.of("lox", "jlox", "Lox");
+    private static final List<String> EXTENSIONS = List.of("lox");
+    private static final List<String> MIME_TYPES = List.of("application/x-lox", "text/x-lox");
+
+    @Override
+    public String getEngineName()
+    {
+        return "jlox";
+    }
+
+    @Override
+    public String getEngineVersion()
+    {
+        return "1.0";
+    }
+
+    @Override
+    public List<String> getExtensions()
+    {
+        return EXTENSIONS;
+    }
+
+    @Override
+    public List<String> getMimeTypes()
+    {
+        return MIME_TYPES;
+    }
+
+    @Override
+    public List<String> getNames()
+    {
+        return NAMES;
+    }
+
+    @Override
+    public String getLanguageName()
+    {
+        return "Lox";
+    }
+
+    @Override
+    public String getLanguageVersion()
+    {
+        return "1.0";
+    }
+
+    @Override
+    public Object getParameter(String key)
+    {
+        switch (key)
+        {
+            case ScriptEngine.ENGINE: return getEngineName();
+            case ScriptEngine.ENGINE_VERSION: return getEngineVersion();
+            case ScriptEngine.LANGUAGE: return getLanguageName();
+            case ScriptEngine.LANGUAGE_VERSION: return getLanguageVersion();
+            case ScriptEngine.NAME: return NAMES.get(0);
+            // null is the spec's "not thread safe", and it's deliberate: the default Bindings
+            // are a plain HashMap, and so is the engine's table of imported modules. A host
+            // that runs scripts on several threads wants an engine per thread; spawn inside
+            // a script is fine, that's one eval.
+            case "THREADING": return null;
+            default: return null;
+        }
+    }
+
+    @Override
+    public String getMethodCallSyntax(String obj, String m, String... args)
+    {
+        return obj + "." + m + "(" + String.join(", ", args) + ")";
+    }
+
+    @Override
+    public String getOutputStatement(String toDisplay)
+    {
+        return "print \"" + toDisplay.replace("\"", "") + "\";";
+    }
+
+    @Override
+    public String getProgram(String... statements)
+    {
+        StringBuilder builder = new StringBuilder();
+        for (String statement : statements)
+        {
+            builder.append(statement);
+            if (!statement.trim().endsWith(";") && !statement.trim().endsWith("}")) builder.append(';');
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public ScriptEngine getScriptEngine()
+    {
+        return new LoxScriptEngine(this);
+    }
+}
@@ -0,0 +1,112 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+A function running on its own thread, made by spawn(f) and finished with await(task).
+
+Every task gets a fresh Interpreter that shares the spawner's globals and output, but has
+its own stack, so the function's locals and CallFrames are never seen by another thread.
+What tasks do share: global variables (spawn turns the program's scopes into
+ConcurrentHashMaps, see Environment, so reading and writing them is safe, though x = x + 1
+from two tasks can still lose an update),
+variables closures captured, and lists and maps passed around, which are not synchronized at
+all. Channels are the way to hand values from one task to another.
+
+Threads come from a cached pool of daemon threads with the same big stack the command line
+uses. A task nobody awaits still runs, but the process doesn't wait for it at exit.
+ */
+final class LoxTask
+{
+    private static final ExecutorService THREADS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(null, runnable, "jlox-task", Lox.STACK_MEGABYTES << 20);
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // spawn is not a Natives.Function, it needs the interpreter to fork
+    static final LoxCallable SPAWN = new LoxCallable()
+    {
+        @Override
+        public int arity()
+        {
+            return 1;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments)
+        {
+            Object function = arguments.get(0);
+            if (!(function instanceof LoxCallable) || ((LoxCallable) function).arity() != 0)
+            {
+                throw new Natives.Failure("spawn() takes a function with no parameters.");
+            }
+            // From now on another thread of this program can write a global at any time, so
+            // LoopCompiler stops copying them into loop slots and the scopes become shareable
+            interpreter.environment().spawning();
+            if (function instanceof LoxFunction) ((LoxFunction) function).closure.spawning();
+            return new LoxTask(interpreter.fork(), (LoxCallable) function);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "<native fn spawn>";
+        }
+    };
+
+    private static final Token SPAWN_TOKEN = new Token(TokenType.IDENTIFIER, "spawn", null, 0);
+
+    private final CompletableFuture<Object> result;
+
+    private LoxTask(Interpreter interpreter, LoxCallable function)
+    {
+        result = CompletableFuture.supplyAsync(() -> {
+            try
+            {
+                return interpreter.call(SPAWN_TOKEN, function, List.of());
+            }
+            finally
+            {
+                interpreter.finished();
+            }
+        }, THREADS);
+    }
+
+    // The function's return value. A runtime error in the task becomes one in the awaiter,
+    // anything else the task threw is rethrown as it is.
+    Object await()
+    {
+        try
+        {
+            return result.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new Natives.Failure("await() was interrupted.");
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeError)
+            {
+                RuntimeError error = (RuntimeError) cause;
+                throw new Natives.Failure("Task failed: " + error.getMessage() + " [line " + error.token.line + "]");
+            }
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "<task>";
+    }
+}
@@ -0,0 +1,104 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/*
+Buffered text output, made by writer(path) for a file or console() for wherever print goes.
+
+write(w, x) and writeln(w, x) stringify x the way print does. Nothing reaches the file or
+the interpreter's output until 8 KB have piled up, flush(w) or close(w); a console() writer
+and print share the same sink, so flush before printing if the order matters. Closing an
+console() writer flushes it but leaves the sink open for print.
+ */
+final class LoxWriter
+{
+    // console() is not a Natives.Function, it needs the interpreter's sink
+    static final LoxCallable CONSOLE = new LoxCallable()
+    {
+        @Override
+        public int arity()
+        {
+            return 0;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments)
+        {
+            return new LoxWriter("console", interpreter.out(), false);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "<native fn console>";
+        }
+    };
+
+    private final String name;
+    private final BufferedWriter out;
+    private final boolean ownsSink;
+    private boolean closed;
+
+    LoxWriter(String name, Writer sink, boolean ownsSink)
+    {
+        this.name = name;
+        this.out = new BufferedWriter(sink, 8192);
+        this.ownsSink = ownsSink;
+    }
+
+    void write(String text)
+    {
+        if (closed) throw new Natives.Failure("write() on a closed writer.");
+        try
+        {
+            out.write(text);
+        }
+        catch (IOException e)
+        {
+            throw failure("write", e);
+        }
+    }
+
+    void flush()
+    {
+        if (closed) return;
+        try
+        {
+            out.flush();
+        }
+        catch (IOException e)
+        {
+            throw failure("flush", e);
+        }
+    }
+
+    void close()
+    {
+        if (closed) return;
+        flush();
+        closed = true;
+        if (!ownsSink) return;
+        try
+        {
+            out.close();
+        }
+        catch (IOException e)
+        {
+            throw failure("close", e);
+        }
+    }
+
+    private Natives.Failure failure(String function, IOException e)
+    {
+        return new Natives.Failure(function + "() failed on " + name + ": " + e.getMessage());
+    }
+
+    @Override
+    public String toString()
+    {
+        return "<writer " + name + ">";
+    }
+}
@@ -0,0 +1,102 @@
+package com.craftinginterpreters.lox;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/*
+Compiled modules for import "path";, shared by every interpreter in the process.
+
+A path is looked up next to the importing script first, then in each directory on the
+search path (-Djlox.path=dir1:dir2, File.pathSeparator between them). The first file that
+exists wins and from then on it is known by its real path, so two spellings of the same file
+are one module.
+
+Each module is compiled once: scanned and parsed (or read back from its .loxc) and kept here
+with the SHA-256 of the source it came from. Every import hashes the file again, so an edited
+module gets compiled again and an unchanged one never does. The statements are handed to
+every thread as they are. Nothing in the tree changes after parsing except its run time
+caches (call sites, loop counters, compiled loops), and each of those is a single field write
+that any interpreter can redo.
+
+Running a module is per interpreter, see Instances: its top level runs the first time an
+interpreter imports it, into an Environment of its own, and importers link to that
+Environment instead of copying names out of it.
+ */
+final class ModuleCache
+{
+    static final List<Path> SEARCH_PATH = new CopyOnWriteArrayList<>(searchPath(System.getProperty("jlox.path", "")));
+
+    private static final class Module
+    {
+        final byte[] hash;
+        final List<Stmt> statements;
+
+        Module(byte[] hash, List<Stmt> statements)
+        {
+            this.hash = hash;
+            this.statements = statements;
+        }
+    }
+
+    private static final Map<Path, Module> MODULES = new ConcurrentHashMap<>();
+
+    // The modules one interpreter (or one script engine, across evals) has run, and the
+    // ones it is in the middle of running, which is how a cycle gets noticed
+    static final class Instances
+    {
+        final Map<Path, Environment> loaded = new HashMap<>();
+        final List<Path> importing = new ArrayList<>();
+    }
+
+    private ModuleCache() {}
+
+    private static List<Path> searchPath(String property)
+    {
+        List<Path> directories = new ArrayList<>();
+        for (String directory : property.split(File.pathSeparator))
+        {
+            if (!directory.isEmpty()) directories.add(Paths.get(directory));
+        }
+        return directories;
+    }
+
+    // The real path of the module, or null when no directory has it
+    static Path resolve(String name, Path from) throws IOException
+    {
+        Path candidate = from.resolve(name);
+        if (Files.isRegularFile(candidate)) return candidate.toRealPath();
+        for (Path directory : SEARCH_PATH)
+        {
+            candidate = directory.resolve(name);
+            if (Files.isRegularFile(candidate)) return candidate.toRealPath();
+        }
+        return null;
+    }
+
+    // The module's statements, or null when it has syntax errors, which have been reported
+    static List<Stmt> load(Path file) throws IOException
+    {
+        byte[] bytes = Files.readAllBytes(file);
+        byte[] hash = AstCache.hash(bytes);
+        Module module = MODULES.get(file);
+        if (module != null && Arrays.equals(module.hash, hash)) return module.statements;
+
+        // Two threads can both miss and both compile, the second one just replaces the first
+        int errors = Lox.reporter().syntaxErrors;
+        List<Stmt> statements = Lox.load(file, bytes);
+        if (Lox.reporter().syntaxErrors != errors) return null;
+        statements = List.copyOf(statements);
+        MODULES.put(file, new Module(hash, statements));
+        return statements;
+    }
+}
@@ -0,0 +1,287 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+Functions written in Java that every program can call.
+
+    len(x)              elements in a list, entries in a map, characters in a string
+    append(list, x)     adds x to the end of the list
+    sum(list)           total of a list of numbers, 0 when empty
+    min(list)           smallest number in a non-empty list
+    max(list)           largest number in a non-empty list
+    sort(list)          sorts a list of numbers or of strings in place
+    map()               a new, empty map
+    has(map, key)       whether the key is in the map
+    delete(map, key)    removes the key, true if it was there
+    keys(map)           list of the keys
+    values(map)         list of the values, in the same order as keys()
+    spawn(f)            runs f() on another thread, returns a task (see LoxTask)
+    await(task)         waits for the task, returns what f returned
+    channel(n)          a channel holding up to n values (see LoxChannel)
+    send(channel, x)    puts x in the channel, waits while it is full
+    receive(channel)    takes the oldest value, waits while it is empty, nil once closed
+    close(channel)      no more sends, receivers drain what is left
+    lines(path)         a stream over the lines of a file, decoded as they are read (see LoxFileStream)
+    records(path, sep)  the same, split on a one character separator
+    next(stream)        the next line or record, nil at the end
+    writer(path)        a buffered writer that creates or truncates the file (see LoxWriter)
+    console()           a buffered writer into the same output print uses
+    write(w, x)         writes x the way print shows it
+    writeln(w, x)       the same followed by a newline
+    flush(w)            pushes out whatever the writer has buffered
+    close(x)            closes a channel, a stream or a writer
+
+Paths are relative to the working directory, like any other program's.
+
+They live here rather than in the globals Environment so snapshots and javax.script
+Bindings only ever see what the script defined. Environment.get looks here last, after the
+program's HostFunctions if the host gave it any, which means a program can still shadow any
+of them with its own var.
+ */
+final class Natives
+{
+    // Natives throw this, Interpreter.visitCallExpr adds the call's token and rethrows a RuntimeError
+    static final class Failure extends RuntimeException
+    {
+        Failure(String message)
+        {
+            super(message, null, false, false);
+        }
+    }
+
+    // Only written while the class initializes
+    private static final Map<String, LoxCallable> FUNCTIONS = new HashMap<>();
+
+    static
+    {
+        define("len", 1, arguments -> {
+            Object value = arguments.get(0);
+            if (value instanceof LoxList) return LoxNumbers.integer(((LoxList) value).size());
+            if (value instanceof LoxMap) return LoxNumbers.integer(((LoxMap) value).size());
+            if (value instanceof String) return LoxNumbers.integer(((String) value).length());
+            throw new Failure("len() takes a list, a map or a string.");
+        });
+        define("append", 2, arguments -> {
+            list("append", arguments.get(0)).append(arguments.get(1));
+            return null;
+        });
+        define("sum", 1, arguments -> list("sum", arguments.get(0)).sum());
+        define("min", 1, arguments -> nonEmpty("min", arguments.get(0)).min());
+        define("max", 1, arguments -> nonEmpty("max", arguments.get(0)).max());
+        define("sort", 1, arguments -> {
+            list("sort", arguments.get(0)).sort();
+            return null;
+        });
+        define("map", 0, arguments -> new LoxMap());
+        define("has", 2, arguments -> map("has", arguments.get(0)).containsKey(key("has", arguments.get(1))));
+        define("delete", 2, arguments -> map("delete", arguments.get(0)).remove(key("delete", arguments.get(1))));
+        define("keys", 1, arguments -> map("keys", arguments.get(0)).keys());
+        define("values", 1, arguments -> map("values", arguments.get(0)).values());
+        define("spawn", LoxTask.SPAWN);
+        defineWaiting("await", 1, arguments -> {
+            if (arguments.get(0) instanceof LoxTask) return ((LoxTask) arguments.get(0)).await();
+            throw new Failure("await() takes a task.");
+        });
+        define("channel", 1, arguments -> {
+            Object capacity = arguments.get(0);
+            if (LoxNumbers.isNumber(capacity))
+            {
+                double value = LoxNumbers.toDouble(capacity);
+                if (value >= 1 && value <= Integer.MAX_VALUE && value == Math.floor(value))
+                {
+                    return new LoxChannel((int) value);
+                }
+            }
+            throw new Failure("channel() takes a whole number capacity of at least 1.");
+        });
+        defineWaiting("send", 2, arguments -> {
+            channel("send", arguments.get(0)).send(arguments.get(1));
+            return null;
+        });
+        defineWaiting("receive", 1, arguments -> channel("receive", arguments.get(0)).receive());
+        defineWaiting("close", 1, arguments -> {
+            Object value = arguments.get(0);
+            if (value instanceof LoxChannel) ((LoxChannel) value).close();
+            else if (value instanceof LoxFileStream) ((LoxFileStream) value).close();
+            else if (value instanceof LoxWriter) ((LoxWriter) value).close();
+            else throw new Failure("close() takes a channel, a stream or a writer.");
+            return null;
+        });
+
+        define("lines", 1, arguments -> stream("lines", arguments.get(0), (byte) '\n', true));
+        define("records", 2, arguments -> {
+            Object separator = arguments.get(1);
+            if (!(separator instanceof String) || ((String) separator).length() != 1 || ((String) separator).charAt(0) > 127)
+            {
+                throw new Failure("records() takes a one character ASCII separator.");
+            }
+            return stream("records", arguments.get(0), (byte) ((String) separator).charAt(0), false);
+        });
+        define("next", 1, arguments -> {
+            if (arguments.get(0) instanceof LoxFileStream) return ((LoxFileStream) arguments.get(0)).next();
+            throw new Failure("next() takes a stream.");
+        });
+        define("writer", 1, arguments -> {
+            Path path = path("writer", arguments.get(0));
+            try
+            {
+                return new LoxWriter(path.toString(), Files.newBufferedWriter(path, StandardCharsets.UTF_8), true);
+            }
+            catch (IOException e)
+            {
+                throw new Failure("writer() could not open " + path + ": " + e.getClass().getSimpleName());
+            }
+        });
+        define("console", LoxWriter.CONSOLE);
+        define("write", 2, arguments -> {
+            writer("write", arguments.get(0)).write(Interpreter.stringify(arguments.get(1)));
+            return null;
+        });
+        define("writeln", 2, arguments -> {
+            LoxWriter writer = writer("writeln", arguments.get(0));
+            writer.write(Interpreter.stringify(arguments.get(1)));
+            writer.write(System.lineSeparator());
+            return null;
+        });
+        define("flush", 1, arguments -> {
+            writer("flush", arguments.get(0)).flush();
+            return null;
+        });
+    }
+
+    private Natives() {}
+
+    static Object lookup(String name)
+    {
+        return FUNCTIONS.get(name);
+    }
+
+    private static void define(String name, LoxCallable function)
+    {
+        FUNCTIONS.put(name, function);
+    }
+
+    // Functions that cannot see the caller's variables, see Function below. The ones that
+    // wait on other tasks don't count: whatever another task wrote before handing over a
+    // value has to be visible after the call, so LoopCompiler can't keep globals in slots.
+    static boolean isNative(Object value)
+    {
+        if (value instanceof Function) return !((Function) value).waits;
+        return value instanceof HostFunctions.HostFunction;
+    }
+
+    private interface Body
+    {
+        Object call(List<Object> arguments);
+    }
+
+    private static void define(String name, int arity, Body body)
+    {
+        define(name, new Function(name, arity, body, false));
+    }
+
+    private static void defineWaiting(String name, int arity, Body body)
+    {
+        define(name, new Function(name, arity, body, true));
+    }
+
+    // Natives never look at the caller's variables, which is what lets LoopCompiler keep
+    // them in slots across a call
+    static final class Function implements LoxCallable
+    {
+        private final String name;
+        private final int arity;
+        private final Body body;
+        final boolean waits;
+
+        Function(String name, int arity, Body body, boolean waits)
+        {
+            this.name = name;
+            this.arity = arity;
+            this.body = body;
+            this.waits = waits;
+        }
+
+        @Override
+        public int arity()
+        {
+            return arity;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments)
+        {
+            return body.call(arguments);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "<native fn " + name + ">";
+        }
+    }
+
+    private static LoxList list(String function, Object value)
+    {
+        if (value instanceof LoxList) return (LoxList) value;
+        throw new Failure(function + "() takes a list.");
+    }
+
+    private static Path path(String function, Object value)
+    {
+        if (value instanceof String) return Paths.get((String) value);
+        throw new Failure(function + "() takes a path string.");
+    }
+
+    private static LoxFileStream stream(String function, Object file, byte separator, boolean lines)
+    {
+        Path path = path(function, file);
+        try
+        {
+            return new LoxFileStream(path, separator, lines);
+        }
+        catch (IOException e)
+        {
+            throw new Failure(function + "() could not open " + path + ": " + e.getClass().getSimpleName());
+        }
+    }
+
+    private static LoxWriter writer(String function, Object value)
+    {
+        if (value instanceof LoxWriter) return (LoxWriter) value;
+        throw new Failure(function + "() takes a writer.");
+    }
+
+    private static LoxChannel channel(String function, Object value)
+    {
+        if (value instanceof LoxChannel) return (LoxChannel) value;
+        throw new Failure(function + "() takes a channel.");
+    }
+
+    private static LoxMap map(String function, Object value)
+    {
+        if (value instanceof LoxMap) return (LoxMap) value;
+        throw new Failure(function + "() takes a map.");
+    }
+
+    private static Object key(String function, Object key)
+    {
+        if (LoxNumbers.isNumber(key) || key instanceof String) return key;
+        throw new Failure(function + "() takes a number or string key.");
+    }
+
+    private static LoxList nonEmpty(String function, Object value)
+    {
+        LoxList list = list(function, value);
+        if (list.size() == 0) throw new Failure(function + "() of an empty list.");
+        return list;
+    }
+}
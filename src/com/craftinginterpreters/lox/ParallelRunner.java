@@ -0,0 +1,625 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+Runs a script's top level statements on several threads (Interpreter.parallelism, from
+-Djlox.parallel=n or jlox --parallel n), with the same output and the same first runtime
+error as running them one after another.
+
+First each statement gets the global names it reads and writes, from a walk over its tree.
+A call to a function declared at top level adds whatever the function, and everything it
+calls, reads. The natives that only look at their arguments and return something new (len,
+sum, min, max, map, has, keys, values) add nothing. A statement then waits for one earlier
+statement: the last one to write a name it reads. Anything the walk can't see through makes
+the statement a barrier, which waits for every earlier statement and every later one waits
+for it:
+
+    fun and import at top level, a function declared in a top level block
+    calling anything else: a function in a variable, a native that mutates, waits or does I/O
+    storing into a list or map, a[i] = x
+    calling a function that assigns a global, or one that reads a global the statement writes
+
+A statement is ready once what it waits for has committed, and helper threads take ready
+statements to run ahead of time, if they have a loop or call a Lox function (anything less
+is over before a helper would have woken up) and aren't next in line anyway. A helper runs
+the statement against a scratch scope over the globals, with output going into a buffer,
+so nobody sees what it did yet. The calling thread goes through the statements in order.
+A statement no helper has taken, and every barrier, it runs itself, as usual. For one a
+helper took, it waits for the helper and then commits the statement: its output first,
+then its variables. A statement that failed still commits what it did up to the error,
+then the error is thrown and nothing after it commits. Helpers still running later
+statements by then finish into scratch nobody reads.
+
+Helpers are threads with the same big stack as the one running the script, so recursion
+overflows at the same depth on either. They come from a cached pool like LoxTask's rather
+than a ForkJoinPool, whose workers can't be given a stack size on Java 17.
+ */
+final class ParallelRunner
+{
+    private static final ExecutorService THREADS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(null, runnable, "jlox-parallel", Lox.STACK_MEGABYTES << 20);
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Natives that only read their arguments and return something new
+    private static final Set<String> PURE = Set.of("len", "sum", "min", "max", "map", "has", "keys", "values");
+
+    // A statement a helper may run ahead of time
+    private static final class Task
+    {
+        final Stmt statement;
+        // The statement that has to commit before this one can start, -1 for none
+        final int after;
+        // The next task that can start once the same statement has committed
+        Task next;
+        // Whoever sets this runs the statement, a helper or the calling thread
+        final AtomicBoolean taken = new AtomicBoolean();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        // What a helper leaves behind, the latch hands it over
+        Scratch scratch;
+        StringWriter output;
+        Interpreter worker;
+        Throwable failure;
+
+        Task(Stmt statement, int after)
+        {
+            this.statement = statement;
+            this.after = after;
+        }
+    }
+
+    // Tells a helper the run is over
+    private static final Task STOP = new Task(null, -1);
+
+    private ParallelRunner() {}
+
+    static void run(Interpreter interpreter, List<Stmt> statements)
+    {
+        // Read here, the calling thread's environment changes while it runs a block
+        Environment scope = interpreter.environment();
+        // null for the statements the calling thread just runs
+        Task[] tasks = Effects.anyHeavy(statements) ? new Planner(scope).plan(statements) : new Task[0];
+
+        // startable[i + 1]: the tasks that can start once statement i has committed, in order
+        Task[] startable = new Task[tasks.length + 1];
+        int ahead = 0;
+        for (int i = tasks.length - 1; i >= 0; i--)
+        {
+            Task task = tasks[i];
+            if (task == null) continue;
+            task.next = startable[task.after + 1];
+            startable[task.after + 1] = task;
+            ahead++;
+        }
+        if (ahead == 0)
+        {
+            for (Stmt statement : statements) interpreter.execute(statement);
+            return;
+        }
+
+        BlockingQueue<Task> ready = new LinkedBlockingQueue<>();
+        int helpers = Math.min(interpreter.parallelism - 1, ahead);
+        // Helpers read the globals while this thread defines more of them
+        scope.share();
+        for (int i = 0; i < helpers; i++) THREADS.execute(() -> help(interpreter, scope, ready));
+        try
+        {
+            for (Task task = startable[0]; task != null; task = task.next) ready.add(task);
+            for (int i = 0; i < tasks.length; i++)
+            {
+                Task task = tasks[i];
+                if (task == null || task.taken.compareAndSet(false, true)) interpreter.execute(statements.get(i));
+                else commit(interpreter, task);
+                for (Task next = startable[i + 1]; next != null; next = next.next) ready.add(next);
+            }
+        }
+        finally
+        {
+            for (int i = 0; i < helpers; i++) ready.add(STOP);
+        }
+    }
+
+    private static void help(Interpreter interpreter, Environment scope, BlockingQueue<Task> ready)
+    {
+        try
+        {
+            while (true)
+            {
+                Task task = ready.take();
+                if (task == STOP) return;
+                if (task.taken.compareAndSet(false, true)) speculate(interpreter, scope, task);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void speculate(Interpreter interpreter, Environment scope, Task task)
+    {
+        try
+        {
+            task.scratch = new Scratch(scope);
+            task.output = new StringWriter();
+            Interpreter worker = new Interpreter(task.scratch, new PrintWriter(task.output));
+            worker.osrThreshold = interpreter.osrThreshold;
+            worker.directory = interpreter.directory;
+            worker.modules = interpreter.modules;
+            task.worker = worker;
+            worker.execute(task.statement);
+        }
+        catch (Throwable failure)
+        {
+            // Whatever running it on the calling thread would have thrown, thrown there at commit
+            task.failure = failure;
+        }
+        finally
+        {
+            task.done.countDown();
+        }
+    }
+
+    private static void commit(Interpreter interpreter, Task task)
+    {
+        boolean interrupted = false;
+        while (task.done.getCount() > 0)
+        {
+            try
+            {
+                task.done.await();
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+
+        if (task.output != null && task.output.getBuffer().length() > 0)
+        {
+            interpreter.out().write(task.output.toString());
+            interpreter.out().flush();
+        }
+        if (task.worker != null) interpreter.absorb(task.worker);
+        if (task.scratch != null) task.scratch.commit();
+
+        Throwable failure = task.failure;
+        if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+        if (failure instanceof Error) throw (Error) failure;
+    }
+
+    // The globals as one statement sees them while it runs ahead: reads fall through to the
+    // scope below, declarations and assignments stay here until commit() hands them on.
+    // Owning every name the scope below has sends compiled loops' writes here as well.
+    private static final class Scratch extends Environment
+    {
+        // Names the statement declared, and names it assigned further down before declaring
+        // them here, with the last value they got. Only the helper touches these until commit.
+        private final Set<String> declared = new LinkedHashSet<>();
+        private final Map<String, Object> assigned = new LinkedHashMap<>();
+
+        Scratch(Environment scope)
+        {
+            super(scope);
+        }
+
+        private boolean holds(String name)
+        {
+            return declared.contains(name) || assigned.containsKey(name);
+        }
+
+        @Override
+        void define(String name, Object value)
+        {
+            declared.add(name);
+            super.define(name, value);
+        }
+
+        @Override
+        void assign(Token name, Object value)
+        {
+            // Nothing has it, let Environment throw the usual "Undefined variable"
+            if (owner(name.lexeme) == null) super.assign(name, value);
+            else write(name.lexeme, value);
+        }
+
+        @Override
+        void write(String name, Object value)
+        {
+            if (!declared.contains(name)) assigned.put(name, value);
+            super.define(name, value);
+        }
+
+        @Override
+        Environment owner(String name)
+        {
+            return holds(name) || enclosing.owner(name) != null ? this : null;
+        }
+
+        @Override
+        Object read(String name)
+        {
+            if (holds(name)) return super.read(name);
+            Environment owner = enclosing.owner(name);
+            return owner == null ? null : owner.read(name);
+        }
+
+        void commit()
+        {
+            for (Map.Entry<String, Object> entry : assigned.entrySet())
+            {
+                enclosing.owner(entry.getKey()).write(entry.getKey(), entry.getValue());
+            }
+            for (String name : declared) enclosing.define(name, super.read(name));
+        }
+    }
+
+    // Works out what every statement waits for
+    private static final class Planner
+    {
+        private final Environment scope;
+        // Functions declared at top level exactly once, and never assigned or shadowed
+        private final Map<String, Stmt.Function> functions = new HashMap<>();
+        private final Map<Stmt.Function, Effects> bodies = new IdentityHashMap<>();
+
+        Planner(Environment scope)
+        {
+            this.scope = scope;
+        }
+
+        Task[] plan(List<Stmt> statements)
+        {
+            Effects[] effects = new Effects[statements.size()];
+            Set<String> rebound = new HashSet<>();
+            for (int i = 0; i < effects.length; i++)
+            {
+                Stmt statement = statements.get(i);
+                effects[i] = Effects.of(statement);
+                rebound.addAll(effects[i].writes);
+                if (statement instanceof Stmt.Function)
+                {
+                    String name = ((Stmt.Function) statement).name.lexeme;
+                    if (functions.put(name, (Stmt.Function) statement) != null || scope.owner(name) != null)
+                    {
+                        rebound.add(name);
+                    }
+                }
+            }
+            for (Stmt.Function function : functions.values()) rebound.addAll(body(function).writes);
+            functions.keySet().removeAll(rebound);
+
+            Task[] tasks = new Task[effects.length];
+            Map<String, Integer> lastWriter = new HashMap<>();
+            int lastBarrier = -1;
+            for (int i = 0; i < tasks.length; i++)
+            {
+                Stmt statement = statements.get(i);
+                Effects effect = effects[i];
+                if (!effect.calls.isEmpty()) follow(effect, rebound);
+                if (effect.opaque || statement instanceof Stmt.Function || statement instanceof Stmt.Import)
+                {
+                    lastBarrier = i;
+                    continue;
+                }
+
+                int after = lastBarrier;
+                for (String name : effect.reads) after = Math.max(after, lastWriter.getOrDefault(name, -1));
+                for (String name : effect.writes) lastWriter.put(name, i);
+                // When what it waits for is done the calling thread takes it next anyway
+                if (effect.heavy && after < i - 1) tasks[i] = new Task(statement, after);
+            }
+            return tasks;
+        }
+
+        private Effects body(Stmt.Function function)
+        {
+            return bodies.computeIfAbsent(function, key -> Effects.of(key.body));
+        }
+
+        // Adds what the functions a statement calls read, following their calls in turn
+        private void follow(Effects effects, Set<String> rebound)
+        {
+            Set<String> reads = new HashSet<>();
+            Set<String> seen = new HashSet<>();
+            Deque<String> pending = new ArrayDeque<>(effects.calls);
+            while (!pending.isEmpty() && !effects.opaque)
+            {
+                String name = pending.pop();
+                if (!seen.add(name)) continue;
+                Stmt.Function function = functions.get(name);
+                if (function == null)
+                {
+                    boolean pure = PURE.contains(name) && !rebound.contains(name) && scope.owner(name) == null
+                            && Natives.lookup(name) instanceof Natives.Function;
+                    if (!pure) effects.opaque = true;
+                    continue;
+                }
+                effects.heavy = true;
+                Effects body = body(function);
+                if (body.opaque || !body.writes.isEmpty()) effects.opaque = true;
+                reads.addAll(body.reads);
+                pending.addAll(body.calls);
+            }
+            // A called function reads the real globals, not the statement's scratch
+            if (!Collections.disjoint(reads, effects.writes)) effects.opaque = true;
+            for (String name : reads) effects.reads = effects.add(effects.reads, name);
+        }
+    }
+
+    // The global names some code reads, writes and calls, from a walk over its tree
+    private static final class Effects implements Expr.Visitor<Void>, Stmt.Visitor<Void>
+    {
+        // Made on the first add, most statements only need one or two of these
+        Set<String> reads = Collections.emptySet();
+        Set<String> writes = Collections.emptySet();
+        Set<String> calls = Collections.emptySet();
+        // Something that can't run ahead, see the comment at the top
+        boolean opaque;
+        // Has a loop or calls a Lox function. Anything else is over quicker than it takes to
+        // hand it to a helper.
+        boolean heavy;
+        // Walking a function's body, where nested functions are just part of it
+        private final boolean inFunction;
+        // Only looking for loops and calls, see anyHeavy
+        private final boolean weighing;
+        // Names declared by the blocks we're in, innermost last. Top level blocks keep their
+        // variables in Environments too, but nothing outside the block can see those.
+        private List<Set<String>> blocks;
+
+        private Effects(boolean inFunction, boolean weighing)
+        {
+            this.inFunction = inFunction;
+            this.weighing = weighing;
+        }
+
+        // Whether any of statements might be worth a helper. Most generated scripts are all
+        // definitions and arithmetic, and they skip planning with one walk and no garbage.
+        static boolean anyHeavy(List<Stmt> statements)
+        {
+            Effects weigher = new Effects(false, true);
+            for (Stmt statement : statements)
+            {
+                statement.accept(weigher);
+                if (weigher.heavy) return true;
+            }
+            return false;
+        }
+
+        // A top level statement
+        static Effects of(Stmt statement)
+        {
+            Effects effects = new Effects(false, false);
+            statement.accept(effects);
+            return effects;
+        }
+
+        // A function's body
+        static Effects of(List<Stmt> body)
+        {
+            Effects effects = new Effects(true, false);
+            effects.stmts(body);
+            return effects;
+        }
+
+        private Set<String> add(Set<String> names, String name)
+        {
+            if (weighing) return names;
+            if (names.isEmpty()) names = new HashSet<>(4);
+            names.add(name);
+            return names;
+        }
+
+        private void stmts(List<Stmt> statements)
+        {
+            for (Stmt stmt : statements) stmt.accept(this);
+        }
+
+        private void expr(Expr expr)
+        {
+            if (expr != null) expr.accept(this);
+        }
+
+        // Whether name is one of the globals, not declared in a block around here
+        private boolean global(String name)
+        {
+            if (blocks == null || weighing) return true;
+            for (Set<String> block : blocks)
+            {
+                if (block.contains(name)) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt)
+        {
+            if (weighing)
+            {
+                stmts(stmt.statements);
+                return null;
+            }
+            if (blocks == null) blocks = new ArrayList<>();
+            blocks.add(new HashSet<>());
+            stmts(stmt.statements);
+            blocks.remove(blocks.size() - 1);
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt)
+        {
+            expr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt)
+        {
+            if (!inFunction) opaque = true;
+            else stmts(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt)
+        {
+            expr(stmt.condition);
+            stmt.thenBranch.accept(this);
+            if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitImportStmt(Stmt.Import stmt)
+        {
+            opaque = true;
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt)
+        {
+            expr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt)
+        {
+            expr(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt)
+        {
+            expr(stmt.initializer);
+            if (stmt.scope != Resolver.ENVIRONMENT || weighing) return null;
+            if (blocks == null || blocks.isEmpty()) writes = add(writes, stmt.name.lexeme);
+            else blocks.get(blocks.size() - 1).add(stmt.name.lexeme);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt)
+        {
+            heavy = true;
+            expr(stmt.condition);
+            stmt.body.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr)
+        {
+            expr(expr.value);
+            if (expr.scope == Resolver.ENVIRONMENT && global(expr.name.lexeme))
+            {
+                // Assigning needs the variable to exist already, so it waits like a read
+                reads = add(reads, expr.name.lexeme);
+                writes = add(writes, expr.name.lexeme);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr)
+        {
+            expr(expr.left);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr)
+        {
+            // Which function it is gets worked out later, for now any call might be worth it
+            if (weighing) heavy = true;
+            Expr callee = expr.callee;
+            if (callee instanceof Expr.Variable && ((Expr.Variable) callee).scope == Resolver.ENVIRONMENT
+                    && global(((Expr.Variable) callee).name.lexeme))
+            {
+                calls = add(calls, ((Expr.Variable) callee).name.lexeme);
+            }
+            else
+            {
+                opaque = true;
+            }
+            expr(expr.callee);
+            for (Expr argument : expr.arguments) expr(argument);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr)
+        {
+            expr(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitIndexExpr(Expr.Index expr)
+        {
+            expr(expr.object);
+            expr(expr.index);
+            return null;
+        }
+
+        @Override
+        public Void visitListLiteralExpr(Expr.ListLiteral expr)
+        {
+            for (Expr element : expr.elements) expr(element);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr)
+        {
+            return null;
+        }
+
+        @Override
+        public Void visitSetIndexExpr(Expr.SetIndex expr)
+        {
+            opaque = true;
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr)
+        {
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr)
+        {
+            if (expr.scope == Resolver.ENVIRONMENT && global(expr.name.lexeme)) reads = add(reads, expr.name.lexeme);
+            return null;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.craftinginterpreters.lox;
 import java.util.List;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import java.util.List;
 
@@ -75,6 +76,8 @@ class Parser
     private final List<Token> tokens;
     // Keeps track of the current token we are at
     private int current = 0;
+    // How many fun bodies we are inside, return is only allowed in one
+    private int functionDepth = 0;
     // Used to assign the list of tokens to parse through
     Parser(List<Token> tokens)
     {
@@ -83,12 +86,26 @@ class Parser
 
   List<Stmt> parse()
   {
+      LoxEvents.Parse event = new LoxEvents.Parse();
+      int errorsBefore = event.isEnabled() ? Lox.reporter().syntaxErrors : 0;
+      event.begin();
+      long started = System.nanoTime();
+
       List<Stmt> statements = new ArrayList<>();
       while(!isAtEnd())
       {
         statements.add(declaration());
       }
+      LoxMetrics.INSTANCE.parseLatency.record(System.nanoTime() - started);
 
+      if (event.shouldCommit())
+      {
+          event.source = LoxEvents.source();
+          event.tokens = tokens.size();
+          event.statements = statements.size();
+          event.errors = Lox.reporter().syntaxErrors - errorsBefore;
+          event.commit();
+      }
       return statements;
   }
     // Translating grammar rules into lovely Java code
@@ -101,6 +118,7 @@ class Parser
     private Stmt declaration()
     {
         try{
+            if(match(FUN)) return function("function");
             if(match(VAR)) return varDeclaration();
             return statement();
         }
@@ -112,20 +130,142 @@ class Parser
     }
 
     private Stmt statement(){
+        if(match(FOR)) return forStatement();
+        if(match(IF)) return ifStatement();
+        if(match(IMPORT)) return importStatement();
         if(match(PRINT)) return printStatement();
-        if(match(LEFT_BRACE)) return new Stmt.Block(block());
+        if(match(RETURN)) return returnStatement();
+        if(match(WHILE)) return whileStatement();
+        if(match(LEFT_BRACE))
+        {
+            Token brace = previous();
+            return at(brace, new Stmt.Block(block()));
+        }
         return expressionStatement();
     }
 
+    // for is sugar: the initializer and a while loop in a block of their own, with the
+    // increment run after the body on every pass
+    private Stmt forStatement()
+    {
+        Token keyword = previous();
+        consume(LEFT_PAREN, "Expect '(' after 'for'.");
+
+        Stmt initializer;
+        if (match(SEMICOLON)) initializer = null;
+        else if (match(VAR)) initializer = varDeclaration();
+        else initializer = expressionStatement();
+
+        Expr condition = null;
+        if (!check(SEMICOLON)) condition = expression();
+        consume(SEMICOLON, "Expect ';' after loop condition.");
+
+        Expr increment = null;
+        if (!check(RIGHT_PAREN)) increment = expression();
+        consume(RIGHT_PAREN, "Expect ')' after for clauses.");
+
+        Stmt body = statement();
+
+        if (increment != null)
+        {
+            Stmt step = new Stmt.Expression(increment);
+            step.line = increment.line;
+            body = at(keyword, new Stmt.Block(Arrays.asList(body, step)));
+        }
+        if (condition == null) condition = at(keyword, new Expr.Literal(true));
+        body = at(keyword, new Stmt.While(condition, body));
+        if (initializer != null) body = at(keyword, new Stmt.Block(Arrays.asList(initializer, body)));
+        return body;
+    }
+
+    private Stmt whileStatement()
+    {
+        Token keyword = previous();
+        consume(LEFT_PAREN, "Expect '(' after 'while'.");
+        Expr condition = expression();
+        consume(RIGHT_PAREN, "Expect ')' after condition.");
+        Stmt body = statement();
+        return at(keyword, new Stmt.While(condition, body));
+    }
+
+    private Stmt ifStatement()
+    {
+        Token keyword = previous();
+        consume(LEFT_PAREN, "Expect '(' after 'if'.");
+        Expr condition = expression();
+        consume(RIGHT_PAREN, "Expect ')' after if condition.");
+
+        Stmt thenBranch = statement();
+        Stmt elseBranch = null;
+        if (match(ELSE)) elseBranch = statement();
+        return at(keyword, new Stmt.If(condition, thenBranch, elseBranch));
+    }
+
+    // import "path"; a module's top level runs once, so it can't depend on a call's arguments
+    private Stmt importStatement()
+    {
+        Token keyword = previous();
+        if (functionDepth > 0) error(keyword, "Can't import inside a function.");
+        Token path = consume(STRING, "Expect module path after 'import'.");
+        consume(SEMICOLON, "Expect ';' after module path.");
+        return at(keyword, new Stmt.Import(keyword, path));
+    }
+
+    private Stmt returnStatement()
+    {
+        Token keyword = previous();
+        // Report it but keep parsing, the parser is not confused
+        if (functionDepth == 0) error(keyword, "Can't return from top-level code.");
+        Expr value = null;
+        if (!check(SEMICOLON)) value = expression();
+        consume(SEMICOLON, "Expect ';' after return value.");
+        return at(keyword, new Stmt.Return(keyword, value));
+    }
+
+    private Stmt.Function function(String kind)
+    {
+        Token keyword = previous();
+        Token name = consume(IDENTIFIER, "Expect " + kind + " name.");
+        consume(LEFT_PAREN, "Expect '(' after " + kind + " name.");
+        List<Token> parameters = new ArrayList<>();
+        if (!check(RIGHT_PAREN))
+        {
+            do
+            {
+                if (parameters.size() >= 255) error(peek(), "Can't have more than 255 parameters.");
+                parameters.add(consume(IDENTIFIER, "Expect parameter name."));
+            } while (match(COMMA));
+        }
+        consume(RIGHT_PAREN, "Expect ')' after parameters.");
+
+        consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
+        List<Stmt> body;
+        functionDepth++;
+        try
+        {
+            body = block();
+        }
+        finally
+        {
+            functionDepth--;
+        }
+        Stmt.Function function = at(keyword, new Stmt.Function(name, parameters, body));
+        // Nested functions get resolved along with the outermost one
+        if (functionDepth == 0) Resolver.resolve(function);
+        return function;
+    }
+
     private Stmt printStatement()
     {
+        Token keyword = previous();
         Expr value = expression();
         consume(SEMICOLON,"Expect ';' after value.");
-        return new Stmt.Print(value);
+        return at(keyword, new Stmt.Print(value));
     }
 
     private Stmt varDeclaration()
     {
+        Token keyword = previous();
         Token name = consume(IDENTIFIER,"Expect variable name." );
 
         Expr initializer = null;
@@ -135,7 +275,7 @@ class Parser
         }
 
         consume(SEMICOLON, "Expect ';' after variable declaration.");
-        return new Stmt.Var(name, initializer);
+        return at(keyword, new Stmt.Var(name, initializer));
 
     }
 
@@ -143,7 +283,9 @@ class Parser
     {
         Expr expr = expression();
         consume(SEMICOLON, "Expect ';' after expression.");
-        return new Stmt.Expression(expr);
+        Stmt stmt = new Stmt.Expression(expr);
+        stmt.line = expr.line;
+        return stmt;
     }
 
 
@@ -169,7 +311,13 @@ class Parser
 
             if (expr instanceof Expr.Variable) {
                 Token name = ((Expr.Variable)expr).name;
-                return new Expr.Assign(name, value);
+                return at(name, new Expr.Assign(name, value));
+            }
+
+            // list[index] = value
+            if (expr instanceof Expr.Index) {
+                Expr.Index index = (Expr.Index)expr;
+                return at(index.bracket, new Expr.SetIndex(index.object, index.bracket, index.index, value));
             }
 
             error(equals, "Invalid assignment target.");
@@ -190,7 +338,7 @@ class Parser
             // This will increment our token btw as we descend down our grammar we will eventually find the rule that matches this token and consume it
             Expr right = comparison();
             // We wrap our expressions on the left hand side, tough stuff walk through it really understand it. this is the heart of recursive descent parsars
-            expr = new Expr.Binary(expr, operator, right);
+            expr = at(operator, new Expr.Binary(expr, operator, right));
         }
         return expr;
     }
@@ -203,7 +351,7 @@ class Parser
         {
             Token operator = previous();
             Expr right = term();
-            expr = new Expr.Binary(expr, operator, right);
+            expr = at(operator, new Expr.Binary(expr, operator, right));
         }
         return expr;
     }
@@ -217,7 +365,7 @@ class Parser
         {
             Token operator = previous();
             Expr right = factor();
-            expr = new Expr.Binary(expr, operator, right);
+            expr = at(operator, new Expr.Binary(expr, operator, right));
         }
         return expr;
     }
@@ -231,7 +379,7 @@ class Parser
         {
             Token operator = previous();
             Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
+            expr = at(operator, new Expr.Binary(expr, operator, right));
         }
         return expr;
     }
@@ -242,27 +390,84 @@ class Parser
         if(match(BANG, MINUS)) {
             Token operator = previous();
             Expr right = unary();
-            return new Expr.Unary(operator, right);
+            return at(operator, new Expr.Unary(operator, right));
+        }
+        return call();
+    }
+
+    // call → primary ( "(" arguments? ")" | "[" expression "]" )*
+    private Expr call()
+    {
+        Expr expr = primary();
+        while (true)
+        {
+            if (match(LEFT_PAREN))
+            {
+                expr = finishCall(expr);
+            }
+            else if (match(LEFT_BRACKET))
+            {
+                Token bracket = previous();
+                Expr index = expression();
+                consume(RIGHT_BRACKET, "Expect ']' after index.");
+                expr = at(bracket, new Expr.Index(expr, bracket, index));
+            }
+            else
+            {
+                break;
+            }
         }
-        return primary();
+        return expr;
+    }
+
+    private Expr finishCall(Expr callee)
+    {
+        Token paren = previous();
+        List<Expr> arguments = new ArrayList<>();
+        if (!check(RIGHT_PAREN))
+        {
+            do
+            {
+                if (arguments.size() >= 255) error(peek(), "Can't have more than 255 arguments.");
+                arguments.add(expression());
+            } while (match(COMMA));
+        }
+        consume(RIGHT_PAREN, "Expect ')' after arguments.");
+        return at(paren, new Expr.Call(callee, paren, arguments));
     }
 
     private Expr primary()
     {
-        if (match(FALSE)) return new Expr.Literal(false);
-        if (match(TRUE)) return new Expr.Literal(true);
-        if (match(NIL)) return new Expr.Literal(null);
+        if (match(FALSE)) return at(previous(), new Expr.Literal(false));
+        if (match(TRUE)) return at(previous(), new Expr.Literal(true));
+        if (match(NIL)) return at(previous(), new Expr.Literal(null));
 
-        if(match(NUMBER, STRING)) { return new Expr.Literal(previous().literal); }
+        if(match(NUMBER, STRING)) { return at(previous(), new Expr.Literal(previous().literal)); }
 
         if(match(IDENTIFIER))
-        {return new Expr.Variable(previous());}
+        {return at(previous(), new Expr.Variable(previous()));}
+
+        if(match(LEFT_BRACKET))
+        {
+            Token bracket = previous();
+            List<Expr> elements = new ArrayList<>();
+            if (!check(RIGHT_BRACKET))
+            {
+                do
+                {
+                    elements.add(expression());
+                } while (match(COMMA));
+            }
+            consume(RIGHT_BRACKET, "Expect ']' after list elements.");
+            return at(bracket, new Expr.ListLiteral(bracket, elements));
+        }
 
         if(match(LEFT_PAREN))
         {
+            Token paren = previous();
             Expr expr = expression();
             consume(RIGHT_PAREN, "Expect ')' after expression.");
-            return new Expr.Grouping(expr);
+            return at(paren, new Expr.Grouping(expr));
         }
         throw error(peek(), "Expect expression.");
     }
@@ -323,6 +528,20 @@ class Parser
         return tokens.get(current - 1);
     }
 
+    // Stamps a freshly built node with its token's line. For a binary or postfix node that's
+    // the operator, not the left operand, the same line its runtime errors report.
+    private <T extends Expr> T at(Token token, T expr)
+    {
+        expr.line = token.line;
+        return expr;
+    }
+
+    private <T extends Stmt> T at(Token token, T stmt)
+    {
+        stmt.line = token.line;
+        return stmt;
+    }
+
     private ParseError error(Token token, String message)
     {
         Lox.error(token, message);
@@ -339,6 +558,7 @@ class Parser
                 case VAR:
                 case FOR:
                 case IF:
+                case IMPORT:
                 case WHILE:
                 case PRINT:
                 case RETURN:
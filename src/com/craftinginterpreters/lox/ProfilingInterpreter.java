@@ -0,0 +1,257 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+Interpreter that times every Stmt and Expr it runs and reports the hot lines at the end.
+
+Profiling lives in a subclass on purpose: the plain Interpreter never pays for it. Its
+evaluate/execute stay tiny and monomorphic, and this class is only loaded when someone asks
+for --profile.
+
+While running we build a tree of frames, one per AST node per path through the tree, with
+an execution count, inclusive time and self time (inclusive minus the children). A node
+that is already on the path, which is what recursion looks like, goes back to that frame
+instead of adding one more level, so fib(30) has as many frames as fib(3). That tree gives
+us both outputs:
+
+    report()           per source line: hits, self time and inclusive time, hottest first
+    writeCollapsed()   one "frame;frame;frame nanos" line per path, the format
+                       flamegraph.pl and speedscope read
+ */
+class ProfilingInterpreter extends Interpreter
+{
+    private static class Frame
+    {
+        final Frame parent;
+        final Object node;
+        final String kind;
+        final int line;
+        // The frames below this one, and for a node already on the path up here, the frame
+        // recursion folds back into (its parent isn't this one, walks of the tree skip it)
+        final Map<Object, Frame> children = new IdentityHashMap<>();
+        long count;
+        long totalNanos;
+        long selfNanos;
+        // Entries from another line or into a function's body, and the time spent under the
+        // ones from another line, for report()
+        long hits;
+        long lineNanos;
+        // How many executions are inside this frame right now, more than one when recursing
+        int active;
+
+        Frame(Frame parent, Object node, String kind, int line)
+        {
+            this.parent = parent;
+            this.node = node;
+            this.kind = kind;
+            this.line = line;
+        }
+
+        boolean owns(Frame child)
+        {
+            return child.parent == this;
+        }
+
+        String label()
+        {
+            return kind + ":" + line;
+        }
+    }
+
+    private static final byte HIT = 1;
+    private static final byte NEW_LINE = 2;
+
+    private final Frame root = new Frame(null, null, "program", 0);
+    // One entry per execution we are inside, the innermost at depth - 1
+    private Frame[] frames = new Frame[256];
+    private long[] starts = new long[256];
+    private long[] childNanos = new long[256];
+    private byte[] flags = new byte[256];
+    private int depth;
+
+    ProfilingInterpreter(Environment globals, PrintWriter out)
+    {
+        super(globals, out);
+        // Compiled loops skip evaluate(), so keep every loop in the tree walker to see it all
+        osrThreshold = -1;
+        // Helper threads would run statements on plain interpreters, out of sight
+        parallelism = 1;
+    }
+
+    @Override
+    Object evaluate(Expr expr)
+    {
+        enter(expr, expr.line);
+        try
+        {
+            return super.evaluate(expr);
+        }
+        finally
+        {
+            exit();
+        }
+    }
+
+    @Override
+    void execute(Stmt stmt)
+    {
+        enter(stmt, stmt.line);
+        try
+        {
+            super.execute(stmt);
+        }
+        finally
+        {
+            exit();
+        }
+    }
+
+    private void enter(Object node, int line)
+    {
+        Frame caller = depth == 0 ? root : frames[depth - 1];
+        Frame frame = caller.children.get(node);
+        if (frame == null)
+        {
+            frame = onPath(caller, node);
+            if (frame == null)
+            {
+                // Binary -> BinaryExpr, Print -> PrintStmt, same names the visitors use
+                String kind = node.getClass().getSimpleName() + (node instanceof Stmt ? "Stmt" : "Expr");
+                frame = new Frame(caller, node, kind, line);
+            }
+            caller.children.put(node, frame);
+        }
+
+        if (depth == frames.length)
+        {
+            frames = Arrays.copyOf(frames, depth * 2);
+            starts = Arrays.copyOf(starts, depth * 2);
+            childNanos = Arrays.copyOf(childNanos, depth * 2);
+            flags = Arrays.copyOf(flags, depth * 2);
+        }
+        // A statement entered from an expression is a call's body, a hit even on the call's line
+        boolean newLine = line != caller.line;
+        boolean hit = newLine || (node instanceof Stmt && caller.node instanceof Expr);
+        frames[depth] = frame;
+        flags[depth] = (byte) ((hit ? HIT : 0) | (newLine ? NEW_LINE : 0));
+        childNanos[depth] = 0;
+        frame.active++;
+        starts[depth++] = System.nanoTime();
+    }
+
+    // The frame for node on the path down to frame, or null
+    private static Frame onPath(Frame frame, Object node)
+    {
+        for (; frame != null; frame = frame.parent)
+        {
+            if (frame.node == node) return frame;
+        }
+        return null;
+    }
+
+    private void exit()
+    {
+        int top = --depth;
+        long elapsed = System.nanoTime() - starts[top];
+        Frame frame = frames[top];
+        frame.count++;
+        frame.selfNanos += elapsed - childNanos[top];
+        if ((flags[top] & HIT) != 0) frame.hits++;
+        // Inner recursive executions are part of the outermost one's time already
+        if (--frame.active == 0)
+        {
+            frame.totalNanos += elapsed;
+            if ((flags[top] & NEW_LINE) != 0) frame.lineNanos += elapsed;
+        }
+        if (top > 0) childNanos[top - 1] += elapsed;
+    }
+
+    private static class LineStats
+    {
+        long hits;
+        long selfNanos;
+        long totalNanos;
+    }
+
+    // Hot spots by line, sorted by self time. source may be null, then we skip the text column.
+    void report(PrintWriter out, String source, int limit)
+    {
+        Map<Integer, LineStats> lines = new TreeMap<>();
+        collect(root, lines);
+
+        long programNanos = 0;
+        for (Frame child : root.children.values()) programNanos += child.totalNanos;
+
+        List<Map.Entry<Integer, LineStats>> sorted = new ArrayList<>(lines.entrySet());
+        sorted.sort((a, b) -> Long.compare(b.getValue().selfNanos, a.getValue().selfNanos));
+
+        String[] text = source == null ? new String[0] : source.split("\n", -1);
+        out.println("-- profile: " + String.format("%.3f", programNanos / 1e6) + " ms --");
+        out.printf("%6s %10s %7s %11s %11s  %s%n", "line", "hits", "self%", "self ms", "total ms", "source");
+        int shown = 0;
+        for (Map.Entry<Integer, LineStats> entry : sorted)
+        {
+            if (shown++ == limit) break;
+            int line = entry.getKey();
+            LineStats stats = entry.getValue();
+            String code = line >= 1 && line <= text.length ? text[line - 1].trim() : "";
+            out.printf("%6d %10d %6.1f%% %11.3f %11.3f  %s%n",
+                    line, stats.hits,
+                    programNanos == 0 ? 0.0 : 100.0 * stats.selfNanos / programNanos,
+                    stats.selfNanos / 1e6, stats.totalNanos / 1e6, code);
+        }
+        out.flush();
+    }
+
+    // A line's hits count how often execution entered it, from another line or as the start
+    // of a call, and its total time only the entries from another line, so nested nodes on
+    // one line are not counted twice.
+    private void collect(Frame frame, Map<Integer, LineStats> lines)
+    {
+        for (Frame child : frame.children.values())
+        {
+            if (!frame.owns(child)) continue;
+            LineStats stats = lines.computeIfAbsent(child.line, line -> new LineStats());
+            stats.selfNanos += child.selfNanos;
+            stats.hits += child.hits;
+            stats.totalNanos += child.lineNanos;
+            collect(child, lines);
+        }
+    }
+
+    // Collapsed stacks, self time in nanoseconds. Sibling nodes with the same label merge.
+    void writeCollapsed(Writer out) throws IOException
+    {
+        Map<String, Long> stacks = new LinkedHashMap<>();
+        for (Frame child : root.children.values()) collapse(child, "", stacks);
+        for (Map.Entry<String, Long> entry : stacks.entrySet())
+        {
+            if (entry.getValue() == 0) continue;
+            out.write(entry.getKey());
+            out.write(' ');
+            out.write(Long.toString(entry.getValue()));
+            out.write('\n');
+        }
+        out.flush();
+    }
+
+    private void collapse(Frame frame, String prefix, Map<String, Long> stacks)
+    {
+        String stack = prefix.isEmpty() ? frame.label() : prefix + ";" + frame.label();
+        stacks.merge(stack, frame.selfNanos, Long::sum);
+        for (Frame child : frame.children.values())
+        {
+            if (frame.owns(child)) collapse(child, stack, stacks);
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+Gives every variable inside a function a slot in its CallFrame.
+
+Top level code keeps using Environments (globals can be defined by anything, javax.script
+Bindings included), but inside a function every name declared there is known before it
+runs. The Resolver walks a function once, right after it is parsed, and stamps each
+Variable, Assign, Var and Function node with where its variable lives:
+
+    ENVIRONMENT   not declared in any enclosing function, look it up by name like before
+    LOCAL         locals[slot] of the current CallFrame
+    CELL          locals[slot] holds a Cell, because an inner function captured it
+    UPVALUE       upvalues[slot] of the running function, a Cell from an enclosing frame
+
+Each declaration gets its own slot, blocks do not reuse them, so a function's frame is
+just big enough for everything it ever declares. Captured variables go in a Cell so the
+closure and the frame share one box; a var declared in a loop body gets a new Cell every
+time around, the same way the tree walker made a new Environment per iteration.
+
+The Resolver never reports errors. Names it cannot find are left to the Environment at
+run time, which is where the tree walker looked them up anyway.
+ */
+final class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
+{
+    static final byte ENVIRONMENT = 0;
+    static final byte LOCAL = 1;
+    static final byte CELL = 2;
+    static final byte UPVALUE = 3;
+
+    // What a call needs to build the frame and a declaration needs to build the closure
+    static final class Layout
+    {
+        final int slots;
+        // Parameters an inner function captures, they start out boxed
+        final int[] cellParams;
+        // For each upvalue: n >= 0 is the Cell in the enclosing frame's locals[n],
+        // ~n the enclosing function's own upvalues[n]
+        final int[] upvalues;
+        // Source names of the slots and upvalues, only read by tools like the debugger
+        final String[] names;
+        final String[] upvalueNames;
+
+        Layout(int slots, int[] cellParams, int[] upvalues, String[] names, String[] upvalueNames)
+        {
+            this.slots = slots;
+            this.cellParams = cellParams;
+            this.upvalues = upvalues;
+            this.names = names;
+            this.upvalueNames = upvalueNames;
+        }
+    }
+
+    private static final class Local
+    {
+        final Resolver owner;
+        final int slot;
+        final String name;
+        boolean captured;
+
+        Local(Resolver owner, int slot, String name)
+        {
+            this.owner = owner;
+            this.slot = slot;
+            this.name = name;
+        }
+    }
+
+    // Resolves a function declared outside any other function, and everything nested in it
+    static void resolve(Stmt.Function function)
+    {
+        new Resolver(null).function(function);
+    }
+
+    private final Resolver enclosing;
+    private final List<Map<String, Local>> scopes = new ArrayList<>();
+    private int slots;
+    private final Map<Local, Integer> upvalueIndex = new IdentityHashMap<>();
+    private final List<Integer> upvalues = new ArrayList<>();
+    private final List<String> names = new ArrayList<>();
+    private final List<String> upvalueNames = new ArrayList<>();
+    // Nodes that use a local, stamped once we know whether it was captured
+    private final List<Object> nodes = new ArrayList<>();
+    private final List<Local> locals = new ArrayList<>();
+
+    private Resolver(Resolver enclosing)
+    {
+        this.enclosing = enclosing;
+    }
+
+    private void function(Stmt.Function function)
+    {
+        scopes.add(new HashMap<>());
+        List<Local> params = new ArrayList<>();
+        for (Token param : function.params) params.add(declare(param.lexeme));
+        for (Stmt statement : function.body) resolve(statement);
+        scopes.remove(scopes.size() - 1);
+
+        for (int i = 0; i < nodes.size(); i++)
+        {
+            Local local = locals.get(i);
+            stamp(nodes.get(i), local.captured ? CELL : LOCAL, local.slot);
+        }
+        function.layout = new Layout(
+                slots,
+                params.stream().filter(local -> local.captured).mapToInt(local -> local.slot).toArray(),
+                upvalues.stream().mapToInt(Integer::intValue).toArray(),
+                names.toArray(new String[0]),
+                upvalueNames.toArray(new String[0]));
+    }
+
+    private Local declare(String name)
+    {
+        Local local = new Local(this, slots++, name);
+        names.add(name);
+        scopes.get(scopes.size() - 1).put(name, local);
+        return local;
+    }
+
+    // This function's own local, or null
+    private Local find(String name)
+    {
+        for (int i = scopes.size() - 1; i >= 0; i--)
+        {
+            Local local = scopes.get(i).get(name);
+            if (local != null) return local;
+        }
+        return null;
+    }
+
+    private int upvalue(Local local)
+    {
+        Integer index = upvalueIndex.get(local);
+        if (index != null) return index;
+
+        int source;
+        if (local.owner == enclosing)
+        {
+            local.captured = true;
+            source = local.slot;
+        }
+        else
+        {
+            source = ~enclosing.upvalue(local);
+        }
+        upvalues.add(source);
+        upvalueNames.add(local.name);
+        upvalueIndex.put(local, upvalues.size() - 1);
+        return upvalues.size() - 1;
+    }
+
+    private void use(Object node, String name)
+    {
+        Local local = find(name);
+        if (local != null)
+        {
+            nodes.add(node);
+            locals.add(local);
+            return;
+        }
+        for (Resolver function = enclosing; function != null; function = function.enclosing)
+        {
+            local = function.find(name);
+            if (local != null)
+            {
+                stamp(node, UPVALUE, upvalue(local));
+                return;
+            }
+        }
+        // Not ours, stays ENVIRONMENT
+    }
+
+    private static void stamp(Object node, byte scope, int slot)
+    {
+        if (node instanceof Expr.Variable)
+        {
+            ((Expr.Variable) node).scope = scope;
+            ((Expr.Variable) node).slot = slot;
+        }
+        else if (node instanceof Expr.Assign)
+        {
+            ((Expr.Assign) node).scope = scope;
+            ((Expr.Assign) node).slot = slot;
+        }
+        else if (node instanceof Stmt.Var)
+        {
+            ((Stmt.Var) node).scope = scope;
+            ((Stmt.Var) node).slot = slot;
+        }
+        else
+        {
+            ((Stmt.Function) node).scope = scope;
+            ((Stmt.Function) node).slot = slot;
+        }
+    }
+
+    private void resolve(Expr expr)
+    {
+        if (expr != null) expr.accept(this);
+    }
+
+    private void resolve(Stmt stmt)
+    {
+        if (stmt != null) stmt.accept(this);
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt)
+    {
+        scopes.add(new HashMap<>());
+        for (Stmt statement : stmt.statements) resolve(statement);
+        scopes.remove(scopes.size() - 1);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt)
+    {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt)
+    {
+        // Declared before the body so the function can call itself
+        declare(stmt.name.lexeme);
+        use(stmt, stmt.name.lexeme);
+        new Resolver(this).function(stmt);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt)
+    {
+        resolve(stmt.condition);
+        resolve(stmt.thenBranch);
+        resolve(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt)
+    {
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt)
+    {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt)
+    {
+        resolve(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt)
+    {
+        // The initializer still sees the outer name, same as the tree walker
+        resolve(stmt.initializer);
+        declare(stmt.name.lexeme);
+        use(stmt, stmt.name.lexeme);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt)
+    {
+        resolve(stmt.condition);
+        resolve(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr)
+    {
+        resolve(expr.value);
+        use(expr, expr.name.lexeme);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr)
+    {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr)
+    {
+        resolve(expr.callee);
+        for (Expr argument : expr.arguments) resolve(argument);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr)
+    {
+        resolve(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr)
+    {
+        resolve(expr.object);
+        resolve(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitListLiteralExpr(Expr.ListLiteral expr)
+    {
+        for (Expr element : expr.elements) resolve(element);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr)
+    {
+        return null;
+    }
+
+    @Override
+    public Void visitSetIndexExpr(Expr.SetIndex expr)
+    {
+        resolve(expr.object);
+        resolve(expr.index);
+        resolve(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr)
+    {
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr)
+    {
+        use(expr, expr.name.lexeme);
+        return null;
+    }
+}
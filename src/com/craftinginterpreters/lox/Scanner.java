@@ -21,6 +21,7 @@ public class Scanner
         keywords.put("for",    FOR);
         keywords.put("fun",    FUN);
         keywords.put("if",     IF);
+        keywords.put("import", IMPORT);
         keywords.put("nil",    NIL);
         keywords.put("or",     OR);
         keywords.put("print",  PRINT);
@@ -47,6 +48,11 @@ public class Scanner
 
     List<Token> scanTokens()
     {
+        LoxEvents.Scan event = new LoxEvents.Scan();
+        int errorsBefore = event.isEnabled() ? Lox.reporter().syntaxErrors : 0;
+        event.begin();
+        long started = System.nanoTime();
+
         while(!isAtEnd())
         {
             start = current;
@@ -54,6 +60,18 @@ public class Scanner
         }
         tokens.add(new Token(EOF, "", null, line));
 
+        LoxMetrics.INSTANCE.scanLatency.record(System.nanoTime() - started);
+        LoxMetrics.INSTANCE.tokensScanned.add(tokens.size());
+
+        if (event.shouldCommit())
+        {
+            event.source = LoxEvents.source();
+            event.characters = source.length();
+            event.tokens = tokens.size();
+            event.errors = Lox.reporter().syntaxErrors - errorsBefore;
+            event.commit();
+        }
+
         return tokens;  // Add this line
     }
 
@@ -66,6 +84,8 @@ public class Scanner
             case ')': addToken(RIGHT_PAREN); break;
             case '{': addToken(LEFT_BRACE); break;
             case '}': addToken(RIGHT_BRACE); break;
+            case '[': addToken(LEFT_BRACKET); break;
+            case ']': addToken(RIGHT_BRACKET); break;
             case ',': addToken(COMMA); break;
             case '.': addToken(DOT); break;
             case '-': addToken(MINUS); break;
@@ -182,8 +202,7 @@ public class Scanner
             advance();
             while (isDigit(peek())) advance();
         }
-        addToken(NUMBER,
-                Double.parseDouble(source.substring(start, current)));
+        addToken(NUMBER, LoxNumbers.parse(source.substring(start, current)));
     }
 
     private void string()
@@ -0,0 +1,689 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Generated by GenerateAst --records, don't edit by hand.
+// The AST as sealed interfaces and records, dispatched with a switch instead of a visitor.
+// Only the fields the Parser sets are here, the Resolver's slots and the call site and
+// loop caches only exist on Expr and Stmt.
+final class SealedAst
+{
+    private SealedAst() {}
+
+    sealed interface Expr permits Expr.Assign, Expr.Binary, Expr.Call, Expr.Grouping, Expr.Index, Expr.ListLiteral, Expr.Literal, Expr.SetIndex, Expr.Unary, Expr.Variable
+    {
+        int ASSIGN = 0;
+        int BINARY = 1;
+        int CALL = 2;
+        int GROUPING = 3;
+        int INDEX = 4;
+        int LIST_LITERAL = 5;
+        int LITERAL = 6;
+        int SET_INDEX = 7;
+        int UNARY = 8;
+        int VARIABLE = 9;
+
+        // Which record this is, one of the constants above
+        int tag();
+
+        int line();
+
+        record Assign(int line, Token name, Expr value) implements Expr
+        {
+            @Override
+            public int tag()
+            {
+                return ASSIGN;
+            }
+        }
+
+        record Binary(int line, Expr left, Token operator, Expr right) implements Expr
+        {
+            @Override
+            public int tag()
+            {
+                return BINARY;
+            }
+        }
+
+        record Call(int line, Expr callee, Token paren, List<Expr> arguments) implements Expr
+        {
+            @Override
+            public int tag()
+            {
+                return CALL;
+            }
+        }
+
+        record Grouping(int line, Expr expression) implements Expr
+        {
+            @Override
+            public int tag()
+            {
+                return GROUPING;
+            }
+        }
+
+        record Index(int line, Expr object, Token bracket, Expr index) implements Expr
+        {
+            @Override
+            public int tag()
+            {
+                return INDEX;
+            }
+        }
+
+        record ListLiteral(int line, Token bracket, List<Expr> elements) implements Expr
+        {
+            @Override
+            public int tag()
+            {
+                return LIST_LITERAL;
+            }
+        }
+
+        record Literal(int line, Object value) implements Expr
+        {
+            @Override
+            public int tag()
+            {
+                return LITERAL;
+            }
+        }
+
+        record SetIndex(int line, Expr object, Token bracket, Expr index, Expr value) implements Expr
+        {
+            @Override
+            public int tag()
+            {
+                return SET_INDEX;
+            }
+        }
+
+        record Unary(int line, Token operator, Expr right) implements Expr
+        {
+            @Override
+            public int tag()
+            {
+                return UNARY;
+            }
+        }
+
+        record Variable(int line, Token name) implements Expr
+        {
+            @Override
+            public int tag()
+            {
+                return VARIABLE;
+            }
+        }
+    }
+
+    sealed interface Stmt permits Stmt.Block, Stmt.Expression, Stmt.Function, Stmt.If, Stmt.Import, Stmt.Print, Stmt.Return, Stmt.Var, Stmt.While
+    {
+        int BLOCK = 0;
+        int EXPRESSION = 1;
+        int FUNCTION = 2;
+        int IF = 3;
+        int IMPORT = 4;
+        int PRINT = 5;
+        int RETURN = 6;
+        int VAR = 7;
+        int WHILE = 8;
+
+        // Which record this is, one of the constants above
+        int tag();
+
+        int line();
+
+        record Block(int line, List<Stmt> statements) implements Stmt
+        {
+            @Override
+            public int tag()
+            {
+                return BLOCK;
+            }
+        }
+
+        record Expression(int line, Expr expression) implements Stmt
+        {
+            @Override
+            public int tag()
+            {
+                return EXPRESSION;
+            }
+        }
+
+        record Function(int line, Token name, List<Token> params, List<Stmt> body) implements Stmt
+        {
+            @Override
+            public int tag()
+            {
+                return FUNCTION;
+            }
+        }
+
+        record If(int line, Expr condition, Stmt thenBranch, Stmt elseBranch) implements Stmt
+        {
+            @Override
+            public int tag()
+            {
+                return IF;
+            }
+        }
+
+        record Import(int line, Token keyword, Token path) implements Stmt
+        {
+            @Override
+            public int tag()
+            {
+                return IMPORT;
+            }
+        }
+
+        record Print(int line, Expr expression) implements Stmt
+        {
+            @Override
+            public int tag()
+            {
+                return PRINT;
+            }
+        }
+
+        record Return(int line, Token keyword, Expr value) implements Stmt
+        {
+            @Override
+            public int tag()
+            {
+                return RETURN;
+            }
+        }
+
+        record Var(int line, Token name, Expr initializer) implements Stmt
+        {
+            @Override
+            public int tag()
+            {
+                return VAR;
+            }
+        }
+
+        record While(int line, Expr condition, Stmt body) implements Stmt
+        {
+            @Override
+            public int tag()
+            {
+                return WHILE;
+            }
+        }
+    }
+
+    abstract static class ExprSwitch<R>
+    {
+        final R dispatch(Expr expr)
+        {
+            switch (expr.tag())
+            {
+                case Expr.ASSIGN: return visitAssignExpr((Expr.Assign) expr);
+                case Expr.BINARY: return visitBinaryExpr((Expr.Binary) expr);
+                case Expr.CALL: return visitCallExpr((Expr.Call) expr);
+                case Expr.GROUPING: return visitGroupingExpr((Expr.Grouping) expr);
+                case Expr.INDEX: return visitIndexExpr((Expr.Index) expr);
+                case Expr.LIST_LITERAL: return visitListLiteralExpr((Expr.ListLiteral) expr);
+                case Expr.LITERAL: return visitLiteralExpr((Expr.Literal) expr);
+                case Expr.SET_INDEX: return visitSetIndexExpr((Expr.SetIndex) expr);
+                case Expr.UNARY: return visitUnaryExpr((Expr.Unary) expr);
+                case Expr.VARIABLE: return visitVariableExpr((Expr.Variable) expr);
+                default: throw new AssertionError(expr);
+            }
+        }
+
+        abstract R visitAssignExpr(Expr.Assign expr);
+        abstract R visitBinaryExpr(Expr.Binary expr);
+        abstract R visitCallExpr(Expr.Call expr);
+        abstract R visitGroupingExpr(Expr.Grouping expr);
+        abstract R visitIndexExpr(Expr.Index expr);
+        abstract R visitListLiteralExpr(Expr.ListLiteral expr);
+        abstract R visitLiteralExpr(Expr.Literal expr);
+        abstract R visitSetIndexExpr(Expr.SetIndex expr);
+        abstract R visitUnaryExpr(Expr.Unary expr);
+        abstract R visitVariableExpr(Expr.Variable expr);
+    }
+
+    abstract static class StmtSwitch<R>
+    {
+        final R dispatch(Stmt stmt)
+        {
+            switch (stmt.tag())
+            {
+                case Stmt.BLOCK: return visitBlockStmt((Stmt.Block) stmt);
+                case Stmt.EXPRESSION: return visitExpressionStmt((Stmt.Expression) stmt);
+                case Stmt.FUNCTION: return visitFunctionStmt((Stmt.Function) stmt);
+                case Stmt.IF: return visitIfStmt((Stmt.If) stmt);
+                case Stmt.IMPORT: return visitImportStmt((Stmt.Import) stmt);
+                case Stmt.PRINT: return visitPrintStmt((Stmt.Print) stmt);
+                case Stmt.RETURN: return visitReturnStmt((Stmt.Return) stmt);
+                case Stmt.VAR: return visitVarStmt((Stmt.Var) stmt);
+                case Stmt.WHILE: return visitWhileStmt((Stmt.While) stmt);
+                default: throw new AssertionError(stmt);
+            }
+        }
+
+        abstract R visitBlockStmt(Stmt.Block stmt);
+        abstract R visitExpressionStmt(Stmt.Expression stmt);
+        abstract R visitFunctionStmt(Stmt.Function stmt);
+        abstract R visitIfStmt(Stmt.If stmt);
+        abstract R visitImportStmt(Stmt.Import stmt);
+        abstract R visitPrintStmt(Stmt.Print stmt);
+        abstract R visitReturnStmt(Stmt.Return stmt);
+        abstract R visitVarStmt(Stmt.Var stmt);
+        abstract R visitWhileStmt(Stmt.While stmt);
+    }
+
+    static List<Stmt> from(List<com.craftinginterpreters.lox.Stmt> statements)
+    {
+        return CONVERTER.stmts(statements);
+    }
+
+    static Expr from(com.craftinginterpreters.lox.Expr expr)
+    {
+        return CONVERTER.expr(expr);
+    }
+
+    private static final Converter CONVERTER = new Converter();
+
+    private static final class Converter
+            implements com.craftinginterpreters.lox.Expr.Visitor<Expr>, com.craftinginterpreters.lox.Stmt.Visitor<Stmt>
+    {
+        Expr expr(com.craftinginterpreters.lox.Expr expr)
+        {
+            return expr == null ? null : expr.accept(this);
+        }
+
+        Stmt stmt(com.craftinginterpreters.lox.Stmt stmt)
+        {
+            return stmt == null ? null : stmt.accept(this);
+        }
+
+        List<Expr> exprs(List<com.craftinginterpreters.lox.Expr> exprs)
+        {
+            List<Expr> records = new ArrayList<>(exprs.size());
+            for (com.craftinginterpreters.lox.Expr expr : exprs) records.add(expr(expr));
+            return records;
+        }
+
+        List<Stmt> stmts(List<com.craftinginterpreters.lox.Stmt> stmts)
+        {
+            List<Stmt> records = new ArrayList<>(stmts.size());
+            for (com.craftinginterpreters.lox.Stmt stmt : stmts) records.add(stmt(stmt));
+            return records;
+        }
+
+        @Override
+        public Expr visitAssignExpr(com.craftinginterpreters.lox.Expr.Assign expr)
+        {
+            return new Expr.Assign(expr.line, expr.name, expr(expr.value));
+        }
+
+        @Override
+        public Expr visitBinaryExpr(com.craftinginterpreters.lox.Expr.Binary expr)
+        {
+            return new Expr.Binary(expr.line, expr(expr.left), expr.operator, expr(expr.right));
+        }
+
+        @Override
+        public Expr visitCallExpr(com.craftinginterpreters.lox.Expr.Call expr)
+        {
+            return new Expr.Call(expr.line, expr(expr.callee), expr.paren, exprs(expr.arguments));
+        }
+
+        @Override
+        public Expr visitGroupingExpr(com.craftinginterpreters.lox.Expr.Grouping expr)
+        {
+            return new Expr.Grouping(expr.line, expr(expr.expression));
+        }
+
+        @Override
+        public Expr visitIndexExpr(com.craftinginterpreters.lox.Expr.Index expr)
+        {
+            return new Expr.Index(expr.line, expr(expr.object), expr.bracket, expr(expr.index));
+        }
+
+        @Override
+        public Expr visitListLiteralExpr(com.craftinginterpreters.lox.Expr.ListLiteral expr)
+        {
+            return new Expr.ListLiteral(expr.line, expr.bracket, exprs(expr.elements));
+        }
+
+        @Override
+        public Expr visitLiteralExpr(com.craftinginterpreters.lox.Expr.Literal expr)
+        {
+            return new Expr.Literal(expr.line, expr.value);
+        }
+
+        @Override
+        public Expr visitSetIndexExpr(com.craftinginterpreters.lox.Expr.SetIndex expr)
+        {
+            return new Expr.SetIndex(expr.line, expr(expr.object), expr.bracket, expr(expr.index), expr(expr.value));
+        }
+
+        @Override
+        public Expr visitUnaryExpr(com.craftinginterpreters.lox.Expr.Unary expr)
+        {
+            return new Expr.Unary(expr.line, expr.operator, expr(expr.right));
+        }
+
+        @Override
+        public Expr visitVariableExpr(com.craftinginterpreters.lox.Expr.Variable expr)
+        {
+            return new Expr.Variable(expr.line, expr.name);
+        }
+
+        @Override
+        public Stmt visitBlockStmt(com.craftinginterpreters.lox.Stmt.Block stmt)
+        {
+            return new Stmt.Block(stmt.line, stmts(stmt.statements));
+        }
+
+        @Override
+        public Stmt visitExpressionStmt(com.craftinginterpreters.lox.Stmt.Expression stmt)
+        {
+            return new Stmt.Expression(stmt.line, expr(stmt.expression));
+        }
+
+        @Override
+        public Stmt visitFunctionStmt(com.craftinginterpreters.lox.Stmt.Function stmt)
+        {
+            return new Stmt.Function(stmt.line, stmt.name, stmt.params, stmts(stmt.body));
+        }
+
+        @Override
+        public Stmt visitIfStmt(com.craftinginterpreters.lox.Stmt.If stmt)
+        {
+            return new Stmt.If(stmt.line, expr(stmt.condition), stmt(stmt.thenBranch), stmt(stmt.elseBranch));
+        }
+
+        @Override
+        public Stmt visitImportStmt(com.craftinginterpreters.lox.Stmt.Import stmt)
+        {
+            return new Stmt.Import(stmt.line, stmt.keyword, stmt.path);
+        }
+
+        @Override
+        public Stmt visitPrintStmt(com.craftinginterpreters.lox.Stmt.Print stmt)
+        {
+            return new Stmt.Print(stmt.line, expr(stmt.expression));
+        }
+
+        @Override
+        public Stmt visitReturnStmt(com.craftinginterpreters.lox.Stmt.Return stmt)
+        {
+            return new Stmt.Return(stmt.line, stmt.keyword, expr(stmt.value));
+        }
+
+        @Override
+        public Stmt visitVarStmt(com.craftinginterpreters.lox.Stmt.Var stmt)
+        {
+            return new Stmt.Var(stmt.line, stmt.name, expr(stmt.initializer));
+        }
+
+        @Override
+        public Stmt visitWhileStmt(com.craftinginterpreters.lox.Stmt.While stmt)
+        {
+            return new Stmt.While(stmt.line, expr(stmt.condition), stmt(stmt.body));
+        }
+    }
+
+    static String print(Object node)
+    {
+        StringBuilder out = new StringBuilder();
+        print(out, node);
+        return out.toString();
+    }
+
+    private static void print(StringBuilder out, Object node)
+    {
+        if (node instanceof Expr expr) printExpr(out, expr);
+        else if (node instanceof Stmt stmt) printStmt(out, stmt);
+        else if (node instanceof Token token) out.append(token.lexeme);
+        else if (node instanceof List<?> list)
+        {
+            out.append('[');
+            for (int i = 0; i < list.size(); i++)
+            {
+                if (i > 0) out.append(' ');
+                print(out, list.get(i));
+            }
+            out.append(']');
+        }
+        else out.append(node);
+    }
+
+    private static void printExpr(StringBuilder out, Expr expr)
+    {
+        switch (expr.tag())
+        {
+            case Expr.ASSIGN:
+            {
+                Expr.Assign node = (Expr.Assign) expr;
+                out.append("(Assign");
+                out.append(' ');
+                print(out, node.name());
+                out.append(' ');
+                print(out, node.value());
+                out.append(')');
+                return;
+            }
+            case Expr.BINARY:
+            {
+                Expr.Binary node = (Expr.Binary) expr;
+                out.append("(Binary");
+                out.append(' ');
+                print(out, node.left());
+                out.append(' ');
+                print(out, node.operator());
+                out.append(' ');
+                print(out, node.right());
+                out.append(')');
+                return;
+            }
+            case Expr.CALL:
+            {
+                Expr.Call node = (Expr.Call) expr;
+                out.append("(Call");
+                out.append(' ');
+                print(out, node.callee());
+                out.append(' ');
+                print(out, node.paren());
+                out.append(' ');
+                print(out, node.arguments());
+                out.append(')');
+                return;
+            }
+            case Expr.GROUPING:
+            {
+                Expr.Grouping node = (Expr.Grouping) expr;
+                out.append("(Grouping");
+                out.append(' ');
+                print(out, node.expression());
+                out.append(')');
+                return;
+            }
+            case Expr.INDEX:
+            {
+                Expr.Index node = (Expr.Index) expr;
+                out.append("(Index");
+                out.append(' ');
+                print(out, node.object());
+                out.append(' ');
+                print(out, node.bracket());
+                out.append(' ');
+                print(out, node.index());
+                out.append(')');
+                return;
+            }
+            case Expr.LIST_LITERAL:
+            {
+                Expr.ListLiteral node = (Expr.ListLiteral) expr;
+                out.append("(ListLiteral");
+                out.append(' ');
+                print(out, node.bracket());
+                out.append(' ');
+                print(out, node.elements());
+                out.append(')');
+                return;
+            }
+            case Expr.LITERAL:
+            {
+                Expr.Literal node = (Expr.Literal) expr;
+                out.append("(Literal");
+                out.append(' ');
+                print(out, node.value());
+                out.append(')');
+                return;
+            }
+            case Expr.SET_INDEX:
+            {
+                Expr.SetIndex node = (Expr.SetIndex) expr;
+                out.append("(SetIndex");
+                out.append(' ');
+                print(out, node.object());
+                out.append(' ');
+                print(out, node.bracket());
+                out.append(' ');
+                print(out, node.index());
+                out.append(' ');
+                print(out, node.value());
+                out.append(')');
+                return;
+            }
+            case Expr.UNARY:
+            {
+                Expr.Unary node = (Expr.Unary) expr;
+                out.append("(Unary");
+                out.append(' ');
+                print(out, node.operator());
+                out.append(' ');
+                print(out, node.right());
+                out.append(')');
+                return;
+            }
+            case Expr.VARIABLE:
+            {
+                Expr.Variable node = (Expr.Variable) expr;
+                out.append("(Variable");
+                out.append(' ');
+                print(out, node.name());
+                out.append(')');
+                return;
+            }
+            default: throw new AssertionError(expr);
+        }
+    }
+
+    private static void printStmt(StringBuilder out, Stmt stmt)
+    {
+        switch (stmt.tag())
+        {
+            case Stmt.BLOCK:
+            {
+                Stmt.Block node = (Stmt.Block) stmt;
+                out.append("(Block");
+                out.append(' ');
+                print(out, node.statements());
+                out.append(')');
+                return;
+            }
+            case Stmt.EXPRESSION:
+            {
+                Stmt.Expression node = (Stmt.Expression) stmt;
+                out.append("(Expression");
+                out.append(' ');
+                print(out, node.expression());
+                out.append(')');
+                return;
+            }
+            case Stmt.FUNCTION:
+            {
+                Stmt.Function node = (Stmt.Function) stmt;
+                out.append("(Function");
+                out.append(' ');
+                print(out, node.name());
+                out.append(' ');
+                print(out, node.params());
+                out.append(' ');
+                print(out, node.body());
+                out.append(')');
+                return;
+            }
+            case Stmt.IF:
+            {
+                Stmt.If node = (Stmt.If) stmt;
+                out.append("(If");
+                out.append(' ');
+                print(out, node.condition());
+                out.append(' ');
+                print(out, node.thenBranch());
+                out.append(' ');
+                print(out, node.elseBranch());
+                out.append(')');
+                return;
+            }
+            case Stmt.IMPORT:
+            {
+                Stmt.Import node = (Stmt.Import) stmt;
+                out.append("(Import");
+                out.append(' ');
+                print(out, node.keyword());
+                out.append(' ');
+                print(out, node.path());
+                out.append(')');
+                return;
+            }
+            case Stmt.PRINT:
+            {
+                Stmt.Print node = (Stmt.Print) stmt;
+                out.append("(Print");
+                out.append(' ');
+                print(out, node.expression());
+                out.append(')');
+                return;
+            }
+            case Stmt.RETURN:
+            {
+                Stmt.Return node = (Stmt.Return) stmt;
+                out.append("(Return");
+                out.append(' ');
+                print(out, node.keyword());
+                out.append(' ');
+                print(out, node.value());
+                out.append(')');
+                return;
+            }
+            case Stmt.VAR:
+            {
+                Stmt.Var node = (Stmt.Var) stmt;
+                out.append("(Var");
+                out.append(' ');
+                print(out, node.name());
+                out.append(' ');
+                print(out, node.initializer());
+                out.append(')');
+                return;
+            }
+            case Stmt.WHILE:
+            {
+                Stmt.While node = (Stmt.While) stmt;
+                out.append("(While");
+                out.append(' ');
+                print(out, node.condition());
+                out.append(' ');
+                print(out, node.body());
+                out.append(')');
+                return;
+            }
+            default: throw new AssertionError(stmt);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+Saves the global environment of an interpreter after an initialization script has run,
+so a fresh interpreter can start from that state without running the script again.
+
+Layout (big endian, varints are 7 bits per byte, low bits first):
+
+    int     magic "LOXS"
+    short   format VERSION
+    varint  number of bindings
+    binding* name (pooled string) followed by a tagged value
+    int     magic "LOXS" again so a truncated file never restores
+
+A value is one of BinaryFormat's literals, or a list (varint length, then the elements), a
+map (varint size, then key and value for each entry) or a reference to a list or map
+written earlier, by the order they were first written in. References keep two globals
+holding the same list the same list after a restore, and let a list contain itself.
+Functions, classes, tasks and streams can't be saved; save() fails naming the global.
+
+Strings share one pool between names and values, the same one AstCache uses, because
+initialization scripts tend to store the same strings under many names.
+ */
+class Snapshot
+{
+    private static final int MAGIC = 0x4C4F5853; // "LOXS"
+    private static final short VERSION = 3;
+
+    // After BinaryFormat's literal tags
+    private static final byte LIST_VALUE = 6;
+    private static final byte MAP_VALUE = 7;
+    private static final byte SHARED_VALUE = 8;
+
+    private Snapshot() {}
+
+    static void save(Interpreter interpreter, Path path) throws IOException
+    {
+        Path temp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+        try
+        {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp))))
+            {
+                new Writer(out).write(interpreter.globals);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally
+        {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // Defines every saved binding in the interpreter's globals, replacing any existing ones.
+    static void restore(Interpreter interpreter, Path path) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            new Reader(buffer).read(interpreter.globals);
+        }
+        catch (BufferUnderflowException e)
+        {
+            throw new IOException("Truncated snapshot '" + path + "'.");
+        }
+        catch (BinaryFormat.Corrupt e)
+        {
+            throw new IOException("Corrupt snapshot '" + path + "'.");
+        }
+    }
+
+    private static class Writer extends BinaryFormat.Encoder
+    {
+        // Every list and map written so far, by identity
+        private final Map<Object, Integer> shared = new IdentityHashMap<>();
+
+        Writer(DataOutputStream out)
+        {
+            super(out);
+        }
+
+        void write(Environment environment) throws IOException
+        {
+            Map<String, Object> values = environment.values();
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            varint(values.size());
+            for (Map.Entry<String, Object> entry : values.entrySet())
+            {
+                string(entry.getKey());
+                value(entry.getKey(), entry.getValue());
+            }
+            out.writeInt(MAGIC);
+        }
+
+        // name is the global the value hangs off, for the error message
+        private void value(String name, Object value) throws IOException
+        {
+            if (literal(value)) return;
+            if (!(value instanceof LoxList) && !(value instanceof LoxMap))
+            {
+                throw new IOException("Cannot snapshot global '" + name + "' holding " + value + ".");
+            }
+
+            Integer index = shared.get(value);
+            if (index != null)
+            {
+                out.writeByte(SHARED_VALUE);
+                varint(index);
+                return;
+            }
+            shared.put(value, shared.size());
+
+            // keys() and values() come out in the same order
+            LoxList keys = value instanceof LoxMap ? ((LoxMap) value).keys() : null;
+            LoxList elements = keys == null ? (LoxList) value : ((LoxMap) value).values();
+            out.writeByte(keys == null ? LIST_VALUE : MAP_VALUE);
+            varint(elements.size());
+            for (int i = 0; i < elements.size(); i++)
+            {
+                if (keys != null) value(name, keys.get(i));
+                value(name, elements.get(i));
+            }
+        }
+    }
+
+    private static class Reader extends BinaryFormat.Decoder
+    {
+        // Lists and maps in the order they were read, for SHARED_VALUE
+        private final List<Object> shared = new ArrayList<>();
+
+        Reader(ByteBuffer in)
+        {
+            super(in);
+        }
+
+        void read(Environment environment) throws IOException
+        {
+            if (in.getInt() != MAGIC) throw new IOException("Not a Lox snapshot.");
+            if (in.getShort() != VERSION) throw new IOException("Unsupported snapshot version.");
+
+            int count = count();
+            // Decode everything first so a corrupt file leaves the environment untouched.
+            String[] names = new String[count];
+            Object[] values = new Object[count];
+            for (int i = 0; i < count; i++)
+            {
+                names[i] = string();
+                values[i] = value();
+            }
+            if (in.getInt() != MAGIC || in.hasRemaining()) throw new IOException("Corrupt snapshot.");
+
+            for (int i = 0; i < count; i++) environment.define(names[i], values[i]);
+        }
+
+        private Object value()
+        {
+            byte tag = in.get();
+            switch (tag)
+            {
+                case LIST_VALUE:
+                {
+                    int count = count();
+                    LoxList list = new LoxList(count);
+                    // Registered before the elements, one of them may be the list itself
+                    shared.add(list);
+                    for (int i = 0; i < count; i++) list.append(value());
+                    return list;
+                }
+                case MAP_VALUE:
+                {
+                    int count = count();
+                    LoxMap map = new LoxMap();
+                    shared.add(map);
+                    for (int i = 0; i < count; i++)
+                    {
+                        Object key = value();
+                        if (!(key instanceof String) && !(key instanceof Double)) throw new BinaryFormat.Corrupt();
+                        map.put(key, value());
+                    }
+                    return map;
+                }
+                case SHARED_VALUE:
+                {
+                    int index = varint();
+                    if (index < 0 || index >= shared.size()) throw new BinaryFormat.Corrupt();
+                    return shared.get(index);
+                }
+                default: return literal(tag);
+            }
+        }
+    }
+}
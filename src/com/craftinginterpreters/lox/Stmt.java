@@ -8,10 +8,20 @@ abstract class Stmt
     {
             R visitBlockStmt(Block stmt);
             R visitExpressionStmt(Expression stmt);
+            R visitFunctionStmt(Function stmt);
+            R visitIfStmt(If stmt);
+            R visitImportStmt(Import stmt);
             R visitPrintStmt(Print stmt);
+            R visitReturnStmt(Return stmt);
             R visitVarStmt(Var stmt);
+            R visitWhileStmt(While stmt);
     }
 
+    // Source line of the node's own token: its keyword, name, operator or bracket
+    int line;
+    // Dense per process, what Coverage records under, 0 until it numbers the tree
+    int id;
+
     static class Block extends Stmt
     {
         final List<Stmt> statements;
@@ -44,6 +54,68 @@ abstract class Stmt
         }
     }
 
+    static class Function extends Stmt
+    {
+        final Token name;
+        final List<Token> params;
+        final List<Stmt> body;
+        // Filled in after parsing
+        Resolver.Layout layout;
+        byte scope;
+        int slot;
+
+        Function(Token name, List<Token> params, List<Stmt> body)
+        {
+            this.name = name;
+            this.params = params;
+            this.body = body;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor)
+        {
+            return visitor.visitFunctionStmt(this);
+        }
+    }
+
+    static class If extends Stmt
+    {
+        final Expr condition;
+        final Stmt thenBranch;
+        final Stmt elseBranch;
+
+        If(Expr condition, Stmt thenBranch, Stmt elseBranch)
+        {
+            this.condition = condition;
+            this.thenBranch = thenBranch;
+            this.elseBranch = elseBranch;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor)
+        {
+            return visitor.visitIfStmt(this);
+        }
+    }
+
+    static class Import extends Stmt
+    {
+        final Token keyword;
+        final Token path;
+
+        Import(Token keyword, Token path)
+        {
+            this.keyword = keyword;
+            this.path = path;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor)
+        {
+            return visitor.visitImportStmt(this);
+        }
+    }
+
     static class Print extends Stmt
     {
         final Expr expression;
@@ -60,10 +132,31 @@ abstract class Stmt
         }
     }
 
+    static class Return extends Stmt
+    {
+        final Token keyword;
+        final Expr value;
+
+        Return(Token keyword, Expr value)
+        {
+            this.keyword = keyword;
+            this.value = value;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor)
+        {
+            return visitor.visitReturnStmt(this);
+        }
+    }
+
     static class Var extends Stmt
     {
         final Token name;
         final Expr initializer;
+        // Filled in after parsing
+        byte scope;
+        int slot;
 
         Var(Token name, Expr initializer)
         {
@@ -78,6 +171,27 @@ abstract class Stmt
         }
     }
 
+    static class While extends Stmt
+    {
+        final Expr condition;
+        final Stmt body;
+        // Filled in after parsing
+        int backEdges;
+        LoopCompiler.Loop compiled;
+
+        While(Expr condition, Stmt body)
+        {
+            this.condition = condition;
+            this.body = body;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor)
+        {
+            return visitor.visitWhileStmt(this);
+        }
+    }
+
 
     abstract <R> R accept(Visitor<R> visitor);
 }
@@ -7,25 +7,45 @@ import java.util.List;
 
 public class GenerateAst
 {
+    // After the | are fields filled in once the node exists, not set by the Parser:
+    // the Resolver's slots, call site caches, loop counters in Stmt
+    private static final List<String> EXPR_TYPES = Arrays.asList(
+            "Assign      : Token name, Expr value | byte scope, int slot",
+            "Binary      : Expr left, Token operator, Expr right",
+            "Call        : Expr callee, Token paren, List<Expr> arguments | LoxCallable cached",
+            "Grouping    : Expr expression",
+            "Index       : Expr object, Token bracket, Expr index",
+            "ListLiteral : Token bracket, List<Expr> elements",
+            "Literal     : Object value",
+            "SetIndex    : Expr object, Token bracket, Expr index, Expr value",
+            "Unary       : Token operator, Expr right",
+            "Variable    : Token name | byte scope, int slot"
+    );
+
+    private static final List<String> STMT_TYPES = Arrays.asList(
+            "Block      : List<Stmt> statements",
+            "Expression : Expr expression",
+            "Function   : Token name, List<Token> params, List<Stmt> body | Resolver.Layout layout, byte scope, int slot",
+            "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
+            "Import     : Token keyword, Token path",
+            "Print      : Expr expression",
+            "Return     : Token keyword, Expr value",
+            "Var        : Token name, Expr initializer | byte scope, int slot",
+            "While      : Expr condition, Stmt body | int backEdges, LoopCompiler.Loop compiled"
+    );
+
+    // GenerateAst             Expr.java and Stmt.java, abstract classes with a Visitor each,
+    //                         which is what the interpreter runs on
+    // GenerateAst --records   those, plus SealedAst.java: the same nodes as records under sealed
+    //                         interfaces, with switch based dispatch scaffolding
     public static void main(String[] args) throws IOException
     {
         String outputDir = "src/com/craftinginterpreters/lox";
 
-        defineAst(outputDir, "Expr", Arrays.asList(
-                "Assign   : Token name, Expr value",
-                "Binary   : Expr left, Token operator, Expr right",
-                "Grouping : Expr expression",
-                "Literal  : Object value",
-                "Unary    : Token operator, Expr right",
-                "Variable : Token name"
-        ));
+        defineAst(outputDir, "Expr", EXPR_TYPES);
+        defineAst(outputDir, "Stmt", STMT_TYPES);
 
-        defineAst(outputDir, "Stmt", Arrays.asList(
-                "Block      : List<Stmt> statements",
-                "Expression : Expr expression",
-                "Print      : Expr expression",
-                "Var        : Token name, Expr initializer"
-        ));
+        if (args.length > 0 && args[0].equals("--records")) defineSealedAst(outputDir);
     }
 
     private static void defineAst(
@@ -43,12 +63,24 @@ public class GenerateAst
         writer.println("{");
         defineVisitor(writer, baseName, types);
 
+        // Every node remembers where it came from, the Parser fills this in
+        writer.println();
+        writer.println("    // Source line of the node's own token: its keyword, name, operator or bracket");
+        writer.println("    int line;");
+        if (baseName.equals("Stmt"))
+        {
+            writer.println("    // Dense per process, what Coverage records under, 0 until it numbers the tree");
+            writer.println("    int id;");
+        }
+        writer.println();
+
         // Print AST
         for (String type : types)
         {
             String className = type.split(":")[0].trim();
-            String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+            String[] fields = type.split(":")[1].split("\\|");
+            defineType(writer, baseName, className, fields[0].trim(),
+                    fields.length > 1 ? fields[1].trim() : null);
         }
 
         // The base accept() method - ADD THIS HERE
@@ -77,7 +109,7 @@ public class GenerateAst
 
     private static void defineType(
             PrintWriter writer, String baseName,
-            String className, String fieldList)
+            String className, String fieldList, String runtimeFields)
     {
         writer.println("    static class " + className + " extends " +
                 baseName);
@@ -88,6 +120,14 @@ public class GenerateAst
             String name = field.split(" ")[1];
             writer.println("        final " + field + ";");
         }
+        if (runtimeFields != null)
+        {
+            writer.println("        // Filled in after parsing");
+            for (String field : runtimeFields.split(", "))
+            {
+                writer.println("        " + field + ";");
+            }
+        }
         // Constructor.
         writer.println();
         writer.println("        " + className + "(" + fieldList + ")");
@@ -112,4 +152,271 @@ public class GenerateAst
         writer.println();
     }
 
+    // SealedAst.java: every node of EXPR_TYPES and STMT_TYPES as a record implementing a
+    // sealed Expr or Stmt interface. Records are immutable, so only the fields the Parser
+    // sets make it in (plus line), the runtime ones after the | stay with the classes.
+    // Java 17 has no pattern matching switch outside of preview, so each record has a tag()
+    // and dispatch is a switch on it, which the compiler checks against the tag constants
+    // and the JIT turns into a jump table.
+    private static void defineSealedAst(String outputDir) throws IOException
+    {
+        PrintWriter writer = new PrintWriter(outputDir + "/SealedAst.java", "UTF-8");
+        writer.println("package com.craftinginterpreters.lox;");
+        writer.println();
+        writer.println("import java.util.ArrayList;");
+        writer.println("import java.util.List;");
+        writer.println();
+        writer.println("// Generated by GenerateAst --records, don't edit by hand.");
+        writer.println("// The AST as sealed interfaces and records, dispatched with a switch instead of a visitor.");
+        writer.println("// Only the fields the Parser sets are here, the Resolver's slots and the call site and");
+        writer.println("// loop caches only exist on Expr and Stmt.");
+        writer.println("final class SealedAst");
+        writer.println("{");
+        writer.println("    private SealedAst() {}");
+        writer.println();
+
+        defineSealedInterface(writer, "Expr", EXPR_TYPES);
+        defineSealedInterface(writer, "Stmt", STMT_TYPES);
+        defineSwitch(writer, "Expr", EXPR_TYPES);
+        defineSwitch(writer, "Stmt", STMT_TYPES);
+        defineConverter(writer);
+        definePrinter(writer);
+
+        writer.println("}");
+        writer.close();
+    }
+
+    private static String className(String type)
+    {
+        return type.split(":")[0].trim();
+    }
+
+    // The fields the Parser sets, without the runtime ones
+    private static String[] parserFields(String type)
+    {
+        return type.split(":")[1].split("\\|")[0].trim().split(", ");
+    }
+
+    private static String fieldName(String field)
+    {
+        return field.split(" ")[1];
+    }
+
+    // ListLiteral -> LIST_LITERAL
+    private static String tagName(String className)
+    {
+        return className.replaceAll("([a-z])([A-Z])", "$1_$2").toUpperCase();
+    }
+
+    private static void defineSealedInterface(PrintWriter writer, String baseName, List<String> types)
+    {
+        StringBuilder permits = new StringBuilder();
+        for (String type : types)
+        {
+            if (permits.length() > 0) permits.append(", ");
+            permits.append(baseName).append('.').append(className(type));
+        }
+        writer.println("    sealed interface " + baseName + " permits " + permits);
+        writer.println("    {");
+        for (int i = 0; i < types.size(); i++)
+        {
+            writer.println("        int " + tagName(className(types.get(i))) + " = " + i + ";");
+        }
+        writer.println();
+        writer.println("        // Which record this is, one of the constants above");
+        writer.println("        int tag();");
+        writer.println();
+        writer.println("        int line();");
+        for (String type : types)
+        {
+            String className = className(type);
+            writer.println();
+            writer.println("        record " + className + "(int line, " + String.join(", ", parserFields(type))
+                    + ") implements " + baseName);
+            writer.println("        {");
+            writer.println("            @Override");
+            writer.println("            public int tag()");
+            writer.println("            {");
+            writer.println("                return " + tagName(className) + ";");
+            writer.println("            }");
+            writer.println("        }");
+        }
+        writer.println("    }");
+        writer.println();
+    }
+
+    // The switch counterpart of a Visitor: extend it, implement a method per record, call dispatch
+    private static void defineSwitch(PrintWriter writer, String baseName, List<String> types)
+    {
+        String argument = baseName.toLowerCase();
+        writer.println("    abstract static class " + baseName + "Switch<R>");
+        writer.println("    {");
+        writer.println("        final R dispatch(" + baseName + " " + argument + ")");
+        writer.println("        {");
+        writer.println("            switch (" + argument + ".tag())");
+        writer.println("            {");
+        for (String type : types)
+        {
+            String className = className(type);
+            writer.println("                case " + baseName + "." + tagName(className) + ": return visit" + className
+                    + baseName + "((" + baseName + "." + className + ") " + argument + ");");
+        }
+        writer.println("                default: throw new AssertionError(" + argument + ");");
+        writer.println("            }");
+        writer.println("        }");
+        writer.println();
+        for (String type : types)
+        {
+            String className = className(type);
+            writer.println("        abstract R visit" + className + baseName + "(" + baseName + "." + className + " "
+                    + argument + ");");
+        }
+        writer.println("    }");
+        writer.println();
+    }
+
+    // How a field of the class tree becomes the same field of the record tree
+    private static String convert(String field, String source)
+    {
+        String type = field.split(" ")[0];
+        String value = source + "." + fieldName(field);
+        switch (type)
+        {
+            case "Expr": return "expr(" + value + ")";
+            case "Stmt": return "stmt(" + value + ")";
+            case "List<Expr>": return "exprs(" + value + ")";
+            case "List<Stmt>": return "stmts(" + value + ")";
+            default: return value;
+        }
+    }
+
+    // Copies a tree the Parser made into records. The class tree is named by its full name,
+    // Expr and Stmt in here are the sealed ones.
+    private static void defineConverter(PrintWriter writer)
+    {
+        String exprClass = "com.craftinginterpreters.lox.Expr";
+        String stmtClass = "com.craftinginterpreters.lox.Stmt";
+        writer.println("    static List<Stmt> from(List<" + stmtClass + "> statements)");
+        writer.println("    {");
+        writer.println("        return CONVERTER.stmts(statements);");
+        writer.println("    }");
+        writer.println();
+        writer.println("    static Expr from(" + exprClass + " expr)");
+        writer.println("    {");
+        writer.println("        return CONVERTER.expr(expr);");
+        writer.println("    }");
+        writer.println();
+        writer.println("    private static final Converter CONVERTER = new Converter();");
+        writer.println();
+        writer.println("    private static final class Converter");
+        writer.println("            implements " + exprClass + ".Visitor<Expr>, " + stmtClass + ".Visitor<Stmt>");
+        writer.println("    {");
+        writer.println("        Expr expr(" + exprClass + " expr)");
+        writer.println("        {");
+        writer.println("            return expr == null ? null : expr.accept(this);");
+        writer.println("        }");
+        writer.println();
+        writer.println("        Stmt stmt(" + stmtClass + " stmt)");
+        writer.println("        {");
+        writer.println("            return stmt == null ? null : stmt.accept(this);");
+        writer.println("        }");
+        writer.println();
+        writer.println("        List<Expr> exprs(List<" + exprClass + "> exprs)");
+        writer.println("        {");
+        writer.println("            List<Expr> records = new ArrayList<>(exprs.size());");
+        writer.println("            for (" + exprClass + " expr : exprs) records.add(expr(expr));");
+        writer.println("            return records;");
+        writer.println("        }");
+        writer.println();
+        writer.println("        List<Stmt> stmts(List<" + stmtClass + "> stmts)");
+        writer.println("        {");
+        writer.println("            List<Stmt> records = new ArrayList<>(stmts.size());");
+        writer.println("            for (" + stmtClass + " stmt : stmts) records.add(stmt(stmt));");
+        writer.println("            return records;");
+        writer.println("        }");
+        defineConversions(writer, "Expr", exprClass, EXPR_TYPES);
+        defineConversions(writer, "Stmt", stmtClass, STMT_TYPES);
+        writer.println("    }");
+        writer.println();
+    }
+
+    private static void defineConversions(PrintWriter writer, String baseName, String fullName, List<String> types)
+    {
+        String argument = baseName.toLowerCase();
+        for (String type : types)
+        {
+            String className = className(type);
+            StringBuilder arguments = new StringBuilder(argument + ".line");
+            for (String field : parserFields(type)) arguments.append(", ").append(convert(field, argument));
+            writer.println();
+            writer.println("        @Override");
+            writer.println("        public " + baseName + " visit" + className + baseName + "(" + fullName + "."
+                    + className + " " + argument + ")");
+            writer.println("        {");
+            writer.println("            return new " + baseName + "." + className + "(" + arguments + ");");
+            writer.println("        }");
+        }
+    }
+
+    // Prints a record tree as s-expressions, (Binary (Literal 1.0) + (Variable x)), a worked
+    // example of a switch over every record
+    private static void definePrinter(PrintWriter writer)
+    {
+        writer.println("    static String print(Object node)");
+        writer.println("    {");
+        writer.println("        StringBuilder out = new StringBuilder();");
+        writer.println("        print(out, node);");
+        writer.println("        return out.toString();");
+        writer.println("    }");
+        writer.println();
+        writer.println("    private static void print(StringBuilder out, Object node)");
+        writer.println("    {");
+        writer.println("        if (node instanceof Expr expr) printExpr(out, expr);");
+        writer.println("        else if (node instanceof Stmt stmt) printStmt(out, stmt);");
+        writer.println("        else if (node instanceof Token token) out.append(token.lexeme);");
+        writer.println("        else if (node instanceof List<?> list)");
+        writer.println("        {");
+        writer.println("            out.append('[');");
+        writer.println("            for (int i = 0; i < list.size(); i++)");
+        writer.println("            {");
+        writer.println("                if (i > 0) out.append(' ');");
+        writer.println("                print(out, list.get(i));");
+        writer.println("            }");
+        writer.println("            out.append(']');");
+        writer.println("        }");
+        writer.println("        else out.append(node);");
+        writer.println("    }");
+        definePrintSwitch(writer, "Expr", EXPR_TYPES);
+        definePrintSwitch(writer, "Stmt", STMT_TYPES);
+    }
+
+    private static void definePrintSwitch(PrintWriter writer, String baseName, List<String> types)
+    {
+        String argument = baseName.toLowerCase();
+        writer.println();
+        writer.println("    private static void print" + baseName + "(StringBuilder out, " + baseName + " " + argument + ")");
+        writer.println("    {");
+        writer.println("        switch (" + argument + ".tag())");
+        writer.println("        {");
+        for (String type : types)
+        {
+            String className = className(type);
+            writer.println("            case " + baseName + "." + tagName(className) + ":");
+            writer.println("            {");
+            writer.println("                " + baseName + "." + className + " node = (" + baseName + "." + className + ") "
+                    + argument + ";");
+            writer.println("                out.append(\"(" + className + "\");");
+            for (String field : parserFields(type))
+            {
+                writer.println("                out.append(' ');");
+                writer.println("                print(out, node." + fieldName(field) + "());");
+            }
+            writer.println("                out.append(')');");
+            writer.println("                return;");
+            writer.println("            }");
+        }
+        writer.println("            default: throw new AssertionError(" + argument + ");");
+        writer.println("        }");
+        writer.println("    }");
+    }
 }
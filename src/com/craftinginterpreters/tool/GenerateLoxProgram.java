@@ -0,0 +1,334 @@
+package com.craftinginterpreters.tool;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.SplittableRandom;
+
+/*
+Writes big, valid Lox programs for stress testing and benchmarking the scanner, parser and
+interpreter. The same seed and options always give the same program, byte for byte.
+
+    java com.craftinginterpreters.tool.GenerateLoxProgram [options]
+
+    --seed n           random seed (default 42)
+    --size n[K|M|G]    stop once the program is at least this many bytes (default 1M)
+    --depth n          deepest block nesting (default 4)
+    --width n          most operands in one expression (default 6)
+    --identifiers n    number of global variables to read and write (default 100)
+    --literals a,b,c   weights for number, string and boolean literals (default 6,3,1)
+    --comments p       chance of a comment line before a statement, 0..1 (default 0.1)
+    --blocks p         chance a statement opens a block, 0..1 (default 0.1)
+    --out path         file to write, stdout if missing
+
+Programs also run without runtime errors: every global is declared up front, numeric and
+string variables are kept apart so operands always type check, and string variables are
+only ever assigned literals so their values do not grow as the program runs.
+ */
+public class GenerateLoxProgram
+{
+    public static class Options
+    {
+        public long seed = 42;
+        public long size = 1 << 20;
+        public int depth = 4;
+        public int width = 6;
+        public int identifiers = 100;
+        public int numberWeight = 6;
+        public int stringWeight = 3;
+        public int booleanWeight = 1;
+        public double comments = 0.1;
+        public double blocks = 0.1;
+    }
+
+    private static final String[] WORDS = {
+            "alpha", "beta", "gamma", "delta", "river", "stone", "cloud", "ember",
+            "maple", "quartz", "violet", "zephyr", "kettle", "lantern", "meadow", "pixel"
+    };
+
+    private final Options options;
+    private final SplittableRandom random;
+    private final Writer out;
+    private long written = 0;
+    // Number of locals declared in each enclosing block, so we only read ones that exist
+    private final int[] localsAtDepth;
+
+    private GenerateLoxProgram(Options options, Writer out)
+    {
+        this.options = options;
+        this.random = new SplittableRandom(options.seed);
+        this.out = out;
+        this.localsAtDepth = new int[options.depth + 1];
+    }
+
+    public static void generate(Options options, Writer out) throws IOException
+    {
+        new GenerateLoxProgram(options, out).program();
+        out.flush();
+    }
+
+    public static String generate(Options options)
+    {
+        StringWriter writer = new StringWriter();
+        try
+        {
+            generate(options, writer);
+        }
+        catch (IOException e)
+        {
+            // StringWriter never throws
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    private void program() throws IOException
+    {
+        // Half the globals hold numbers (n*), the other half strings (s*).
+        int numbers = numberGlobals();
+        for (int i = 0; i < numbers; i++) emit("var n" + i + " = " + numberLiteral() + ";\n");
+        for (int i = 0; i < stringGlobals(); i++) emit("var s" + i + " = " + stringLiteral() + ";\n");
+
+        while (written < options.size)
+        {
+            statement(0);
+        }
+    }
+
+    private int numberGlobals()
+    {
+        return Math.max(1, (options.identifiers + 1) / 2);
+    }
+
+    private int stringGlobals()
+    {
+        return Math.max(1, options.identifiers / 2);
+    }
+
+    private void statement(int depth) throws IOException
+    {
+        if (random.nextDouble() < options.comments)
+        {
+            indent(depth);
+            emit("// " + word() + " " + word() + " " + random.nextInt(1000) + "\n");
+        }
+
+        if (depth < options.depth && random.nextDouble() < options.blocks)
+        {
+            block(depth);
+            return;
+        }
+
+        indent(depth);
+        // The literal mix picks what kind of value each statement works with
+        int kind = literalKind();
+        if (random.nextBoolean())
+        {
+            if (kind == 0) emit("print " + numberExpr(depth, width()) + ";\n");
+            else if (kind == 1) emit("print " + stringExpr(depth, width()) + ";\n");
+            else emit("print " + booleanExpr(depth) + ";\n");
+        }
+        else if (kind == 1)
+        {
+            emit("s" + random.nextInt(stringGlobals()) + " = " + stringLiterals(width()) + ";\n");
+        }
+        else
+        {
+            emit(numberTarget(depth) + " = " + numberExpr(depth, width()) + ";\n");
+        }
+    }
+
+    // 0 = number, 1 = string, 2 = boolean, weighted by --literals
+    private int literalKind()
+    {
+        int total = options.numberWeight + options.stringWeight + options.booleanWeight;
+        if (total <= 0) return 0;
+        int pick = random.nextInt(total);
+        if (pick < options.numberWeight) return 0;
+        if (pick < options.numberWeight + options.stringWeight) return 1;
+        return 2;
+    }
+
+    private void block(int depth) throws IOException
+    {
+        indent(depth);
+        emit("{\n");
+        int inner = depth + 1;
+        localsAtDepth[inner] = 0;
+
+        int locals = random.nextInt(3);
+        for (int i = 0; i < locals; i++)
+        {
+            indent(inner);
+            emit("var l" + inner + "_" + i + " = " + numberExpr(depth, width()) + ";\n");
+            localsAtDepth[inner]++;
+        }
+
+        int statements = 1 + random.nextInt(4);
+        for (int i = 0; i < statements; i++) statement(inner);
+
+        localsAtDepth[inner] = 0;
+        indent(depth);
+        emit("}\n");
+    }
+
+    private int width()
+    {
+        return 1 + random.nextInt(Math.max(1, options.width));
+    }
+
+    private String numberTarget(int depth)
+    {
+        if (depth > 0 && random.nextBoolean())
+        {
+            int scope = 1 + random.nextInt(depth);
+            if (localsAtDepth[scope] > 0) return "l" + scope + "_" + random.nextInt(localsAtDepth[scope]);
+        }
+        return "n" + random.nextInt(numberGlobals());
+    }
+
+    private String numberExpr(int depth, int operands)
+    {
+        StringBuilder builder = new StringBuilder(numberOperand(depth));
+        for (int i = 1; i < operands; i++)
+        {
+            builder.append(' ').append("+-*/".charAt(random.nextInt(4))).append(' ');
+            if (random.nextInt(4) == 0) builder.append('(').append(numberExpr(depth, 2)).append(')');
+            else builder.append(numberOperand(depth));
+        }
+        return builder.toString();
+    }
+
+    private String numberOperand(int depth)
+    {
+        switch (random.nextInt(4))
+        {
+            case 0: return numberLiteral();
+            case 1: return "-" + numberLiteral();
+            default: return numberTarget(depth);
+        }
+    }
+
+    private String stringExpr(int depth, int operands)
+    {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < operands; i++)
+        {
+            if (i > 0) builder.append(" + ");
+            if (random.nextBoolean()) builder.append("s").append(random.nextInt(stringGlobals()));
+            else builder.append(stringLiteral());
+        }
+        return builder.toString();
+    }
+
+    private String stringLiterals(int operands)
+    {
+        StringBuilder builder = new StringBuilder(stringLiteral());
+        for (int i = 1; i < operands; i++) builder.append(" + ").append(stringLiteral());
+        return builder.toString();
+    }
+
+    private String booleanExpr(int depth)
+    {
+        switch (random.nextInt(4))
+        {
+            case 0: return "!" + booleanLiteral();
+            case 1: return stringExpr(depth, 1) + (random.nextBoolean() ? " == " : " != ") + stringExpr(depth, 1);
+            case 2: return booleanLiteral() + " == " + booleanLiteral();
+            default:
+                String[] comparisons = {" < ", " <= ", " > ", " >= ", " == ", " != "};
+                return numberExpr(depth, 2) + comparisons[random.nextInt(comparisons.length)] + numberExpr(depth, 2);
+        }
+    }
+
+    private String numberLiteral()
+    {
+        return random.nextBoolean()
+                ? String.valueOf(random.nextInt(100000))
+                : random.nextInt(1000) + "." + random.nextInt(100);
+    }
+
+    private String stringLiteral()
+    {
+        return "\"" + word() + (random.nextBoolean() ? " " + word() : "") + "\"";
+    }
+
+    private String booleanLiteral()
+    {
+        return random.nextBoolean() ? "true" : "false";
+    }
+
+    private String word()
+    {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+    private void indent(int depth) throws IOException
+    {
+        for (int i = 0; i < depth; i++) emit("  ");
+    }
+
+    private void emit(String text) throws IOException
+    {
+        out.write(text);
+        written += text.length();
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        Options options = new Options();
+        String path = null;
+        for (int i = 0; i + 1 < args.length; i += 2)
+        {
+            String value = args[i + 1];
+            switch (args[i])
+            {
+                case "--seed": options.seed = Long.parseLong(value); break;
+                case "--size": options.size = parseSize(value); break;
+                case "--depth": options.depth = Integer.parseInt(value); break;
+                case "--width": options.width = Integer.parseInt(value); break;
+                case "--identifiers": options.identifiers = Integer.parseInt(value); break;
+                case "--literals":
+                    String[] weights = value.split(",");
+                    options.numberWeight = Integer.parseInt(weights[0].trim());
+                    options.stringWeight = Integer.parseInt(weights[1].trim());
+                    options.booleanWeight = Integer.parseInt(weights[2].trim());
+                    break;
+                case "--comments": options.comments = Double.parseDouble(value); break;
+                case "--blocks": options.blocks = Double.parseDouble(value); break;
+                case "--out": path = value; break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(64);
+            }
+        }
+        if (args.length % 2 != 0)
+        {
+            System.err.println("Missing value for " + args[args.length - 1]);
+            System.exit(64);
+        }
+
+        try (Writer out = path == null
+                ? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16)
+                : Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8))
+        {
+            generate(options, out);
+        }
+    }
+
+    private static long parseSize(String value)
+    {
+        long unit = 1;
+        char last = Character.toUpperCase(value.charAt(value.length() - 1));
+        if (last == 'K') unit = 1L << 10;
+        else if (last == 'M') unit = 1L << 20;
+        else if (last == 'G') unit = 1L << 30;
+        if (unit != 1) value = value.substring(0, value.length() - 1);
+        return Long.parseLong(value) * unit;
+    }
+}